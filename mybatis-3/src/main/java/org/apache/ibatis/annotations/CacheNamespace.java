@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2016 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -40,10 +40,41 @@ public @interface CacheNamespace {
 
   int size() default 1024;
 
+  /**
+   * Estimated heap bytes the cache may hold, zero means the cache is only bounded by its size.
+   * @since 3.5.0
+   */
+  long maxBytes() default 0;
+
   boolean readWrite() default true;
+
+  /**
+   * Make the copies of a read/write cache field by field instead of through serialization.
+   * @since 3.5.0
+   */
+  boolean reflectiveCopy() default false;
   
   boolean blocking() default false;
 
+  /**
+   * Share the result of a query among the sessions that miss the same key at the same time.
+   * @since 3.5.0
+   */
+  boolean coalescing() default false;
+
+  /**
+   * Invalidate only the entries whose query read the tables a statement modified, instead of the whole cache.
+   * @since 3.5.0
+   */
+  boolean tableInvalidation() default false;
+
+  /**
+   * Expire each entry flushInterval milliseconds after it was loaded and refresh it in the background
+   * while still serving it, instead of clearing the whole cache every flushInterval.
+   * @since 3.5.0
+   */
+  boolean refreshAhead() default false;
+
   /**
    * Property values for a implementation object.
    * @since 3.4.2
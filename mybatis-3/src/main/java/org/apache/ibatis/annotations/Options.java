@@ -63,4 +63,22 @@ public @interface Options {
   String keyColumn() default "";
   
   String resultSets() default "";
+
+  /**
+   * Comma separated names of the tables the statement reads or writes, by default they are found in the sql.
+   * @since 3.5.0
+   */
+  String tables() default "";
+
+  /**
+   * Whether the results stay in the session's local cache once the query is done.
+   * @since 3.5.0
+   */
+  boolean useLocalCache() default true;
+
+  /**
+   * Whether a read/write routing data source may send the query to a replica inside a transaction.
+   * @since 3.5.0
+   */
+  boolean replicaSafe() default false;
 }
@@ -142,8 +142,9 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
+      Long maxBytes = cacheDomain.maxBytes() == 0 ? null : cacheDomain.maxBytes();
       Properties props = convertToProperties(cacheDomain.properties());
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props);
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, maxBytes, cacheDomain.readWrite(), cacheDomain.reflectiveCopy(), cacheDomain.blocking(), cacheDomain.coalescing(), cacheDomain.tableInvalidation(), cacheDomain.refreshAhead(), props);
     }
   }
 
@@ -334,7 +335,11 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          options != null ? nullOrEmpty(options.resultSets()) : null);
+          options != null ? nullOrEmpty(options.resultSets()) : null,
+          // Tables
+          options != null ? nullOrEmpty(options.tables()) : null,
+          options == null || options.useLocalCache(),
+          options != null && options.replicaSafe());
     }
   }
   
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -243,6 +243,15 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setAutoMappingBehavior(AutoMappingBehavior.valueOf(props.getProperty("autoMappingBehavior", "PARTIAL")));
     configuration.setAutoMappingUnknownColumnBehavior(AutoMappingUnknownColumnBehavior.valueOf(props.getProperty("autoMappingUnknownColumnBehavior", "NONE")));
     configuration.setCacheEnabled(booleanValueOf(props.getProperty("cacheEnabled"), true));
+    configuration.setCacheMaxBytes(longValueOf(props.getProperty("cacheMaxBytes"), null));
+    configuration.setCacheCompressionThreshold(integerValueOf(props.getProperty("cacheCompressionThreshold"), null));
+    configuration.setCacheSnapshotInterval(longValueOf(props.getProperty("cacheSnapshotInterval"), null));
+    configuration.setCacheSnapshotMaxAge(longValueOf(props.getProperty("cacheSnapshotMaxAge"), null));
+    configuration.setCacheSnapshotVersion(props.getProperty("cacheSnapshotVersion"));
+    configuration.setCacheSnapshotSaveOnShutdown(booleanValueOf(props.getProperty("cacheSnapshotSaveOnShutdown"), false));
+    configuration.setCacheSnapshotFile(props.getProperty("cacheSnapshotFile"));
+    configuration.setCacheWriteBehindQueueSize(integerValueOf(props.getProperty("cacheWriteBehindQueueSize"), null));
+    configuration.setCacheWriteBehindEnabled(booleanValueOf(props.getProperty("cacheWriteBehindEnabled"), false));
     configuration.setProxyFactory((ProxyFactory) createInstance(props.getProperty("proxyFactory")));
     configuration.setLazyLoadingEnabled(booleanValueOf(props.getProperty("lazyLoadingEnabled"), false));
     configuration.setAggressiveLazyLoading(booleanValueOf(props.getProperty("aggressiveLazyLoading"), false));
@@ -255,6 +264,15 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
     configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
     configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+    configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), null));
+    configuration.setLocalCacheMaxBytes(longValueOf(props.getProperty("localCacheMaxBytes"), null));
+    configuration.setBatchMaxSize(integerValueOf(props.getProperty("batchMaxSize"), null));
+    configuration.setBatchMaxBytes(longValueOf(props.getProperty("batchMaxBytes"), null));
+    configuration.setBatchReorderStatements(booleanValueOf(props.getProperty("batchReorderStatements"), false));
+    configuration.setBatchRewriteInserts(booleanValueOf(props.getProperty("batchRewriteInserts"), false));
+    configuration.setBatchRewriteRows(integerValueOf(props.getProperty("batchRewriteRows"), 100));
+    configuration.setBatchRewriteMaxParameters(integerValueOf(props.getProperty("batchRewriteMaxParameters"), 2000));
+    configuration.setBatchParallelism(integerValueOf(props.getProperty("batchParallelism"), 4));
     configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
     configuration.setLazyLoadTriggerMethods(stringSetValueOf(props.getProperty("lazyLoadTriggerMethods"), "equals,clone,hashCode,toString"));
     configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
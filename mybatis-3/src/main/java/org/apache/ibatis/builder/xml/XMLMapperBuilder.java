@@ -201,10 +201,15 @@ import java.util.*;
       Class<? extends Cache> evictionClass = typeAliasRegistry.resolveAlias(eviction);
       Long flushInterval = context.getLongAttribute("flushInterval");
       Integer size = context.getIntAttribute("size");
+      Long maxBytes = context.getLongAttribute("maxBytes");
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      boolean reflectiveCopy = context.getBooleanAttribute("reflectiveCopy", false);
+      boolean coalescing = context.getBooleanAttribute("coalescing", false);
+      boolean tableInvalidation = context.getBooleanAttribute("tableInvalidation", false);
+      boolean refreshAhead = context.getBooleanAttribute("refreshAhead", false);
       Properties props = context.getChildrenAsProperties();
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, maxBytes, readWrite, reflectiveCopy, blocking, coalescing, tableInvalidation, refreshAhead, props);
     }
   }
 
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
@@ -58,6 +59,31 @@ public interface Cache {
    */
   Object getObject(Object key);
 
+  /**
+   * Reads an entry without any side effect: no statistics, no access order, no lock and no refresh.
+   * Used to save the entries of a cache, as a {@link CacheSnapshot} does.
+   *
+   * @param key The key
+   * @return The object stored in the cache, or null
+   * @since 3.5.0
+   */
+  default Object peekObject(Object key) {
+    return getObject(key);
+  }
+
+  /**
+   * Puts several entries at once, as a session does when it commits.
+   * Remote caches should override it to store them in a single round trip.
+   *
+   * @param entries keys and values, values may be null as in {@link #putObject(Object, Object)}
+   * @since 3.5.0
+   */
+  default void putObjects(Map<Object, Object> entries) {
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
   /**
    * As of 3.3.0 this method is only called during a rollback 
    * for any previous value that was missing in the cache.
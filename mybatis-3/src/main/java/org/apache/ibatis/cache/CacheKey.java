@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,36 +15,40 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.apache.ibatis.reflection.ArrayUtil;
 
 /**
+ * Key of the cached results of a query, made of the parts given to {@link #update(Object)} in order.
+ *
+ * The hash codes of the parts are mixed into a 64-bit hash, so two different keys are almost never compared part
+ * by part. The parts are kept in a plain array.
+ *
  * @author Clinton Begin
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = 8365734128925302337L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME_3 = 0x165667B19E3779F9L;
+  private static final int INITIAL_CAPACITY = 8;
 
-  private final int multiplier;
-  private int hashcode;
-  private long checksum;
+  private long hash;
   private int count;
   // 8/21/2017 - Sonarlint flags this as needing to be marked transient.  While true if content is not serializable, this is not always true and thus should not be marked transient.
-  private List<Object> updateList;
+  private Object[] updateList;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
+    this.hash = PRIME_3;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
   }
 
   public CacheKey(Object[] objects) {
@@ -53,19 +57,24 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
-    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object); 
-
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
-
-    hashcode = multiplier * hashcode + baseHashCode;
+    hash = mix(hash, object);
+    if (updateList == null) {
+      updateList = new Object[INITIAL_CAPACITY];
+    } else if (count == updateList.length) {
+      updateList = Arrays.copyOf(updateList, count * 2);
+    }
+    updateList[count++] = object;
+  }
 
-    updateList.add(object);
+  private static long mix(long hash, Object object) {
+    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
+    // a round of xxHash64
+    hash += baseHashCode * PRIME_2;
+    return Long.rotateLeft(hash, 31) * PRIME_1;
   }
 
   public void updateAll(Object[] objects) {
@@ -85,19 +94,16 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
+    if (hash != cacheKey.hash) {
       return false;
     }
     if (count != cacheKey.count) {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
       if (!ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
@@ -107,22 +113,39 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    long h = hash + count;
+    h ^= h >>> 33;
+    h *= PRIME_2;
+    h ^= h >>> 29;
+    h *= PRIME_3;
+    h ^= h >>> 32;
+    return (int) h;
   }
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(ArrayUtil.toString(object));
+    StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(hash);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(ArrayUtil.toString(updateList[i]));
     }
     return returnValue.toString();
   }
 
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // the hash codes of some parts, enums for instance, are not the same from one JVM to the other
+    hash = PRIME_3;
+    for (int i = 0; i < count; i++) {
+      hash = mix(hash, updateList[i]);
+    }
+  }
+
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    if (updateList != null) {
+      clonedCacheKey.updateList = updateList.clone();
+    }
     return clonedCacheKey;
   }
 
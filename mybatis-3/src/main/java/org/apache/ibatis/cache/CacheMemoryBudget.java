@@ -0,0 +1,60 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap budget shared by all the memory weighted caches of a {@link org.apache.ibatis.session.Configuration}.
+ *
+ * Caches reserve the estimated size of what they store and release it when the entries go away. When the
+ * budget is exceeded the cache that is adding entries evicts its own least recently used ones until the
+ * total fits again.
+ */
+public class CacheMemoryBudget {
+
+  private final AtomicLong usedBytes = new AtomicLong();
+  private volatile long maxBytes;
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @param maxBytes total estimated bytes all caches may hold, zero or less means unbounded
+   */
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  public void reserve(long bytes) {
+    usedBytes.addAndGet(bytes);
+  }
+
+  public void release(long bytes) {
+    usedBytes.addAndGet(-bytes);
+  }
+
+  public boolean isExceeded() {
+    long max = maxBytes;
+    return max > 0 && usedBytes.get() > max;
+  }
+
+}
@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of all the second level caches of a {@link org.apache.ibatis.session.Configuration}.
+ *
+ * @since 3.5.0
+ */
+public class CacheMetrics {
+
+  private final ConcurrentMap<String, CacheStatistics> statistics = new ConcurrentHashMap<String, CacheStatistics>();
+
+  /**
+   * @return new statistics for the cache, replacing those of a previous cache with the same id
+   */
+  public CacheStatistics register(String id) {
+    CacheStatistics cacheStatistics = new CacheStatistics(id);
+    statistics.put(id, cacheStatistics);
+    return cacheStatistics;
+  }
+
+  /**
+   * @return statistics of the cache, or null if it was not built with this configuration
+   */
+  public CacheStatistics getStatistics(String id) {
+    return statistics.get(id);
+  }
+
+  public Collection<CacheStatistics> getStatistics() {
+    return Collections.unmodifiableCollection(statistics.values());
+  }
+
+  /**
+   * Registers the statistics of each cache as an MBean named
+   * <code>org.mybatis:type=Cache,configuration=&lt;name&gt;,id=&lt;cache id&gt;</code>.
+   *
+   * @param name distinguishes the caches of several configurations in the same server
+   */
+  public void registerMBeans(MBeanServer server, String name) {
+    try {
+      for (CacheStatistics cacheStatistics : statistics.values()) {
+        ObjectName objectName = objectName(name, cacheStatistics.getId());
+        if (!server.isRegistered(objectName)) {
+          server.registerMBean(cacheStatistics, objectName);
+        }
+      }
+    } catch (JMException e) {
+      throw new CacheException("Error registering cache statistics MBeans.  Cause: " + e, e);
+    }
+  }
+
+  public void unregisterMBeans(MBeanServer server, String name) {
+    try {
+      for (CacheStatistics cacheStatistics : statistics.values()) {
+        ObjectName objectName = objectName(name, cacheStatistics.getId());
+        if (server.isRegistered(objectName)) {
+          server.unregisterMBean(objectName);
+        }
+      }
+    } catch (JMException e) {
+      throw new CacheException("Error unregistering cache statistics MBeans.  Cause: " + e, e);
+    }
+  }
+
+  private static ObjectName objectName(String name, String id) throws JMException {
+    return new ObjectName("org.mybatis:type=Cache,configuration=" + ObjectName.quote(name) + ",id="
+        + ObjectName.quote(id));
+  }
+
+}
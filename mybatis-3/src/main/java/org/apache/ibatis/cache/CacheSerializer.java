@@ -0,0 +1,631 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * Serializer of the read/write caches of a {@link org.apache.ibatis.session.Configuration}.
+ *
+ * It writes a java serialization stream with two shortcuts for the registered classes, which are the types
+ * of the result maps. Their class descriptors are written as a number instead of their name and fields. Flat
+ * beans, whose fields are all primitives, strings, wrappers, big numbers or dates and which have a no-arg
+ * constructor and no custom serialization methods, have their fields written directly. They are read back
+ * through that constructor, so their transient fields get their initial values, and a date shared by two of
+ * their fields is read back as two copies.
+ *
+ * The numbers are only valid in this JVM, so bytes must be read by the serializer that wrote them. Values
+ * that go to other processes or to disk should use {@link SerializedCache#serialize(Serializable)}.
+ *
+ * Values bigger than the compression threshold are deflated. Each thread reuses its own buffers.
+ *
+ * @since 3.5.0
+ */
+public class CacheSerializer {
+
+  private static final byte PLAIN = 0;
+  private static final byte DEFLATED = 1;
+  private static final int REGISTERED = 1;
+  private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+  private static final int MAX_INLINE_STRING = 65535 / 3;
+
+  private static final int OBJECT = 0;
+  private static final int STRING = 1;
+  private static final int DATE = 2;
+  private static final int INT = 3;
+  private static final int LONG = 4;
+  private static final int DOUBLE = 5;
+  private static final int FLOAT = 6;
+  private static final int SHORT = 7;
+  private static final int BYTE = 8;
+  private static final int BOOLEAN = 9;
+  private static final int CHAR = 10;
+
+  private static final int NULL_VALUE = 0;
+  private static final int INLINE_VALUE = 1;
+  private static final int OBJECT_VALUE = 2;
+
+  private final ConcurrentMap<Class<?>, Registration> registrations = new ConcurrentHashMap<Class<?>, Registration>();
+  private volatile Registration[] registered = new Registration[0];
+  private volatile int compressionThreshold;
+  private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+
+  public CacheSerializer() {
+    for (Class<?> type : Arrays.<Class<?>>asList(FlatBean.class, ArrayList.class, HashMap.class, LinkedHashMap.class,
+        HashSet.class, Number.class, Integer.class, Long.class, Double.class, Boolean.class, BigDecimal.class,
+        BigInteger.class, Date.class, java.sql.Date.class, java.sql.Timestamp.class)) {
+      register(type);
+    }
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * @param compressionThreshold size in bytes above which values are deflated, zero or less disables it
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Registers a class that is likely to be cached, and its super classes. Other classes are serialized as usual.
+   */
+  public void register(Class<?> type) {
+    for (Class<?> current = type; current != null && Serializable.class.isAssignableFrom(current);
+        current = current.getSuperclass()) {
+      if (!registrations.containsKey(current)) {
+        addRegistration(current);
+      }
+    }
+  }
+
+  public boolean isRegistered(Class<?> type) {
+    return registrations.containsKey(type);
+  }
+
+  public boolean isFlat(Class<?> type) {
+    Registration registration = registrations.get(type);
+    return registration != null && registration.constructor != null;
+  }
+
+  private synchronized void addRegistration(Class<?> type) {
+    if (registrations.containsKey(type) || type.isInterface() || type.isArray() || type.isEnum()) {
+      return;
+    }
+    ObjectStreamClass descriptor = ObjectStreamClass.lookup(type);
+    if (descriptor == null || type.isAnonymousClass()) {
+      return;
+    }
+    Registration registration = new Registration(registered.length, type, descriptor);
+    registration.makeFlat();
+    Registration[] grown = Arrays.copyOf(registered, registered.length + 1);
+    grown[registration.id] = registration;
+    registered = grown;
+    registrations.put(type, registration);
+  }
+
+  public byte[] serialize(Serializable value) {
+    Buffers current = buffers.get();
+    try {
+      ByteArrayOutputStream bytes = current.bytes();
+      bytes.write(PLAIN);
+      ObjectOutputStream out = new Output(bytes);
+      out.writeObject(value);
+      out.close();
+      int threshold = compressionThreshold;
+      if (threshold > 0 && bytes.size() > threshold) {
+        return current.deflate(bytes);
+      }
+      return bytes.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    } finally {
+      current.release();
+    }
+  }
+
+  public Serializable deserialize(byte[] value) {
+    try {
+      InputStream bytes;
+      if (value[0] == DEFLATED) {
+        bytes = new ByteArrayInputStream(buffers.get().inflate(value));
+      } else {
+        bytes = new ByteArrayInputStream(value, 1, value.length - 1);
+      }
+      ObjectInputStream in = new Input(bytes);
+      Serializable result = (Serializable) in.readObject();
+      in.close();
+      return result;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private Registration registrationOf(ObjectStreamClass descriptor) {
+    Class<?> type = descriptor.forClass();
+    Registration registration = type == null ? null : registrations.get(type);
+    return registration != null && registration.descriptor == descriptor ? registration : null;
+  }
+
+  private final class Output extends ObjectOutputStream {
+
+    Output(OutputStream out) throws IOException {
+      super(out);
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass descriptor) throws IOException {
+      Registration registration = registrationOf(descriptor);
+      if (registration != null) {
+        writeByte(REGISTERED);
+        writeInt(registration.id);
+      } else {
+        writeByte(0);
+        super.writeClassDescriptor(descriptor);
+      }
+    }
+
+    @Override
+    protected Object replaceObject(Object object) {
+      Registration registration = registrations.get(object.getClass());
+      if (registration != null && registration.constructor != null) {
+        return new FlatBean(registration, object);
+      }
+      return object;
+    }
+  }
+
+  private final class Input extends SerializedCache.CustomObjectInputStream {
+
+    Input(InputStream in) throws IOException {
+      super(in);
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      if (readByte() == REGISTERED) {
+        return registration(readInt()).descriptor;
+      }
+      return super.readClassDescriptor();
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+      Registration registration = registrationOf(descriptor);
+      if (registration != null) {
+        return registration.type;
+      }
+      return super.resolveClass(descriptor);
+    }
+
+    @Override
+    protected Object resolveObject(Object object) {
+      return object instanceof FlatBean ? ((FlatBean) object).bean : object;
+    }
+
+    Registration registration(int id) throws IOException {
+      Registration[] current = registered;
+      if (id < 0 || id >= current.length) {
+        throw new IOException("Unknown class number " + id + ", the value was not written by this serializer.");
+      }
+      return current[id];
+    }
+  }
+
+  /**
+   * Replaces a flat bean in the stream.
+   */
+  private static final class FlatBean implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private Registration registration;
+    private Object bean;
+
+    public FlatBean() {
+      // used when reading
+    }
+
+    FlatBean(Registration registration, Object bean) {
+      this.registration = registration;
+      this.bean = bean;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      out.writeInt(registration.id);
+      try {
+        registration.writeFields(bean, out);
+      } catch (IllegalAccessException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      registration = ((Input) in).registration(in.readInt());
+      try {
+        bean = registration.readFields(in);
+      } catch (ReflectiveOperationException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private static final class Registration {
+    private final int id;
+    private final Class<?> type;
+    private final ObjectStreamClass descriptor;
+    private Constructor<?> constructor;
+    private Field[] fields;
+    private int[] kinds;
+
+    Registration(int id, Class<?> type, ObjectStreamClass descriptor) {
+      this.id = id;
+      this.type = type;
+      this.descriptor = descriptor;
+    }
+
+    /**
+     * Prepares the direct field access if the class is a flat bean.
+     */
+    void makeFlat() {
+      if (Modifier.isAbstract(type.getModifiers()) || Externalizable.class.isAssignableFrom(type)
+          || !Reflector.canControlMemberAccessible()) {
+        return;
+      }
+      List<Field> flatFields = new ArrayList<Field>();
+      List<Integer> flatKinds = new ArrayList<Integer>();
+      for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+        if (!Serializable.class.isAssignableFrom(current) || hasSerializationMethods(current)) {
+          return;
+        }
+        for (Field field : current.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+            continue;
+          }
+          int kind = kindOf(field.getType());
+          if (kind < 0) {
+            return;
+          }
+          flatFields.add(field);
+          flatKinds.add(kind);
+        }
+      }
+      try {
+        Constructor<?> noArg = type.getDeclaredConstructor();
+        noArg.setAccessible(true);
+        for (Field field : flatFields) {
+          field.setAccessible(true);
+        }
+        fields = flatFields.toArray(new Field[flatFields.size()]);
+        kinds = new int[flatKinds.size()];
+        for (int i = 0; i < kinds.length; i++) {
+          kinds[i] = flatKinds.get(i);
+        }
+        constructor = noArg;
+      } catch (NoSuchMethodException e) {
+        // serialized as usual
+      } catch (RuntimeException e) {
+        // not accessible, serialized as usual
+      }
+    }
+
+    private static boolean hasSerializationMethods(Class<?> type) {
+      for (Method method : type.getDeclaredMethods()) {
+        String name = method.getName();
+        if ("writeObject".equals(name) || "readObject".equals(name) || "readObjectNoData".equals(name)
+            || "writeReplace".equals(name) || "readResolve".equals(name)) {
+          return true;
+        }
+      }
+      for (Field field : type.getDeclaredFields()) {
+        if ("serialPersistentFields".equals(field.getName())) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return how a field of this type is written, or -1 if it may hold something else than a simple value
+     */
+    private static int kindOf(Class<?> fieldType) {
+      if (fieldType == String.class) {
+        return STRING;
+      } else if (fieldType == Integer.class || fieldType == int.class) {
+        return INT;
+      } else if (fieldType == Long.class || fieldType == long.class) {
+        return LONG;
+      } else if (fieldType == Double.class || fieldType == double.class) {
+        return DOUBLE;
+      } else if (fieldType == Float.class || fieldType == float.class) {
+        return FLOAT;
+      } else if (fieldType == Short.class || fieldType == short.class) {
+        return SHORT;
+      } else if (fieldType == Byte.class || fieldType == byte.class) {
+        return BYTE;
+      } else if (fieldType == Boolean.class || fieldType == boolean.class) {
+        return BOOLEAN;
+      } else if (fieldType == Character.class || fieldType == char.class) {
+        return CHAR;
+      } else if (Date.class.isAssignableFrom(fieldType)) {
+        return DATE;
+      } else if (fieldType == BigDecimal.class || fieldType == BigInteger.class || fieldType == byte[].class
+          || fieldType.isEnum()) {
+        return OBJECT;
+      }
+      return -1;
+    }
+
+    void writeFields(Object bean, ObjectOutput out) throws IOException, IllegalAccessException {
+      for (int i = 0; i < fields.length; i++) {
+        Field field = fields[i];
+        if (field.getType().isPrimitive()) {
+          writePrimitive(field, bean, kinds[i], out);
+          continue;
+        }
+        Object value = field.get(bean);
+        if (value == null) {
+          out.writeByte(NULL_VALUE);
+        } else if (kinds[i] == OBJECT || kinds[i] == DATE && value.getClass() != Date.class
+            || kinds[i] == STRING && ((String) value).length() > MAX_INLINE_STRING) {
+          out.writeByte(OBJECT_VALUE);
+          out.writeObject(value);
+        } else {
+          out.writeByte(INLINE_VALUE);
+          writeInline(value, kinds[i], out);
+        }
+      }
+    }
+
+    Object readFields(ObjectInput in) throws IOException, ClassNotFoundException, ReflectiveOperationException {
+      Object bean = constructor.newInstance();
+      for (int i = 0; i < fields.length; i++) {
+        Field field = fields[i];
+        if (field.getType().isPrimitive()) {
+          readPrimitive(field, bean, kinds[i], in);
+          continue;
+        }
+        switch (in.readByte()) {
+          case NULL_VALUE:
+            field.set(bean, null);
+            break;
+          case OBJECT_VALUE:
+            field.set(bean, in.readObject());
+            break;
+          default:
+            field.set(bean, readInline(kinds[i], in));
+        }
+      }
+      return bean;
+    }
+
+    private static void writePrimitive(Field field, Object bean, int kind, ObjectOutput out)
+        throws IOException, IllegalAccessException {
+      switch (kind) {
+        case INT:
+          out.writeInt(field.getInt(bean));
+          break;
+        case LONG:
+          out.writeLong(field.getLong(bean));
+          break;
+        case DOUBLE:
+          out.writeDouble(field.getDouble(bean));
+          break;
+        case FLOAT:
+          out.writeFloat(field.getFloat(bean));
+          break;
+        case SHORT:
+          out.writeShort(field.getShort(bean));
+          break;
+        case BYTE:
+          out.writeByte(field.getByte(bean));
+          break;
+        case BOOLEAN:
+          out.writeBoolean(field.getBoolean(bean));
+          break;
+        default:
+          out.writeChar(field.getChar(bean));
+      }
+    }
+
+    private static void readPrimitive(Field field, Object bean, int kind, ObjectInput in)
+        throws IOException, IllegalAccessException {
+      switch (kind) {
+        case INT:
+          field.setInt(bean, in.readInt());
+          break;
+        case LONG:
+          field.setLong(bean, in.readLong());
+          break;
+        case DOUBLE:
+          field.setDouble(bean, in.readDouble());
+          break;
+        case FLOAT:
+          field.setFloat(bean, in.readFloat());
+          break;
+        case SHORT:
+          field.setShort(bean, in.readShort());
+          break;
+        case BYTE:
+          field.setByte(bean, in.readByte());
+          break;
+        case BOOLEAN:
+          field.setBoolean(bean, in.readBoolean());
+          break;
+        default:
+          field.setChar(bean, in.readChar());
+      }
+    }
+
+    private static void writeInline(Object value, int kind, ObjectOutput out) throws IOException {
+      switch (kind) {
+        case STRING:
+          out.writeUTF((String) value);
+          break;
+        case DATE:
+          out.writeLong(((Date) value).getTime());
+          break;
+        case INT:
+          out.writeInt((Integer) value);
+          break;
+        case LONG:
+          out.writeLong((Long) value);
+          break;
+        case DOUBLE:
+          out.writeDouble((Double) value);
+          break;
+        case FLOAT:
+          out.writeFloat((Float) value);
+          break;
+        case SHORT:
+          out.writeShort((Short) value);
+          break;
+        case BYTE:
+          out.writeByte((Byte) value);
+          break;
+        case BOOLEAN:
+          out.writeBoolean((Boolean) value);
+          break;
+        default:
+          out.writeChar((Character) value);
+      }
+    }
+
+    private static Object readInline(int kind, ObjectInput in) throws IOException {
+      switch (kind) {
+        case STRING:
+          return in.readUTF();
+        case DATE:
+          return new Date(in.readLong());
+        case INT:
+          return in.readInt();
+        case LONG:
+          return in.readLong();
+        case DOUBLE:
+          return in.readDouble();
+        case FLOAT:
+          return in.readFloat();
+        case SHORT:
+          return in.readShort();
+        case BYTE:
+          return in.readByte();
+        case BOOLEAN:
+          return in.readBoolean();
+        default:
+          return in.readChar();
+      }
+    }
+  }
+
+  private static final class Buffers {
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] chunk = new byte[8192];
+
+    ByteArrayOutputStream bytes() {
+      return bytes;
+    }
+
+    void release() {
+      if (bytes.size() > MAX_RETAINED_BUFFER) {
+        bytes = new ByteArrayOutputStream(256);
+      } else {
+        bytes.reset();
+      }
+    }
+
+    byte[] deflate(ByteArrayOutputStream plain) {
+      byte[] input = plain.toByteArray();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2);
+      compressed.write(DEFLATED);
+      int length = input.length - 1;
+      compressed.write(length >>> 24);
+      compressed.write(length >>> 16);
+      compressed.write(length >>> 8);
+      compressed.write(length);
+      deflater.reset();
+      deflater.setInput(input, 1, length);
+      deflater.finish();
+      while (!deflater.finished()) {
+        int count = deflater.deflate(chunk);
+        compressed.write(chunk, 0, count);
+      }
+      return compressed.toByteArray();
+    }
+
+    byte[] inflate(byte[] compressed) throws DataFormatException {
+      int length = (compressed[1] & 0xFF) << 24 | (compressed[2] & 0xFF) << 16 | (compressed[3] & 0xFF) << 8
+          | compressed[4] & 0xFF;
+      byte[] plain = new byte[length];
+      inflater.reset();
+      inflater.setInput(compressed, 5, compressed.length - 5);
+      int offset = 0;
+      while (offset < length) {
+        int count = inflater.inflate(plain, offset, length - offset);
+        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new DataFormatException("Truncated compressed value");
+        }
+        offset += count;
+      }
+      return plain;
+    }
+  }
+
+}
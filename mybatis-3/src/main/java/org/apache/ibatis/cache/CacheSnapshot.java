@@ -0,0 +1,416 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Saves the hot entries of the second level caches to a file and puts them back in the caches of a new
+ * configuration, so that caches are warm right after a restart.
+ *
+ * The entries saved are the keys sampled by the {@link CacheStatistics} of each cache that are still cached, read
+ * with {@link Cache#peekObject(Object)} so that saving leaves the statistics, the eviction order and the locks of the
+ * caches untouched. Each cache is saved along with a fingerprint of its statements: their ids, the sql of those that
+ * are not dynamic and their result maps, including the serialVersionUID of the result types. A cache whose
+ * fingerprint or {@link #setVersion(String) version} changed is not restored, nor are snapshots older than
+ * {@link #setMaxAge(long) maxAge}. Caches with table invalidation are skipped, as the table versions their entries
+ * depend on do not survive a restart.
+ *
+ * Once {@link #start(Configuration)} is called the snapshot is saved periodically. Applications should call
+ * {@link #stop(Configuration)} when they shut down, which saves the snapshot a last time. With
+ * {@link #setSaveOnShutdown(boolean) saveOnShutdown} a JVM shutdown hook saves it instead when stop is not called;
+ * it is off by default, as the hook keeps the configuration reachable until stop is called.
+ *
+ * Restoring is best effort, entries that cannot be read are skipped and errors are only logged.
+ *
+ * @since 3.5.0
+ */
+public class CacheSnapshot {
+
+  private static final Log log = LogFactory.getLog(CacheSnapshot.class);
+
+  private static final int MAGIC = 0x4D424353;
+  private static final int FORMAT = 1;
+
+  private final File file;
+  private String version = "";
+  private long maxAge;
+  private long interval = 60 * 1000;
+  private boolean saveOnShutdown;
+  private ScheduledExecutorService scheduler;
+  private Thread shutdownHook;
+
+  public CacheSnapshot(File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * @param version application version, snapshots saved by another version are not restored
+   */
+  public void setVersion(String version) {
+    this.version = version == null ? "" : version;
+  }
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * @param maxAge milliseconds after which a snapshot is too old to be restored, zero means no limit
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * @param interval milliseconds between two saves once {@link #start(Configuration)} is called, one minute by
+   *          default, zero means the snapshot is only saved on {@link #stop(Configuration)}
+   */
+  public void setInterval(long interval) {
+    this.interval = interval;
+  }
+
+  public boolean isSaveOnShutdown() {
+    return saveOnShutdown;
+  }
+
+  /**
+   * @param saveOnShutdown whether {@link #start(Configuration)} registers a JVM shutdown hook that saves the caches,
+   *          false by default
+   */
+  public void setSaveOnShutdown(boolean saveOnShutdown) {
+    this.saveOnShutdown = saveOnShutdown;
+  }
+
+  /**
+   * Saves periodically the caches of the configuration and, with {@link #setSaveOnShutdown(boolean)
+   * saveOnShutdown}, a last time when the JVM shuts down.
+   */
+  public synchronized void start(final Configuration configuration) {
+    if (scheduler != null || shutdownHook != null) {
+      return;
+    }
+    if (saveOnShutdown) {
+      shutdownHook = new Thread("mybatis-cache-snapshot-shutdown") {
+        @Override
+        public void run() {
+          try {
+            save(configuration);
+          } catch (RuntimeException e) {
+            log.warn("Error saving the cache snapshot " + file + ". Cause: " + e);
+          }
+        }
+      };
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+    if (interval <= 0) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mybatis-cache-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          save(configuration);
+        } catch (RuntimeException e) {
+          log.warn("Error saving the cache snapshot " + file + ". Cause: " + e);
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the periodic saves, removes the shutdown hook and saves the caches a last time.
+   */
+  public synchronized void stop(Configuration configuration) {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    if (shutdownHook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // the JVM is already shutting down, the hook saves the caches
+      }
+      shutdownHook = null;
+    }
+    save(configuration);
+  }
+
+  /**
+   * @return number of entries saved
+   */
+  public synchronized int save(Configuration configuration) {
+    Map<String, String> fingerprints = fingerprints(configuration);
+    File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    int saved = 0;
+    try {
+      try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(version);
+        out.writeLong(System.currentTimeMillis());
+        for (Cache cache : snapshotCaches(configuration)) {
+          CacheStatistics statistics = configuration.getCacheMetrics().getStatistics(cache.getId());
+          String fingerprint = fingerprints.get(cache.getId());
+          if (statistics == null || fingerprint == null) {
+            // no cached select, nothing to warm up
+            continue;
+          }
+          List<byte[]> entries = readEntries(cache, statistics.getSampledKeys());
+          out.writeBoolean(true);
+          out.writeUTF(cache.getId());
+          out.writeUTF(fingerprint);
+          out.writeInt(entries.size());
+          for (byte[] entry : entries) {
+            out.writeInt(entry.length);
+            out.write(entry);
+          }
+          saved += entries.size();
+        }
+        out.writeBoolean(false);
+      }
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new CacheException("Error saving the cache snapshot " + file + ".  Cause: " + e, e);
+    } finally {
+      // left only when the snapshot could not be written
+      temporary.delete();
+    }
+    return saved;
+  }
+
+  /**
+   * @return number of entries put back in the caches
+   */
+  public int restore(Configuration configuration) {
+    if (!file.isFile()) {
+      return 0;
+    }
+    Map<String, String> fingerprints = fingerprints(configuration);
+    Map<String, Cache> caches = new HashMap<String, Cache>();
+    for (Cache cache : snapshotCaches(configuration)) {
+      caches.put(cache.getId(), cache);
+    }
+    int restored = 0;
+    try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+        log.warn("Ignoring the cache snapshot " + file + ", its format is unknown.");
+        return 0;
+      }
+      String savedVersion = in.readUTF();
+      long savedAt = in.readLong();
+      if (!version.equals(savedVersion) || (maxAge > 0 && System.currentTimeMillis() - savedAt > maxAge)) {
+        log.debug("Ignoring the cache snapshot " + file + ", it is outdated.");
+        return 0;
+      }
+      while (in.readBoolean()) {
+        String id = in.readUTF();
+        String fingerprint = in.readUTF();
+        int count = in.readInt();
+        Cache cache = caches.get(id);
+        boolean valid = cache != null && fingerprint.equals(fingerprints.get(id));
+        for (int i = 0; i < count; i++) {
+          byte[] entry = new byte[in.readInt()];
+          in.readFully(entry);
+          if (valid && restoreEntry(cache, entry)) {
+            restored++;
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Error reading the cache snapshot " + file + ", restored " + restored + " entries. Cause: " + e);
+    }
+    return restored;
+  }
+
+  private static List<byte[]> readEntries(Cache cache, List<Object> keys) {
+    List<byte[]> entries = new ArrayList<byte[]>(keys.size());
+    for (Object key : keys) {
+      Object value = cache.peekObject(key);
+      if (value == null) {
+        continue;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(key);
+        out.writeObject(value);
+      } catch (IOException e) {
+        // not serializable
+        continue;
+      }
+      entries.add(bytes.toByteArray());
+    }
+    return entries;
+  }
+
+  private static boolean restoreEntry(Cache cache, byte[] entry) {
+    try (ObjectInputStream in = new SerializedCache.CustomObjectInputStream(new ByteArrayInputStream(entry))) {
+      Object key = in.readObject();
+      Object value = in.readObject();
+      cache.putObject(key, value);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static Collection<Cache> snapshotCaches(Configuration configuration) {
+    // the caches are also registered under their short names
+    Map<String, Cache> caches = new LinkedHashMap<String, Cache>();
+    for (Cache cache : configuration.getCaches()) {
+      if (!(cache instanceof TableInvalidatingCache)) {
+        caches.put(cache.getId(), cache);
+      }
+    }
+    return caches.values();
+  }
+
+  private static Map<String, String> fingerprints(Configuration configuration) {
+    Map<Cache, MessageDigest> digests = new IdentityHashMap<Cache, MessageDigest>();
+    Map<String, MappedStatement> statements = new LinkedHashMap<String, MappedStatement>();
+    for (MappedStatement statement : configuration.getMappedStatements()) {
+      statements.put(statement.getId(), statement);
+    }
+    for (MappedStatement statement : statements.values()) {
+      if (statement.getCache() == null || !statement.isUseCache()) {
+        continue;
+      }
+      MessageDigest digest = digests.get(statement.getCache());
+      if (digest == null) {
+        digest = newDigest();
+        digests.put(statement.getCache(), digest);
+      }
+      update(digest, statement.getId());
+      if (statement.getSqlSource() instanceof RawSqlSource) {
+        update(digest, statement.getBoundSql(null).getSql());
+      }
+      for (ResultMap resultMap : statement.getResultMaps()) {
+        update(digest, configuration, resultMap, new IdentityHashMap<ResultMap, Boolean>());
+      }
+    }
+    Map<String, String> fingerprints = new HashMap<String, String>();
+    for (Map.Entry<Cache, MessageDigest> entry : digests.entrySet()) {
+      StringBuilder hex = new StringBuilder();
+      for (byte b : entry.getValue().digest()) {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      fingerprints.put(entry.getKey().getId(), hex.toString());
+    }
+    return fingerprints;
+  }
+
+  private static void update(MessageDigest digest, Configuration configuration, ResultMap resultMap, Map<ResultMap, Boolean> visited) {
+    if (visited.put(resultMap, Boolean.TRUE) != null) {
+      return;
+    }
+    update(digest, resultMap.getId());
+    update(digest, resultMap.getType());
+    for (ResultMapping mapping : resultMap.getResultMappings()) {
+      update(digest, mapping.getProperty());
+      update(digest, mapping.getColumn());
+      update(digest, mapping.getJavaType());
+      update(digest, mapping.getNestedQueryId());
+      if (mapping.getNestedResultMapId() != null && configuration.hasResultMap(mapping.getNestedResultMapId())) {
+        update(digest, configuration, configuration.getResultMap(mapping.getNestedResultMapId()), visited);
+      }
+    }
+  }
+
+  private static void update(MessageDigest digest, Class<?> type) {
+    if (type == null) {
+      update(digest, (String) null);
+      return;
+    }
+    update(digest, type.getName());
+    ObjectStreamClass descriptor = ObjectStreamClass.lookup(type);
+    if (descriptor != null) {
+      update(digest, String.valueOf(descriptor.getSerialVersionUID()));
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new CacheException("Cannot fingerprint the caches.  Cause: " + e, e);
+    }
+  }
+
+}
@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Activity of a second level cache since it was built or last reset.
+ *
+ * Hits, misses, puts and removals are counted by the {@link org.apache.ibatis.cache.decorators.LoggingCache},
+ * evictions by the eviction decorators and load times by the {@link org.apache.ibatis.executor.CachingExecutor}.
+ * One request in {@value #SAMPLE_RATE} is sampled to find the hot keys.
+ *
+ * @since 3.5.0
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+  private static final int SAMPLE_RATE = 16;
+  private static final int HOT_KEYS = 10;
+  private static final int TRACKED_KEYS = 128;
+
+  private final String id;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder removals = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder clears = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder loadNanos = new LongAdder();
+  private final HotKeySketch hotKeys = new HotKeySketch(TRACKED_KEYS);
+  private volatile Cache cache;
+  private volatile long estimatedBytes = -1;
+
+  public CacheStatistics(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @param cache the cache whose size is reported as the entry count
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void recordHit(Object key) {
+    hits.increment();
+    sample(key);
+  }
+
+  public void recordMiss(Object key) {
+    misses.increment();
+    sample(key);
+  }
+
+  public void recordPuts(int count) {
+    puts.add(count);
+  }
+
+  public void recordRemoval() {
+    removals.increment();
+  }
+
+  public void recordEviction() {
+    evictions.increment();
+  }
+
+  public void recordClear() {
+    clears.increment();
+  }
+
+  public void recordLoad(long nanos) {
+    loads.increment();
+    loadNanos.add(nanos);
+  }
+
+  public void setEstimatedBytes(long estimatedBytes) {
+    this.estimatedBytes = estimatedBytes;
+  }
+
+  private void sample(Object key) {
+    if (key != null && ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+      hotKeys.offer(key);
+    }
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hitCount = hits.sum();
+    long requests = hitCount + misses.sum();
+    return requests == 0 ? 0 : (double) hitCount / requests;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getRemovals() {
+    return removals.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public long getClears() {
+    return clears.sum();
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.sum();
+  }
+
+  @Override
+  public double getAverageLoadMillis() {
+    long count = loads.sum();
+    return count == 0 ? 0 : loadNanos.sum() / 1000000.0 / count;
+  }
+
+  /**
+   * @return number of entries, or -1 if unknown
+   */
+  @Override
+  public int getEntryCount() {
+    Cache current = cache;
+    return current == null ? -1 : current.getSize();
+  }
+
+  /**
+   * @return estimated heap bytes of the entries, or -1 when the cache is not memory weighted
+   */
+  @Override
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  /**
+   * @return the most requested keys and their estimated number of requests, most requested first
+   */
+  @Override
+  public Map<String, Long> getHotKeys() {
+    return hotKeys.top(HOT_KEYS, SAMPLE_RATE);
+  }
+
+  /**
+   * @return the sampled keys, most requested first, whether or not they are still cached
+   */
+  public List<Object> getSampledKeys() {
+    return hotKeys.keys();
+  }
+
+  @Override
+  public void reset() {
+    hits.reset();
+    misses.reset();
+    puts.reset();
+    removals.reset();
+    evictions.reset();
+    clears.reset();
+    loads.reset();
+    loadNanos.reset();
+    hotKeys.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics [" + id + "] hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+        + ", evictions=" + getEvictions() + ", averageLoadMillis=" + getAverageLoadMillis();
+  }
+
+}
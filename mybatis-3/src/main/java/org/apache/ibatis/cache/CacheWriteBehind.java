@@ -0,0 +1,282 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Puts the entries of committed sessions into the second level caches on background threads, so that
+ * the commit of a session does not wait for the caches.
+ *
+ * Each cache is always flushed by the same thread, so the entries of two commits reach it in the order of
+ * the commits. Clears are not deferred: they are applied on the committing thread and discard the entries
+ * of that cache still waiting to be flushed, so an entry read before a clear never lands after it. A clear
+ * and a flush of the same cache exclude each other, a clear waits for the flush in progress.
+ * At most {@link #setQueueSize(int) queueSize} commits wait to be flushed, beyond that committing sessions
+ * wait for a free slot.
+ *
+ * A session that commits and queries again right away may not find its entries in the cache yet.
+ *
+ * @since 3.5.0
+ */
+public class CacheWriteBehind {
+
+  private static final Log log = LogFactory.getLog(CacheWriteBehind.class);
+
+  private final ConcurrentHashMap<Cache, Epoch> epochs = new ConcurrentHashMap<Cache, Epoch>();
+  private final AtomicLong flushed = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private int queueSize = 1000;
+  private int threads = 2;
+  private volatile Semaphore slots;
+  private ExecutorService[] flushers;
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * @param queueSize maximum number of commits waiting to be flushed, 1000 by default
+   */
+  public synchronized void setQueueSize(int queueSize) {
+    if (queueSize <= 0) {
+      throw new CacheException("The write behind queue size must be positive but was " + queueSize);
+    }
+    this.queueSize = queueSize;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @param threads number of flushing threads, two by default
+   */
+  public synchronized void setThreads(int threads) {
+    if (threads <= 0) {
+      throw new CacheException("The write behind threads must be positive but was " + threads);
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Clears the cache now and discards the entries queued for it.
+   */
+  public void clear(Cache cache) {
+    Epoch epoch = epoch(cache);
+    epoch.lock.lock();
+    try {
+      epoch.value++;
+      cache.clear();
+    } finally {
+      epoch.lock.unlock();
+    }
+  }
+
+  /**
+   * Queues the entries of a commit, see {@link Cache#putObjects(Map)}.
+   */
+  public void putObjects(final Cache cache, final Map<Object, Object> entries) {
+    final Epoch epoch = epoch(cache);
+    final long queuedAt = epoch.current();
+    ExecutorService flusher;
+    final Semaphore permits;
+    synchronized (this) {
+      flusher = flusher(cache);
+      permits = slots;
+    }
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Got interrupted while waiting to queue the entries of the cache " + cache.getId(), e);
+    }
+    try {
+      flusher.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            put(cache, entries, epoch, queuedAt);
+          } finally {
+            permits.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // stopped meanwhile, the session has already committed so its entries are put right away
+      permits.release();
+      put(cache, entries, epoch, queuedAt);
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private void put(Cache cache, Map<Object, Object> entries, Epoch epoch, long queuedAt) {
+    epoch.lock.lock();
+    try {
+      if (epoch.value != queuedAt) {
+        discarded.incrementAndGet();
+        return;
+      }
+      cache.putObjects(entries);
+      flushed.incrementAndGet();
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      log.warn("Error putting committed entries in the cache " + cache.getId() + ". Cause: " + e);
+    } finally {
+      epoch.lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until the commits queued so far are flushed.
+   */
+  public void flush() {
+    ExecutorService[] current;
+    synchronized (this) {
+      current = flushers;
+    }
+    if (current == null) {
+      return;
+    }
+    Future<?>[] barriers = new Future<?>[current.length];
+    for (int i = 0; i < current.length; i++) {
+      barriers[i] = current[i].submit(new Runnable() {
+        @Override
+        public void run() {
+          // everything queued before is done
+        }
+      });
+    }
+    try {
+      for (Future<?> barrier : barriers) {
+        barrier.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Got interrupted while flushing the caches", e);
+    } catch (ExecutionException e) {
+      throw new CacheException("Error flushing the caches. Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Flushes the queued commits and stops the threads. They are started again by the next commit.
+   */
+  public void stop() {
+    flush();
+    synchronized (this) {
+      if (flushers != null) {
+        for (ExecutorService flusher : flushers) {
+          flusher.shutdown();
+        }
+        flushers = null;
+      }
+    }
+  }
+
+  /**
+   * @return number of commits put in their cache
+   */
+  public long getFlushedCount() {
+    return flushed.get();
+  }
+
+  /**
+   * @return number of commits dropped because their cache was cleared before they could be flushed
+   */
+  public long getDiscardedCount() {
+    return discarded.get();
+  }
+
+  /**
+   * @return number of commits whose cache threw an exception
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  public int getPendingCount() {
+    Semaphore current = slots;
+    return current == null ? 0 : queueSize - current.availablePermits();
+  }
+
+  private Epoch epoch(Cache cache) {
+    Epoch epoch = epochs.get(cache);
+    if (epoch == null) {
+      Epoch created = new Epoch();
+      epoch = epochs.putIfAbsent(cache, created);
+      if (epoch == null) {
+        epoch = created;
+      }
+    }
+    return epoch;
+  }
+
+  private synchronized ExecutorService flusher(Cache cache) {
+    if (flushers == null) {
+      slots = new Semaphore(queueSize);
+      flushers = new ExecutorService[threads];
+      for (int i = 0; i < threads; i++) {
+        final String name = "mybatis-cache-write-behind-" + i;
+        flushers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+    }
+    return flushers[(cache.hashCode() & Integer.MAX_VALUE) % flushers.length];
+  }
+
+  /**
+   * Counts the clears of a cache. The lock makes a clear and the check and put of a flush atomic.
+   */
+  private static final class Epoch {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long value;
+
+    long current() {
+      lock.lock();
+      try {
+        return value;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+  }
+
+}
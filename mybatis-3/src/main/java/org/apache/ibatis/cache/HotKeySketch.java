@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds the most frequent keys of a stream with bounded memory, using the Space-Saving algorithm.
+ *
+ * A key that is not tracked replaces the least frequent tracked key and inherits its count, which bounds
+ * the overestimation of any count by the smallest tracked count.
+ *
+ * Offers are already samples, so one that finds the sketch busy is dropped rather than blocking a cache hit.
+ */
+final class HotKeySketch {
+
+  private final int capacity;
+  private final Map<Object, long[]> counters;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  HotKeySketch(int capacity) {
+    this.capacity = capacity;
+    this.counters = new HashMap<Object, long[]>();
+  }
+
+  void offer(Object key) {
+    if (!lock.tryLock()) {
+      return;
+    }
+    try {
+      long[] counter = counters.get(key);
+      if (counter != null) {
+        counter[0]++;
+        return;
+      }
+      if (counters.size() < capacity) {
+        counters.put(key, new long[] { 1 });
+        return;
+      }
+      Object minKey = null;
+      long[] min = null;
+      for (Map.Entry<Object, long[]> entry : counters.entrySet()) {
+        if (min == null || entry.getValue()[0] < min[0]) {
+          minKey = entry.getKey();
+          min = entry.getValue();
+        }
+      }
+      counters.remove(minKey);
+      min[0]++;
+      counters.put(key, min);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param scale factor applied to the counts, the inverse of the sampling rate
+   */
+  Map<String, Long> top(int count, int scale) {
+    lock.lock();
+    try {
+      List<Map.Entry<Object, long[]>> entries = sortedEntries();
+      Map<String, Long> top = new LinkedHashMap<String, Long>();
+      for (int i = 0; i < entries.size() && i < count; i++) {
+        top.put(String.valueOf(entries.get(i).getKey()), entries.get(i).getValue()[0] * scale);
+      }
+      return top;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // called with the lock held
+  private List<Map.Entry<Object, long[]>> sortedEntries() {
+    List<Map.Entry<Object, long[]>> entries = new ArrayList<Map.Entry<Object, long[]>>(counters.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<Object, long[]>>() {
+      @Override
+      public int compare(Map.Entry<Object, long[]> o1, Map.Entry<Object, long[]> o2) {
+        return Long.compare(o2.getValue()[0], o1.getValue()[0]);
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * @return the tracked keys, most frequent first
+   */
+  List<Object> keys() {
+    lock.lock();
+    try {
+      List<Map.Entry<Object, long[]>> entries = sortedEntries();
+      List<Object> keys = new ArrayList<Object>(entries.size());
+      for (Map.Entry<Object, long[]> entry : entries) {
+        keys.add(entry.getKey());
+      }
+      return keys;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void clear() {
+    lock.lock();
+    try {
+      counters.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modification counters of the tables, shared by all the caches of a {@link org.apache.ibatis.session.Configuration}.
+ *
+ * A committed write increments the counters of the tables it modified. A cached result remembers the version
+ * of the tables it was read from, so it is stale as soon as that version changes, whatever the namespace of
+ * the statement that wrote them.
+ */
+public class TableVersions {
+
+  private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+  private volatile boolean tracked;
+
+  /**
+   * @return whether a cache depends on these versions, when not writes need not find their tables
+   */
+  public boolean isTracked() {
+    return tracked;
+  }
+
+  public void setTracked(boolean tracked) {
+    this.tracked = tracked;
+  }
+
+  /**
+   * @return a number that changes whenever any of the tables is invalidated
+   */
+  public long getVersion(Collection<String> tables) {
+    long version = 0;
+    for (String table : tables) {
+      AtomicLong counter = versions.get(table);
+      if (counter != null) {
+        version += counter.get();
+      }
+    }
+    return version;
+  }
+
+  public void invalidate(Collection<String> tables) {
+    for (String table : tables) {
+      AtomicLong counter = versions.get(table);
+      if (counter == null) {
+        AtomicLong created = new AtomicLong();
+        counter = versions.putIfAbsent(table, created);
+        if (counter == null) {
+          counter = created;
+        }
+      }
+      counter.incrementAndGet();
+    }
+  }
+
+}
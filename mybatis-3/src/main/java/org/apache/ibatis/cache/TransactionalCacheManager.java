@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -17,8 +17,11 @@ package org.apache.ibatis.cache;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
@@ -26,6 +29,20 @@ import java.util.Map;
 public class TransactionalCacheManager {
   // 通过HashMap对象维护二级缓存对应的TransactionalCache实例
   private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+  private final Set<String> invalidatedTables = new HashSet<String>();
+  private TableVersions tableVersions;
+  private final CacheWriteBehind writeBehind;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  /**
+   * @param writeBehind flushes the entries of the commits in background, null to put them in the caches on commit
+   */
+  public TransactionalCacheManager(CacheWriteBehind writeBehind) {
+    this.writeBehind = writeBehind;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
@@ -40,13 +57,44 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public boolean isClearOnCommit(Cache cache) {
+    return getTransactionalCache(cache).isClearOnCommit();
+  }
+
+  /**
+   * Invalidates the tables when the session commits.
+   */
+  public void invalidate(TableVersions versions, Collection<String> tables) {
+    tableVersions = versions;
+    invalidatedTables.addAll(tables);
+  }
+
+  /**
+   * @return whether the session modified any of the tables and has not committed yet
+   */
+  public boolean isInvalidated(Collection<String> tables) {
+    if (!invalidatedTables.isEmpty()) {
+      for (String table : tables) {
+        if (invalidatedTables.contains(table)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public void commit() {
+    if (!invalidatedTables.isEmpty()) {
+      tableVersions.invalidate(invalidatedTables);
+      invalidatedTables.clear();
+    }
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
     }
   }
 
   public void rollback() {
+    invalidatedTables.clear();
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.rollback();
     }
@@ -57,7 +105,7 @@ public class TransactionalCacheManager {
     TransactionalCache txCache = transactionalCaches.get(cache);
     if (txCache == null) {
       // 如果获取不到则创建，然后添加到Map中
-      txCache = new TransactionalCache(cache);
+      txCache = new TransactionalCache(cache, writeBehind);
       transactionalCaches.put(cache, txCache);
     }
     return txCache;
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -74,6 +74,12 @@ public class BlockingCache implements Cache {
     return value;
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    // no lock, a peek never waits for a value nor reserves the key
+    return delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
@@ -115,7 +121,7 @@ public class BlockingCache implements Cache {
   
   private void releaseLock(Object key) {
     ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
+    if (lock != null && lock.isHeldByCurrentThread()) {
       lock.unlock();
     }
   }
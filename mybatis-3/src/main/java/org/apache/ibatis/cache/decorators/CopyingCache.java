@@ -0,0 +1,96 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Read/write cache that hands out copies made without serialization.
+ *
+ * Like the {@link SerializedCache}, it stores a copy of each value and returns a new copy on every hit, so
+ * callers cannot change what other sessions get. The copies are made field by field, which is much cheaper
+ * than serializing on each put and deserializing on each hit, see {@link ObjectCopier}.
+ *
+ * @since 3.5.0
+ */
+public class CopyingCache implements Cache {
+
+  private final Cache delegate;
+
+  public CopyingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object object) {
+    delegate.putObject(key, ObjectCopier.copy(object));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return ObjectCopier.copy(delegate.getObject(key));
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    return ObjectCopier.copy(delegate.peekObject(key));
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /**
+   * Copies a value the way this decorator does.
+   */
+  public static Object copy(Object value) {
+    return ObjectCopier.copy(value);
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * FIFO (first in, first out) cache decorator
@@ -31,6 +32,7 @@ public class FifoCache implements Cache {
   private final Cache delegate;
   private final Deque<Object> keyList;
   private int size;
+  private CacheStatistics statistics;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -52,6 +54,13 @@ public class FifoCache implements Cache {
     this.size = size;
   }
 
+  /**
+   * @param statistics where the evictions are counted, null for none
+   */
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cycleKeyList(key);
@@ -63,8 +72,14 @@ public class FifoCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
+    keyList.remove(key);
     return delegate.removeObject(key);
   }
 
@@ -84,6 +99,9 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
     }
   }
 
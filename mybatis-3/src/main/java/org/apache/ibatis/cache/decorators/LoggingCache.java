@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,9 +15,12 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -28,12 +31,47 @@ public class LoggingCache implements Cache {
 
   private final Log log;
   private final Cache delegate;
+  /**
+   * @deprecated no longer maintained since 3.5.0, use {@link #getRequestCount()}
+   */
+  @Deprecated
   protected int requests = 0;
+  /**
+   * @deprecated no longer maintained since 3.5.0, use {@link #getHitCount()}
+   */
+  @Deprecated
   protected int hits = 0;
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder hitCount = new LongAdder();
+  private final CacheStatistics statistics;
 
   public LoggingCache(Cache delegate) {
+    this(delegate, new CacheStatistics(delegate.getId()));
+  }
+
+  public LoggingCache(Cache delegate, CacheStatistics statistics) {
     this.delegate = delegate;
     this.log = LogFactory.getLog(getId());
+    this.statistics = statistics;
+    statistics.setCache(delegate);
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public long getHitCount() {
+    return hitCount.sum();
   }
 
   @Override
@@ -49,14 +87,24 @@ public class LoggingCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
+    statistics.recordPuts(1);
+  }
+
+  @Override
+  public void putObjects(Map<Object, Object> entries) {
+    delegate.putObjects(entries);
+    statistics.recordPuts(entries.size());
   }
 
   @Override
   public Object getObject(Object key) {
-    requests++;
+    requestCount.increment();
     final Object value = delegate.getObject(key);
     if (value != null) {
-      hits++;
+      hitCount.increment();
+      statistics.recordHit(key);
+    } else {
+      statistics.recordMiss(key);
     }
     if (log.isDebugEnabled()) {
       log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
@@ -64,14 +112,21 @@ public class LoggingCache implements Cache {
     return value;
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
+    statistics.recordRemoval();
     return delegate.removeObject(key);
   }
 
   @Override
   public void clear() {
     delegate.clear();
+    statistics.recordClear();
   }
 
   @Override
@@ -90,7 +145,8 @@ public class LoggingCache implements Cache {
   }
 
   private double getHitRatio() {
-    return (double) hits / (double) requests;
+    // hits are read first, so they never include a request that is not counted yet
+    return (double) hitCount.sum() / requestCount.sum();
   }
 
 }
@@ -0,0 +1,188 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.CacheStatistics;
+
+/**
+ * Memory weighted cache decorator.
+ *
+ * Bounds the cache by the estimated number of bytes its entries retain instead of by their count and
+ * evicts the least recently used entries first. Values that reach this decorator already serialized by the
+ * {@link SerializedCache} are weighted by their length, other values are estimated by walking them.
+ *
+ * It is meant to be placed right over the base cache, so the entries removed by an eviction decorator above
+ * it are released too. The entries it evicts for size are removed through that decorator, see
+ * {@link #setEvictionDecorator(Cache)}, so that it forgets their keys. The entry just put is never evicted,
+ * so a cache always keeps its newest entry even when the shared budget is taken by other caches.
+ */
+public class MemoryWeightedCache implements Cache {
+
+  private final Cache delegate;
+  private final Map<Object, Long> weights;
+  private long maxBytes;
+  private long bytes;
+  private CacheMemoryBudget budget;
+  private CacheStatistics statistics;
+  private Cache evictionDecorator;
+
+  public MemoryWeightedCache(Cache delegate) {
+    this.delegate = delegate;
+    this.weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @param maxBytes estimated bytes this cache may hold, zero means it is only bounded by the shared budget
+   */
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public void setBudget(CacheMemoryBudget budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * @param evictionDecorator the decorator above this one that tracks the keys, like {@link LruCache}, null for none
+   */
+  public void setEvictionDecorator(Cache evictionDecorator) {
+    this.evictionDecorator = evictionDecorator;
+  }
+
+  /**
+   * @param statistics where the evictions and the estimated bytes are reported, null for none
+   */
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    if (statistics != null) {
+      statistics.setEstimatedBytes(bytes);
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    long weight = ObjectSizeEstimator.estimate(key) + ObjectSizeEstimator.estimate(value);
+    Long previous = weights.put(key, weight);
+    if (previous != null) {
+      release(previous);
+    }
+    reserve(weight);
+    evictEntries(key);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    Long weight = weights.get(key); // touch
+    if (value == null && weight != null) {
+      // dropped by the delegate behind our back
+      weights.remove(key);
+      release(weight);
+    }
+    return value;
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      release(weight);
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    release(bytes);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void evictEntries(Object newestKey) {
+    while (isOverBudget()) {
+      Object eldestKey = weights.keySet().iterator().next();
+      if (eldestKey.equals(newestKey)) {
+        return;
+      }
+      release(weights.remove(eldestKey));
+      // the decorator above forgets the key and removes the entry through this cache, which finds no weight left
+      (evictionDecorator == null ? delegate : evictionDecorator).removeObject(eldestKey);
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
+    }
+  }
+
+  private boolean isOverBudget() {
+    return (maxBytes > 0 && bytes > maxBytes) || (budget != null && budget.isExceeded());
+  }
+
+  private void reserve(long weight) {
+    bytes += weight;
+    if (budget != null) {
+      budget.reserve(weight);
+    }
+    if (statistics != null) {
+      statistics.setEstimatedBytes(bytes);
+    }
+  }
+
+  private void release(long weight) {
+    bytes -= weight;
+    if (budget != null) {
+      budget.release(weight);
+    }
+    if (statistics != null) {
+      statistics.setEstimatedBytes(bytes);
+    }
+  }
+
+}
@@ -0,0 +1,252 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * Deep copy of a cached value without serialization.
+ *
+ * Beans are copied field by field, the usual collections element by element, immutable values are shared. It
+ * follows the rules of java serialization: only serializable objects can be copied, transient fields are not
+ * copied and shared references and cycles are kept. Objects that control their own serialization, like lazy
+ * loading proxies, and beans without a no-arg constructor are copied through serialization.
+ *
+ * This class is thread safe.
+ */
+final class ObjectCopier {
+
+  private static final Map<Class<?>, Copier> copiers = new ConcurrentHashMap<Class<?>, Copier>();
+
+  private ObjectCopier() {
+    // Prevent Instantiation of Static Class
+  }
+
+  static Object copy(Object value) {
+    if (value == null) {
+      return null;
+    }
+    return copy(value, new IdentityHashMap<Object, Object>());
+  }
+
+  private static Object copy(Object value, IdentityHashMap<Object, Object> copies) {
+    if (value == null) {
+      return null;
+    }
+    Class<?> type = value.getClass();
+    if (isImmutable(type)) {
+      return value;
+    }
+    Object copy = copies.get(value);
+    if (copy != null) {
+      return copy;
+    }
+    if (!(value instanceof Serializable)) {
+      throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + value);
+    }
+    if (type.isArray()) {
+      copy = copyArray(value, type.getComponentType(), copies);
+    } else if (value instanceof Date) {
+      copy = ((Date) value).clone();
+      copies.put(value, copy);
+    } else if (value instanceof Collection && isPlainCollection(type)) {
+      copy = copyCollection((Collection<?>) value, copies);
+    } else if (value instanceof Map && isPlainCollection(type)) {
+      copy = copyMap((Map<?, ?>) value, copies);
+    } else {
+      copy = copierOf(type).copy(value, copies);
+    }
+    return copy;
+  }
+
+  private static boolean isImmutable(Class<?> type) {
+    return type == String.class || type == Integer.class || type == Long.class || type == Double.class
+        || type == Float.class || type == Short.class || type == Byte.class || type == Boolean.class
+        || type == Character.class || type == BigDecimal.class || type == BigInteger.class || type.isEnum()
+        || type == Class.class || type.getName().startsWith("java.time.");
+  }
+
+  private static boolean isPlainCollection(Class<?> type) {
+    return type == ArrayList.class || type == LinkedList.class || type == HashSet.class
+        || type == LinkedHashSet.class || type == TreeSet.class || type == HashMap.class
+        || type == LinkedHashMap.class || type == TreeMap.class;
+  }
+
+  private static Object copyArray(Object array, Class<?> componentType, IdentityHashMap<Object, Object> copies) {
+    int length = Array.getLength(array);
+    if (componentType.isPrimitive()) {
+      Object copy = Array.newInstance(componentType, length);
+      System.arraycopy(array, 0, copy, 0, length);
+      copies.put(array, copy);
+      return copy;
+    }
+    Object[] source = (Object[]) array;
+    Object[] copy = (Object[]) Array.newInstance(componentType, length);
+    copies.put(array, copy);
+    for (int i = 0; i < length; i++) {
+      copy[i] = copy(source[i], copies);
+    }
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object copyCollection(Collection<?> collection, IdentityHashMap<Object, Object> copies) {
+    Collection<Object> copy;
+    if (collection instanceof TreeSet) {
+      copy = new TreeSet<Object>(((TreeSet<Object>) collection).comparator());
+    } else if (collection instanceof ArrayList) {
+      copy = new ArrayList<Object>(collection.size());
+    } else if (collection instanceof LinkedList) {
+      copy = new LinkedList<Object>();
+    } else if (collection instanceof LinkedHashSet) {
+      copy = new LinkedHashSet<Object>();
+    } else {
+      copy = new HashSet<Object>();
+    }
+    copies.put(collection, copy);
+    for (Object element : collection) {
+      copy.add(copy(element, copies));
+    }
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object copyMap(Map<?, ?> map, IdentityHashMap<Object, Object> copies) {
+    Map<Object, Object> copy;
+    if (map instanceof TreeMap) {
+      copy = new TreeMap<Object, Object>(((TreeMap<Object, Object>) map).comparator());
+    } else if (map instanceof LinkedHashMap) {
+      copy = new LinkedHashMap<Object, Object>();
+    } else {
+      copy = new HashMap<Object, Object>();
+    }
+    copies.put(map, copy);
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+    }
+    return copy;
+  }
+
+  private static Copier copierOf(Class<?> type) {
+    Copier copier = copiers.get(type);
+    if (copier == null) {
+      copier = Copier.of(type);
+      copiers.put(type, copier);
+    }
+    return copier;
+  }
+
+  private static final class Copier {
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+
+    private Copier(Constructor<?> constructor, Field[] fields) {
+      this.constructor = constructor;
+      this.fields = fields;
+    }
+
+    /**
+     * @return how to copy an object of this type, field by field when it has no custom serialization
+     */
+    static Copier of(Class<?> type) {
+      if (Modifier.isAbstract(type.getModifiers()) || Externalizable.class.isAssignableFrom(type)
+          || !Reflector.canControlMemberAccessible()) {
+        return new Copier(null, null);
+      }
+      List<Field> copied = new ArrayList<Field>();
+      for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+        if (!Serializable.class.isAssignableFrom(current) || hasSerializationMethods(current)) {
+          return new Copier(null, null);
+        }
+        for (Field field : current.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+            copied.add(field);
+          }
+        }
+      }
+      try {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        for (Field field : copied) {
+          field.setAccessible(true);
+        }
+        return new Copier(constructor, copied.toArray(new Field[copied.size()]));
+      } catch (NoSuchMethodException e) {
+        return new Copier(null, null);
+      } catch (RuntimeException e) {
+        // not accessible, like the internals of some jdk classes
+        return new Copier(null, null);
+      }
+    }
+
+    private static boolean hasSerializationMethods(Class<?> type) {
+      for (Method method : type.getDeclaredMethods()) {
+        String name = method.getName();
+        if ("writeObject".equals(name) || "readObject".equals(name) || "readObjectNoData".equals(name)
+            || "writeReplace".equals(name) || "readResolve".equals(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    Object copy(Object value, IdentityHashMap<Object, Object> copies) {
+      if (constructor == null) {
+        Object copy = SerializedCache.deserialize(SerializedCache.serialize((Serializable) value));
+        copies.put(value, copy);
+        return copy;
+      }
+      try {
+        Object copy = constructor.newInstance();
+        copies.put(value, copy);
+        for (Field field : fields) {
+          Object fieldValue = field.get(value);
+          field.set(copy, field.getType().isPrimitive() ? fieldValue : ObjectCopier.copy(fieldValue, copies));
+        }
+        return copy;
+      } catch (Exception e) {
+        throw new CacheException("Error copying object.  Cause: " + e, e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Rough estimate of the heap retained by a cached value, assuming a 64-bit VM without compressed references.
+ *
+ * Plain objects are walked through their fields. JDK types whose fields cannot be read are counted by their
+ * shallow size. Large collections and arrays are only sampled and the result extrapolated, so a list with
+ * thousands of rows costs about as much to weigh as a list with a hundred.
+ *
+ * This class is thread safe.
+ */
+public final class ObjectSizeEstimator {
+
+  private static final int HEADER = 16;
+  private static final int ARRAY_HEADER = 24;
+  private static final int REFERENCE = 8;
+  private static final int SAMPLE_SIZE = 100;
+  private static final int MAX_DEPTH = 32;
+
+  private static final Map<Class<?>, Layout> layouts = new ConcurrentHashMap<Class<?>, Layout>();
+
+  private ObjectSizeEstimator() {
+    // Prevent Instantiation of Static Class
+  }
+
+  public static long estimate(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    return sizeOf(value, new IdentityHashMap<Object, Object>(), 0);
+  }
+
+  private static long sizeOf(Object value, IdentityHashMap<Object, Object> visited, int depth) {
+    if (value == null || depth > MAX_DEPTH || visited.put(value, value) != null) {
+      return 0;
+    }
+    Class<?> type = value.getClass();
+    if (isShared(type)) {
+      return 0;
+    }
+    if (type == String.class) {
+      return align(HEADER + 8) + align(ARRAY_HEADER + 2L * ((String) value).length());
+    }
+    if (type.isArray()) {
+      return sizeOfArray(value, type.getComponentType(), visited, depth);
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      return align(HEADER + 32) + align(ARRAY_HEADER + (long) REFERENCE * collection.size())
+          + sizeOfElements(collection.iterator(), collection.size(), visited, depth);
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      // one node object per entry, holding key, value, hash and next
+      long entries = (long) map.size() * align(HEADER + 3 * REFERENCE + 4);
+      return align(HEADER + 32) + align(ARRAY_HEADER + (long) REFERENCE * map.size()) + entries
+          + sizeOfElements(map.keySet().iterator(), map.size(), visited, depth)
+          + sizeOfElements(map.values().iterator(), map.size(), visited, depth);
+    }
+    Layout layout = layoutOf(type);
+    long size = layout.shallowSize;
+    for (Field field : layout.references) {
+      try {
+        size += sizeOf(field.get(value), visited, depth + 1);
+      } catch (IllegalAccessException e) {
+        // count what we can
+      }
+    }
+    return size;
+  }
+
+  private static long sizeOfArray(Object array, Class<?> componentType, IdentityHashMap<Object, Object> visited, int depth) {
+    int length = Array.getLength(array);
+    if (componentType.isPrimitive()) {
+      return align(ARRAY_HEADER + (long) primitiveSize(componentType) * length);
+    }
+    List<Object> elements = new ArrayList<Object>(Math.min(length, SAMPLE_SIZE));
+    for (int i = 0; i < length && i < SAMPLE_SIZE; i++) {
+      elements.add(Array.get(array, i));
+    }
+    return align(ARRAY_HEADER + (long) REFERENCE * length) + sizeOfElements(elements.iterator(), length, visited, depth);
+  }
+
+  private static long sizeOfElements(Iterator<?> elements, int count, IdentityHashMap<Object, Object> visited, int depth) {
+    long size = 0;
+    int sampled = 0;
+    while (sampled < SAMPLE_SIZE && elements.hasNext()) {
+      size += sizeOf(elements.next(), visited, depth + 1);
+      sampled++;
+    }
+    if (sampled == 0 || sampled >= count) {
+      return size;
+    }
+    return size * count / sampled;
+  }
+
+  private static Layout layoutOf(Class<?> type) {
+    Layout layout = layouts.get(type);
+    if (layout == null) {
+      layout = new Layout(type);
+      layouts.put(type, layout);
+    }
+    return layout;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    } else {
+      return 1;
+    }
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  /**
+   * Objects that are referenced by cached values but not retained by them, like the lazy loading
+   * infrastructure of a proxied result.
+   */
+  private static boolean isShared(Class<?> type) {
+    return type.isEnum() || Class.class == type || ClassLoader.class.isAssignableFrom(type)
+        || Thread.class.isAssignableFrom(type) || Configuration.class.isAssignableFrom(type)
+        || Executor.class.isAssignableFrom(type);
+  }
+
+  private static boolean isLeaf(Class<?> type) {
+    return Number.class.isAssignableFrom(type) || type == Boolean.class || type == Character.class
+        || Date.class.isAssignableFrom(type);
+  }
+
+  private static final class Layout {
+    private final long shallowSize;
+    private final List<Field> references = new ArrayList<Field>();
+
+    Layout(Class<?> type) {
+      long size = HEADER;
+      boolean leaf = isLeaf(type);
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          Class<?> fieldType = field.getType();
+          if (fieldType.isPrimitive()) {
+            size += primitiveSize(fieldType);
+          } else {
+            size += REFERENCE;
+            if (!leaf && isAccessible(field)) {
+              references.add(field);
+            }
+          }
+        }
+      }
+      this.shallowSize = align(size);
+    }
+
+    private static boolean isAccessible(Field field) {
+      try {
+        field.setAccessible(true);
+        return true;
+      } catch (RuntimeException e) {
+        // java 9+ refuses access to the internals of the jdk
+        return false;
+      }
+    }
+  }
+
+}
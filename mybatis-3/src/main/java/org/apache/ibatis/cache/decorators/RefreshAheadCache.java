@@ -0,0 +1,292 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Refresh-ahead alternative to the {@link ScheduledCache}.
+ *
+ * Instead of clearing the whole cache every interval each entry expires on its own, <code>expiry</code>
+ * milliseconds after it was loaded. Once an entry is older than <code>refreshAfter</code> the first session that
+ * reads it claims its refresh and the {@link org.apache.ibatis.executor.CachingExecutor} re-runs the statement on
+ * a background thread. Meanwhile, and up to <code>maxStale</code> milliseconds past its expiry, the old value is
+ * still served, so readers of hot entries are not blocked by the reload. Entries older than that are dropped
+ * and loaded as usual on the next miss.
+ */
+public class RefreshAheadCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(RefreshAheadCache.class);
+
+  private static final Executor DEFAULT_EXECUTOR = newDefaultExecutor();
+  // a reader submits right after reading, a claim still unsubmitted after that long was abandoned
+  private static final long CLAIM_TIMEOUT = 1000;
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Claim> claims = new ConcurrentHashMap<Object, Claim>();
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+  private long expiry = 60 * 60 * 1000; // 1 hour
+  private long refreshAfter = -1;
+  private long maxStale = -1;
+  private Executor executor = DEFAULT_EXECUTOR;
+
+  public RefreshAheadCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  public long getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * @param expiry milliseconds after which an entry is no longer fresh
+   */
+  public void setExpiry(long expiry) {
+    this.expiry = expiry;
+  }
+
+  public long getRefreshAfter() {
+    return refreshAfter < 0 ? expiry * 3 / 4 : refreshAfter;
+  }
+
+  /**
+   * @param refreshAfter age in milliseconds from which a read triggers a background refresh, three quarters of the
+   *          expiry by default
+   */
+  public void setRefreshAfter(long refreshAfter) {
+    this.refreshAfter = refreshAfter;
+  }
+
+  public long getMaxStale() {
+    return maxStale < 0 ? expiry : maxStale;
+  }
+
+  /**
+   * @param maxStale milliseconds past its expiry an entry is still served while it is being refreshed, the expiry
+   *          itself by default
+   */
+  public void setMaxStale(long maxStale) {
+    this.maxStale = maxStale;
+  }
+
+  /**
+   * @param executor runs the refreshes, a small pool of daemon threads shared by all the caches by default
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public long getRefreshCount() {
+    return refreshes.get();
+  }
+
+  /**
+   * @return number of reads served with an expired entry
+   */
+  public long getStaleHitCount() {
+    return staleHits.get();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, wrap(value, System.currentTimeMillis()));
+  }
+
+  @Override
+  public void putObjects(Map<Object, Object> entries) {
+    long now = System.currentTimeMillis();
+    Map<Object, Object> wrapped = new LinkedHashMap<Object, Object>(entries.size() * 4 / 3 + 1);
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      wrapped.put(entry.getKey(), wrap(entry.getValue(), now));
+    }
+    delegate.putObjects(wrapped);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (!(value instanceof Entry)) {
+      return value;
+    }
+    Entry entry = (Entry) value;
+    long now = System.currentTimeMillis();
+    long age = now - entry.loadedAt;
+    if (age >= expiry + getMaxStale()) {
+      delegate.removeObject(key);
+      return null;
+    }
+    if (age >= expiry) {
+      staleHits.incrementAndGet();
+    }
+    if (age >= getRefreshAfter()) {
+      claim(key, now);
+    }
+    return entry.value;
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    Object value = delegate.peekObject(key);
+    if (!(value instanceof Entry)) {
+      return value;
+    }
+    Entry entry = (Entry) value;
+    // no refresh claimed and no stale hit counted
+    if (System.currentTimeMillis() - entry.loadedAt >= expiry + getMaxStale()) {
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Submits the refresh of the entry if the current thread claimed it when reading it.
+   *
+   * @return true if the task was submitted
+   */
+  public boolean refresh(Object key, final Runnable task) {
+    final Claim claim = claims.get(key);
+    if (claim == null || claim.thread != Thread.currentThread() || claim.submitted) {
+      return false;
+    }
+    claim.submitted = true;
+    final Object claimedKey = key;
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+            refreshes.incrementAndGet();
+          } catch (RuntimeException e) {
+            log.warn("Error refreshing the entry " + claimedKey + " of the cache " + getId() + ". Cause: " + e);
+          } finally {
+            claims.remove(claimedKey, claim);
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      claims.remove(key, claim);
+      return false;
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    claims.remove(key);
+    Object value = delegate.removeObject(key);
+    return value instanceof Entry ? ((Entry) value).value : value;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    claims.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private Object wrap(Object value, long now) {
+    return value == null ? null : new Entry(value, now);
+  }
+
+  private void claim(Object key, long now) {
+    Claim claim = claims.get(key);
+    if (claim == null) {
+      claims.putIfAbsent(key, new Claim(now));
+    } else if (!claim.submitted && now - claim.claimedAt > CLAIM_TIMEOUT) {
+      claims.replace(key, claim, new Claim(now));
+    }
+  }
+
+  private static Executor newDefaultExecutor() {
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(1024), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mybatis-cache-refresh-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static final class Claim {
+    private final Thread thread = Thread.currentThread();
+    private final long claimedAt;
+    private volatile boolean submitted;
+
+    Claim(long claimedAt) {
+      this.claimedAt = claimedAt;
+    }
+  }
+
+  private static class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object value;
+    private long loadedAt;
+
+    private Entry() {
+      // for copying
+    }
+
+    Entry(Object value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+}
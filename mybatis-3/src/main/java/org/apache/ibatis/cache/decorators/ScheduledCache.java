@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -60,6 +60,12 @@ public class ScheduledCache implements Cache {
     return clearWhenStale() ? null : delegate.getObject(key);
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    // stale entries are left to the next getObject to clear
+    return System.currentTimeMillis() - lastClear > clearInterval ? null : delegate.peekObject(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     clearWhenStale();
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -27,6 +27,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
 import org.apache.ibatis.io.Resources;
 
 /**
@@ -35,9 +36,18 @@ import org.apache.ibatis.io.Resources;
 public class SerializedCache implements Cache {
 
   private final Cache delegate;
+  private final CacheSerializer serializer;
 
   public SerializedCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * @param serializer serializer of the configuration, null to use plain java serialization
+   */
+  public SerializedCache(Cache delegate, CacheSerializer serializer) {
     this.delegate = delegate;
+    this.serializer = serializer;
   }
 
   @Override
@@ -53,7 +63,7 @@ public class SerializedCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     if (object == null || object instanceof Serializable) {
-      delegate.putObject(key, serialize((Serializable) object));
+      delegate.putObject(key, serializer == null ? serialize((Serializable) object) : serializer.serialize((Serializable) object));
     } else {
       throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
     }
@@ -62,7 +72,19 @@ public class SerializedCache implements Cache {
   @Override
   public Object getObject(Object key) {
     Object object = delegate.getObject(key);
-    return object == null ? null : deserialize((byte[]) object);
+    if (object == null) {
+      return null;
+    }
+    return serializer == null ? deserialize((byte[]) object) : serializer.deserialize((byte[]) object);
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    Object object = delegate.peekObject(key);
+    if (object == null) {
+      return null;
+    }
+    return serializer == null ? deserialize((byte[]) object) : serializer.deserialize((byte[]) object);
   }
 
   @Override
@@ -90,7 +112,10 @@ public class SerializedCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private byte[] serialize(Serializable value) {
+  /**
+   * Serializes a value the way this decorator stores it. Also used by the caches that keep entries as bytes.
+   */
+  public static byte[] serialize(Serializable value) {
     try {
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
       ObjectOutputStream oos = new ObjectOutputStream(bos);
@@ -103,7 +128,7 @@ public class SerializedCache implements Cache {
     }
   }
 
-  private Serializable deserialize(byte[] value) {
+  public static Serializable deserialize(byte[] value) {
     Serializable result;
     try {
       ByteArrayInputStream bis = new ByteArrayInputStream(value);
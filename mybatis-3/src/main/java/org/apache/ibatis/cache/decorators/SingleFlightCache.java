@@ -0,0 +1,279 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+
+/**
+ * Request coalescing decorator.
+ *
+ * Unlike {@link BlockingCache} no lock is held between a miss and the commit of the session that
+ * loads the entry. The first session that misses a key becomes the leader of a {@link Flight}, the
+ * others join it and receive the leader's result as soon as its query returns. If the leader fails
+ * the flight is cancelled and the waiters go to the database on their own.
+ *
+ * The coalescing itself is driven by the {@link org.apache.ibatis.executor.CachingExecutor}, this
+ * class only keeps the flights in progress and some counters.
+ */
+public class SingleFlightCache implements Cache {
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, CompletableFuture<Object>> flights;
+  private final AtomicLong leaders = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private long timeout;
+  private boolean readWrite;
+  private CacheSerializer serializer;
+  private boolean reflectiveCopy;
+
+  public SingleFlightCache(Cache delegate) {
+    this.delegate = delegate;
+    this.flights = new ConcurrentHashMap<Object, CompletableFuture<Object>>();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public void putObjects(Map<Object, Object> entries) {
+    delegate.putObjects(entries);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    return delegate.peekObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Joins the flight in progress for the key or starts a new one.
+   * The caller must check {@link Flight#isLeader()} and, when leading, end the flight, from any thread,
+   * with either {@link Flight#complete(Object)} or {@link Flight#cancel()}.
+   */
+  public Flight join(Object key) {
+    CompletableFuture<Object> future = new CompletableFuture<Object>();
+    CompletableFuture<Object> current = flights.putIfAbsent(key, future);
+    if (current == null) {
+      leaders.incrementAndGet();
+      return new Flight(key, future, true);
+    }
+    return new Flight(key, current, false);
+  }
+
+  public int getFlightsInProgress() {
+    return flights.size();
+  }
+
+  /**
+   * @return number of flights started, that is, queries actually sent to the database through this cache
+   */
+  public long getLeaderCount() {
+    return leaders.get();
+  }
+
+  /**
+   * @return number of misses that were served by another session's query instead of going to the database
+   */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  public long getTimeoutCount() {
+    return timeouts.get();
+  }
+
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Maximum time in milliseconds a session waits for the leader. After that it queries the database itself.
+   * Zero, the default, means wait until the leader is done.
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public boolean isReadWrite() {
+    return readWrite;
+  }
+
+  /**
+   * When set, each waiter gets its own copy of the leader's result, as the {@link SerializedCache} would do.
+   */
+  public void setReadWrite(boolean readWrite) {
+    this.readWrite = readWrite;
+  }
+
+  public CacheSerializer getSerializer() {
+    return serializer;
+  }
+
+  /**
+   * Serializer of the copies, null to use plain java serialization.
+   */
+  public void setSerializer(CacheSerializer serializer) {
+    this.serializer = serializer;
+  }
+
+  public boolean isReflectiveCopy() {
+    return reflectiveCopy;
+  }
+
+  /**
+   * Make the copies field by field, as the {@link CopyingCache} does, instead of through serialization.
+   */
+  public void setReflectiveCopy(boolean reflectiveCopy) {
+    this.reflectiveCopy = reflectiveCopy;
+  }
+
+  /**
+   * The part of a flight given to one session. The leader's is the only one that may end the flight.
+   */
+  public class Flight {
+
+    private final Object key;
+    private final CompletableFuture<Object> future;
+    private final boolean leader;
+    private Object result;
+
+    private Flight(Object key, CompletableFuture<Object> future, boolean leader) {
+      this.key = key;
+      this.future = future;
+      this.leader = leader;
+    }
+
+    public boolean isLeader() {
+      return leader;
+    }
+
+    public void complete(Object value) {
+      checkLeader();
+      Object shared = value;
+      if (readWrite && value != null) {
+        if (value instanceof Serializable && reflectiveCopy) {
+          shared = CopyingCache.copy(value);
+        } else if (value instanceof Serializable) {
+          shared = serializer == null ? SerializedCache.serialize((Serializable) value) : serializer.serialize((Serializable) value);
+        } else {
+          land(new CacheException("The result of key " + key + " at the cache " + getId() + " cannot be copied"));
+          return;
+        }
+      }
+      flights.remove(key, future);
+      future.complete(shared);
+    }
+
+    public void cancel() {
+      checkLeader();
+      failures.incrementAndGet();
+      land(new CacheException("The query of key " + key + " at the cache " + getId() + " failed"));
+    }
+
+    /**
+     * Waits for the leader.
+     *
+     * @return true if the leader completed and {@link #getResult()} can be used,
+     *         false if it failed or did not finish in time
+     */
+    public boolean await() {
+      try {
+        result = timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+      } catch (TimeoutException e) {
+        timeouts.incrementAndGet();
+        return false;
+      } catch (ExecutionException e) {
+        return false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CacheException("Got interrupted while waiting for the query of key " + key + " at the cache " + getId(), e);
+      }
+      coalesced.incrementAndGet();
+      return true;
+    }
+
+    public Object getResult() {
+      Object value = result;
+      if (readWrite && value != null && reflectiveCopy) {
+        return CopyingCache.copy(value);
+      } else if (readWrite && value != null) {
+        return serializer == null ? SerializedCache.deserialize((byte[]) value) : serializer.deserialize((byte[]) value);
+      }
+      return value;
+    }
+
+    private void checkLeader() {
+      if (!leader) {
+        throw new CacheException("Only the leader may end the flight of key " + key + " at the cache " + getId());
+      }
+    }
+
+    private void land(CacheException failure) {
+      flights.remove(key, future);
+      future.completeExceptionally(failure);
+    }
+  }
+
+}
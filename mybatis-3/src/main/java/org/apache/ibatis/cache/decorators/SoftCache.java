@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -86,6 +86,13 @@ public class SoftCache implements Cache {
     return result;
   }
 
+  @Override
+  public Object peekObject(Object key) {
+    @SuppressWarnings("unchecked") // assumed delegate cache is totally managed by this cache
+    SoftReference<Object> reference = (SoftReference<Object>) delegate.peekObject(key);
+    return reference == null ? null : reference.get();
+  }
+
   @Override
   public Object removeObject(Object key) {
     removeGarbageCollectedItems();
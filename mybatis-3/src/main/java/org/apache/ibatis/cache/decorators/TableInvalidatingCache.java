@@ -0,0 +1,154 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.TableVersions;
+
+/**
+ * Table level invalidation decorator.
+ *
+ * Entries stored through {@link #track(Object, Collection, long)} remember the tables their query read and the
+ * {@link TableVersions} of those tables at that time. A write to any of them, from any namespace, makes the entry
+ * stale and it is no longer returned. Writes to other tables leave it alone, so unlike the default behaviour the
+ * {@link org.apache.ibatis.executor.CachingExecutor} does not clear the whole cache on each insert, update or delete.
+ *
+ * Stale entries are not removed right away, they are replaced by the next query of the same key or evicted.
+ */
+public class TableInvalidatingCache implements Cache {
+
+  private final Cache delegate;
+  private TableVersions versions = new TableVersions();
+
+  public TableInvalidatingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  public TableVersions getVersions() {
+    return versions;
+  }
+
+  public void setVersions(TableVersions versions) {
+    this.versions = versions;
+  }
+
+  /**
+   * @return current version of the tables, to be taken before the query that reads them is executed
+   */
+  public long getVersion(Collection<String> tables) {
+    return versions.getVersion(tables);
+  }
+
+  /**
+   * @return the value to put in this cache for a result read from the tables at the given version
+   */
+  public Object track(Object value, Collection<String> tables, long version) {
+    if (value == null) {
+      return null;
+    }
+    return new TrackedValue(value, tables.toArray(new String[tables.size()]), version);
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public void putObjects(Map<Object, Object> entries) {
+    delegate.putObjects(entries);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value instanceof TrackedValue) {
+      TrackedValue tracked = (TrackedValue) value;
+      if (versions.getVersion(Arrays.asList(tracked.tables)) != tracked.version) {
+        return null;
+      }
+      return tracked.value;
+    }
+    return value;
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    Object value = delegate.peekObject(key);
+    if (value instanceof TrackedValue) {
+      TrackedValue tracked = (TrackedValue) value;
+      if (versions.getVersion(Arrays.asList(tracked.tables)) != tracked.version) {
+        return null;
+      }
+      return tracked.value;
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private static class TrackedValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object value;
+    private String[] tables;
+    private long version;
+
+    private TrackedValue() {
+      // for copying
+    }
+
+    TrackedValue(Object value, String[] tables, long version) {
+      this.value = value;
+      this.tables = tables;
+      this.version = version;
+    }
+  }
+
+}
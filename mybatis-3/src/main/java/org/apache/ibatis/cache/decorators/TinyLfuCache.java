@@ -0,0 +1,458 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.ConcurrentCache;
+
+/**
+ * W-TinyLFU cache decorator.
+ *
+ * Entries live in a {@link ConcurrentHashMap} so reads never block. Accesses are recorded in lossy striped
+ * buffers and writes in a queue; both are replayed against the eviction policy by whichever thread manages
+ * to take the eviction lock. New entries go to a small LRU window and must beat the probation victim in a
+ * {@link FrequencySketch} to be admitted into the main segmented LRU.
+ *
+ * Unlike the other eviction decorators this one keeps the entries itself, the delegate only provides the id.
+ */
+public class TinyLfuCache implements ConcurrentCache {
+
+  private static final int NCPU = Runtime.getRuntime().availableProcessors();
+  private static final int READ_BUFFER_STRIPES = FrequencySketch.ceilingPowerOfTwo(4 * NCPU);
+  private static final int READ_BUFFER_SIZE = 16;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+  private static final int WINDOW = 1;
+  private static final int PROBATION = 2;
+  private static final int PROTECTED = 3;
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Node> data;
+  private final ReadBuffer[] readBuffers;
+  private final ConcurrentLinkedQueue<Runnable> writeBuffer;
+  private final ReentrantLock evictionLock;
+  private volatile CacheStatistics statistics;
+
+  // guarded by evictionLock
+  private final FrequencySketch sketch;
+  private final AccessOrderDeque window;
+  private final AccessOrderDeque probation;
+  private final AccessOrderDeque protectedDeque;
+  private int maximumSize;
+  private int windowMaximum;
+  private int protectedMaximum;
+  private int size;
+  private int windowSize;
+  private int protectedSize;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    this.data = new ConcurrentHashMap<Object, Node>();
+    this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+    for (int i = 0; i < readBuffers.length; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    this.writeBuffer = new ConcurrentLinkedQueue<Runnable>();
+    this.evictionLock = new ReentrantLock();
+    this.sketch = new FrequencySketch(1024);
+    this.window = new AccessOrderDeque();
+    this.probation = new AccessOrderDeque();
+    this.protectedDeque = new AccessOrderDeque();
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  public void setSize(final int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("TinyLfuCache size must be positive but was " + size);
+    }
+    evictionLock.lock();
+    try {
+      maximumSize = size;
+      windowMaximum = Math.max(1, size / 100);
+      protectedMaximum = (int) ((size - windowMaximum) * 0.8);
+      sketch.ensureCapacity(size);
+      maintenance();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * @param statistics where the evictions are counted, null for none
+   */
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    final Node node = new Node(key, value);
+    Node prior = data.putIfAbsent(key, node);
+    if (prior == null) {
+      afterWrite(new Runnable() {
+        @Override
+        public void run() {
+          onAdd(node);
+        }
+      });
+    } else {
+      prior.value = value;
+      afterRead(prior);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    afterRead(node);
+    return node.value;
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    // neither the access order nor the frequencies are updated
+    Node node = data.get(key);
+    return node == null ? null : node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    final Node node = data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    afterWrite(new Runnable() {
+      @Override
+      public void run() {
+        onRemove(node);
+      }
+    });
+    return node.value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      maintenance();
+      clear(window);
+      clear(probation);
+      clear(protectedDeque);
+      size = 0;
+      windowSize = 0;
+      protectedSize = 0;
+      sketch.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void afterRead(Node node) {
+    ReadBuffer buffer = readBuffers[stripe()];
+    if (buffer.offer(node)) {
+      scheduleDrain();
+    }
+  }
+
+  private void afterWrite(Runnable task) {
+    writeBuffer.add(task);
+    scheduleDrain();
+  }
+
+  private void scheduleDrain() {
+    while (evictionLock.tryLock()) {
+      try {
+        maintenance();
+      } finally {
+        evictionLock.unlock();
+      }
+      // a writer that failed to get the lock relies on the holder to pick up its task
+      if (writeBuffer.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  private void maintenance() {
+    for (ReadBuffer buffer : readBuffers) {
+      buffer.drain(this);
+    }
+    Runnable task;
+    while ((task = writeBuffer.poll()) != null) {
+      task.run();
+    }
+    evictEntries();
+  }
+
+  private void onAdd(Node node) {
+    if (data.get(node.key) != node) {
+      // removed or replaced before the policy saw it
+      return;
+    }
+    sketch.increment(node.key);
+    node.queue = WINDOW;
+    window.addLast(node);
+    windowSize++;
+    size++;
+  }
+
+  private void onRemove(Node node) {
+    unlink(node);
+  }
+
+  private void onAccess(Node node) {
+    sketch.increment(node.key);
+    switch (node.queue) {
+      case WINDOW:
+        window.moveToBack(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedDeque.addLast(node);
+        protectedSize++;
+        demoteFromProtected();
+        break;
+      case PROTECTED:
+        protectedDeque.moveToBack(node);
+        break;
+      default:
+        // not yet added or already evicted
+        break;
+    }
+  }
+
+  private void demoteFromProtected() {
+    while (protectedSize > protectedMaximum) {
+      Node demoted = protectedDeque.pollFirst();
+      protectedSize--;
+      demoted.queue = PROBATION;
+      probation.addLast(demoted);
+    }
+  }
+
+  private void evictEntries() {
+    int candidates = 0;
+    while (windowSize > windowMaximum) {
+      Node node = window.pollFirst();
+      windowSize--;
+      node.queue = PROBATION;
+      probation.addLast(node);
+      candidates++;
+    }
+    while (size > maximumSize) {
+      Node victim = probation.peekFirst();
+      if (victim == null) {
+        victim = protectedDeque.peekFirst();
+      }
+      if (victim == null) {
+        victim = window.peekFirst();
+      }
+      Node candidate = candidates > 0 ? probation.peekLast() : null;
+      if (candidate == null || candidate == victim) {
+        evict(victim);
+        candidates = Math.max(0, candidates - 1);
+      } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        evict(victim);
+      } else {
+        evict(candidate);
+        candidates--;
+      }
+    }
+  }
+
+  private void evict(Node node) {
+    data.remove(node.key, node);
+    unlink(node);
+    CacheStatistics current = statistics;
+    if (current != null) {
+      current.recordEviction();
+    }
+  }
+
+  private void unlink(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        window.remove(node);
+        windowSize--;
+        break;
+      case PROBATION:
+        probation.remove(node);
+        break;
+      case PROTECTED:
+        protectedDeque.remove(node);
+        protectedSize--;
+        break;
+      default:
+        return;
+    }
+    node.queue = 0;
+    size--;
+  }
+
+  private void clear(AccessOrderDeque deque) {
+    Node node;
+    while ((node = deque.pollFirst()) != null) {
+      data.remove(node.key, node);
+      node.queue = 0;
+    }
+  }
+
+  private static int stripe() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+    return (h ^ (h >>> 16)) & (READ_BUFFER_STRIPES - 1);
+  }
+
+  private static final class Node {
+    final Object key;
+    volatile Object value;
+    // guarded by evictionLock
+    int queue;
+    Node prev;
+    Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  private static final class AccessOrderDeque {
+    private Node first;
+    private Node last;
+
+    Node peekFirst() {
+      return first;
+    }
+
+    Node peekLast() {
+      return last;
+    }
+
+    Node pollFirst() {
+      Node node = first;
+      if (node != null) {
+        remove(node);
+      }
+      return node;
+    }
+
+    void addLast(Node node) {
+      node.prev = last;
+      node.next = null;
+      if (last == null) {
+        first = node;
+      } else {
+        last.next = node;
+      }
+      last = node;
+    }
+
+    void remove(Node node) {
+      if (node.prev == null) {
+        first = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        last = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+    }
+
+    void moveToBack(Node node) {
+      if (node != last) {
+        remove(node);
+        addLast(node);
+      }
+    }
+  }
+
+  /**
+   * Bounded ring buffer of recent reads. Offers are dropped when the buffer is full or contended,
+   * losing some access history is fine for a frequency based policy.
+   */
+  private static final class ReadBuffer {
+    private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter;
+
+    /**
+     * @return true if the buffer is full and should be drained
+     */
+    boolean offer(Node node) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      long size = tail - head;
+      if (size >= READ_BUFFER_SIZE) {
+        return true;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        buffer.lazySet((int) (tail & READ_BUFFER_MASK), node);
+        return size + 1 >= READ_BUFFER_SIZE;
+      }
+      return false;
+    }
+
+    void drain(TinyLfuCache cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) (head & READ_BUFFER_MASK);
+        Node node = buffer.get(index);
+        if (node == null) {
+          // slot claimed but not yet published
+          break;
+        }
+        buffer.lazySet(index, null);
+        cache.onAccess(node);
+      }
+      readCounter = head;
+    }
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -22,6 +22,7 @@ import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheWriteBehind;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -32,6 +33,9 @@ import org.apache.ibatis.logging.LogFactory;
  * Entries are sent to the cache when commit is called or discarded if the Session is rolled back. 
  * Blocking cache support has been added. Therefore any get() that returns a cache miss 
  * will be followed by a put() so any lock associated with the key can be released. 
+ *
+ * With a {@link CacheWriteBehind} the entries are handed to it on commit instead, unless the cache is blocking
+ * as its locks must be released by the thread that took them.
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
@@ -44,9 +48,15 @@ public class TransactionalCache implements Cache {
   private boolean clearOnCommit;
   private final Map<Object, Object> entriesToAddOnCommit;
   private final Set<Object> entriesMissedInCache;
+  private final CacheWriteBehind writeBehind;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, CacheWriteBehind writeBehind) {
     this.delegate = delegate;
+    this.writeBehind = isBlocking(delegate) ? null : writeBehind;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
@@ -98,11 +108,28 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.clear();
   }
 
+  /**
+   * @return true if the cache will be cleared on commit, that is, this session may see data others should not
+   */
+  public boolean isClearOnCommit() {
+    return clearOnCommit;
+  }
+
   public void commit() {
-    if (clearOnCommit) {
-      delegate.clear();
+    if (writeBehind != null) {
+      if (clearOnCommit) {
+        writeBehind.clear(delegate);
+      }
+      Map<Object, Object> entries = pendingEntries();
+      if (!entries.isEmpty()) {
+        writeBehind.putObjects(delegate, entries);
+      }
+    } else {
+      if (clearOnCommit) {
+        delegate.clear();
+      }
+      flushPendingEntries();
     }
-    flushPendingEntries();
     reset();
   }
 
@@ -118,14 +145,30 @@ public class TransactionalCache implements Cache {
   }
 
   private void flushPendingEntries() {
-    for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
+    Map<Object, Object> entries = pendingEntries();
+    if (!entries.isEmpty()) {
+      delegate.putObjects(entries);
     }
+  }
+
+  private Map<Object, Object> pendingEntries() {
+    Map<Object, Object> entries = new HashMap<Object, Object>(entriesToAddOnCommit);
     for (Object entry : entriesMissedInCache) {
-      if (!entriesToAddOnCommit.containsKey(entry)) {
-        delegate.putObject(entry, null);
+      if (!entries.containsKey(entry)) {
+        entries.put(entry, null);
       }
     }
+    return entries;
+  }
+
+  private static boolean isBlocking(Cache cache) {
+    if (cache instanceof TableInvalidatingCache) {
+      cache = ((TableInvalidatingCache) cache).getDelegate();
+    }
+    if (cache instanceof RefreshAheadCache) {
+      cache = ((RefreshAheadCache) cache).getDelegate();
+    }
+    return cache instanceof BlockingCache;
   }
 
   private void unlockMissedEntries() {
@@ -0,0 +1,551 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Cache that keeps serialized entries outside of the java heap.
+ *
+ * The store is split in segments of direct memory, or of a memory mapped file when a directory is set.
+ * Entries are appended to the current segment and, once all segments are used, the oldest segment is
+ * reused and the entries it held are dropped. Only the keys and their location stay on the heap.
+ *
+ * When backed by a file the entries survive a restart, removals are written as tombstones for that purpose.
+ * Each segment records its size, a file written with another segment size is ignored.
+ * Keys and values must be {@link Serializable}.
+ *
+ * Clearing the cache releases its memory, or unmaps its file, the segments are allocated again as they are used.
+ * {@link #close()} releases them for good, the application should call it when the cache is no longer used
+ * rather than wait for the garbage collector to do so.
+ *
+ * Configured through properties:
+ * <pre>
+ * &lt;cache type="OFFHEAP"&gt;
+ *   &lt;property name="capacity" value="1073741824"/&gt;
+ *   &lt;property name="directory" value="/var/cache/myapp"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public class OffHeapCache implements Cache, InitializingObject, Closeable {
+
+  private static final Log log = LogFactory.getLog(OffHeapCache.class);
+
+  private static final int MAGIC = 0x4D424F48;
+  // sequence (long), limit (int), magic (int), segment size (int)
+  private static final int SEGMENT_HEADER = 20;
+  // key length (int), value length (int)
+  private static final int RECORD_HEADER = 8;
+  private static final int TOMBSTONE = -1;
+
+  private final String id;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private long capacity = 64L * 1024 * 1024;
+  private int segmentSize = 16 * 1024 * 1024;
+  private String directory;
+
+  // guarded by lock
+  private final Map<Object, Long> index = new HashMap<Object, Long>();
+  private ByteBuffer[] segments;
+  private List<Object>[] segmentKeys;
+  private int current;
+  private long sequence;
+  private boolean closed;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @param capacity total bytes of the store, rounded up to whole segments
+   */
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  /**
+   * @param segmentSize bytes of each segment, entries larger than a segment are not cached
+   */
+  public void setSegmentSize(int segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @param directory where the memory mapped file of this cache is kept, when not set direct memory is used
+   */
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void initialize() throws Exception {
+    if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+      throw new CacheException("Segment size of cache " + id + " is too small: " + segmentSize);
+    }
+    if (capacity < segmentSize) {
+      segmentSize = (int) Math.max(capacity, SEGMENT_HEADER + RECORD_HEADER + 1);
+    }
+    int count = (int) Math.max(1, (capacity + segmentSize - 1) / segmentSize);
+    segments = new ByteBuffer[count];
+    segmentKeys = new List[count];
+    for (int i = 0; i < count; i++) {
+      segmentKeys[i] = new ArrayList<Object>();
+    }
+    if (directory == null) {
+      startSegment(0);
+    } else {
+      mapFile(count);
+      recover();
+    }
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value == null) {
+      removeObject(key);
+      return;
+    }
+    byte[] keyBytes = serialize(key);
+    byte[] valueBytes = serialize(value);
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      long location = append(key, keyBytes, valueBytes);
+      if (location < 0) {
+        removeLocked(key, directory == null ? null : keyBytes);
+      } else {
+        index.put(key, location);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] value = readValue(key);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return SerializedCache.deserialize(value);
+    } catch (CacheException e) {
+      // most likely written by another version of the classes before a restart
+      log.debug("Dropping an entry of cache " + id + " that cannot be read. Cause: " + e);
+      removeObject(key);
+      return null;
+    }
+  }
+
+  @Override
+  public Object peekObject(Object key) {
+    byte[] value = readValue(key);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return SerializedCache.deserialize(value);
+    } catch (CacheException e) {
+      return null;
+    }
+  }
+
+  private byte[] readValue(Object key) {
+    lock.readLock().lock();
+    try {
+      Long location = index.get(key);
+      return location == null ? null : read(location);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // called with the lock held
+  private byte[] read(long location) {
+    ByteBuffer segment = segments[segmentOf(location)].duplicate();
+    ((Buffer) segment).position(offsetOf(location));
+    int keyLength = segment.getInt();
+    int valueLength = segment.getInt();
+    ((Buffer) segment).position(segment.position() + keyLength);
+    byte[] value = new byte[valueLength];
+    segment.get(value);
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    byte[] value;
+    lock.writeLock().lock();
+    try {
+      Long location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      value = read(location);
+      removeLocked(key, directory == null ? null : serialize(key));
+    } finally {
+      lock.writeLock().unlock();
+    }
+    try {
+      return SerializedCache.deserialize(value);
+    } catch (CacheException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      release();
+      sequence = 0;
+      startSegment(0);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Releases the memory, or the mapping of the file, of the cache. Entries written to the file stay there for the
+   * next start, the cache is empty and does not store anything afterwards.
+   */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        closed = true;
+        for (ByteBuffer segment : segments) {
+          if (directory != null && segment != null) {
+            ((MappedByteBuffer) segment).force();
+          }
+        }
+        // keeps the entries in the file
+        index.clear();
+        for (int i = 0; i < segments.length; i++) {
+          segmentKeys[i].clear();
+          unmap(segments[i]);
+          segments[i] = null;
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // called with the write lock held
+  private void release() {
+    index.clear();
+    for (int i = 0; i < segments.length; i++) {
+      segmentKeys[i].clear();
+      if (segments[i] != null) {
+        // the entries of the file are not restored
+        segments[i].putInt(12, 0);
+        unmap(segments[i]);
+        segments[i] = null;
+      }
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void removeLocked(Object key, byte[] keyBytes) {
+    if (index.remove(key) != null && keyBytes != null) {
+      // keep the removal across restarts
+      append(key, keyBytes, null);
+    }
+  }
+
+  /**
+   * @return location of the record or -1 if it does not fit in a segment
+   */
+  private long append(Object key, byte[] keyBytes, byte[] valueBytes) {
+    int valueLength = valueBytes == null ? 0 : valueBytes.length;
+    int size = RECORD_HEADER + keyBytes.length + valueLength;
+    if (size > segmentSize - SEGMENT_HEADER) {
+      return -1;
+    }
+    ByteBuffer segment = segments[current];
+    int limit = segment.getInt(8);
+    if (limit + size > segmentSize) {
+      startSegment((current + 1) % segments.length);
+      segment = segments[current];
+      limit = SEGMENT_HEADER;
+    }
+    ((Buffer) segment).position(limit);
+    segment.putInt(keyBytes.length);
+    segment.putInt(valueBytes == null ? TOMBSTONE : valueLength);
+    segment.put(keyBytes);
+    if (valueBytes != null) {
+      segment.put(valueBytes);
+    }
+    segment.putInt(8, limit + size);
+    segmentKeys[current].add(key);
+    return location(current, limit);
+  }
+
+  private void startSegment(int segment) {
+    if (segments[segment] == null) {
+      segments[segment] = allocate(segment);
+    }
+    for (Object key : segmentKeys[segment]) {
+      Long location = index.get(key);
+      if (location != null && segmentOf(location) == segment) {
+        index.remove(key);
+      }
+    }
+    segmentKeys[segment].clear();
+    ByteBuffer buffer = segments[segment];
+    buffer.putLong(0, ++sequence);
+    buffer.putInt(8, SEGMENT_HEADER);
+    buffer.putInt(12, MAGIC);
+    buffer.putInt(16, segmentSize);
+    current = segment;
+  }
+
+  private ByteBuffer allocate(int segment) {
+    if (directory == null) {
+      return ByteBuffer.allocateDirect(segmentSize);
+    }
+    try (RandomAccessFile file = new RandomAccessFile(file(), "rw")) {
+      // the mapping stays valid once the channel is closed
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) segment * segmentSize, segmentSize);
+    } catch (IOException e) {
+      throw new CacheException("Could not map segment " + segment + " of cache " + id + ".  Cause: " + e, e);
+    }
+  }
+
+  private File file() {
+    return new File(directory, id + ".cache");
+  }
+
+  private void mapFile(int count) throws IOException {
+    File dir = new File(directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new CacheException("Could not create the directory " + directory + " for cache " + id);
+    }
+    try (RandomAccessFile file = new RandomAccessFile(file(), "rw")) {
+      FileChannel channel = file.getChannel();
+      for (int i = 0; i < count; i++) {
+        // the mapping stays valid once the channel is closed
+        segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+      }
+    }
+  }
+
+  private void recover() {
+    Integer[] order = new Integer[segments.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        long sa = sequenceOf(a);
+        long sb = sequenceOf(b);
+        return sa < sb ? -1 : (sa == sb ? 0 : 1);
+      }
+    });
+    int last = -1;
+    for (ByteBuffer buffer : segments) {
+      if (buffer.getInt(12) == MAGIC && buffer.getInt(16) != segmentSize) {
+        log.warn("Ignoring the file of cache " + id + ", it was written with segments of " + buffer.getInt(16)
+            + " bytes instead of " + segmentSize + ".");
+        break;
+      }
+    }
+    for (Integer segment : order) {
+      long segmentSequence = sequenceOf(segment);
+      if (segmentSequence == 0) {
+        continue;
+      }
+      recoverSegment(segment);
+      sequence = segmentSequence;
+      last = segment;
+    }
+    if (last < 0) {
+      startSegment(0);
+    } else {
+      current = last;
+    }
+  }
+
+  private void recoverSegment(int segment) {
+    ByteBuffer buffer = segments[segment].duplicate();
+    int limit = Math.min(buffer.getInt(8), segmentSize);
+    int offset = SEGMENT_HEADER;
+    while (offset + RECORD_HEADER <= limit) {
+      int keyLength = buffer.getInt(offset);
+      int valueLength = buffer.getInt(offset + 4);
+      int size = RECORD_HEADER + keyLength + Math.max(0, valueLength);
+      if (keyLength <= 0 || offset + size > limit) {
+        log.warn("Ignoring the corrupted end of segment " + segment + " of cache " + id);
+        break;
+      }
+      byte[] keyBytes = new byte[keyLength];
+      ((Buffer) buffer).position(offset + RECORD_HEADER);
+      buffer.get(keyBytes);
+      try {
+        Object key = SerializedCache.deserialize(keyBytes);
+        if (valueLength == TOMBSTONE) {
+          index.remove(key);
+        } else {
+          index.put(key, location(segment, offset));
+        }
+        segmentKeys[segment].add(key);
+      } catch (CacheException e) {
+        log.debug("Skipping an entry of cache " + id + " whose key cannot be read. Cause: " + e);
+      }
+      offset += size;
+    }
+  }
+
+  /**
+   * @return sequence of the segment, zero if it is empty or was written with another segment size
+   */
+  private long sequenceOf(int segment) {
+    ByteBuffer buffer = segments[segment];
+    return buffer.getInt(12) == MAGIC && buffer.getInt(16) == segmentSize ? buffer.getLong(0) : 0;
+  }
+
+  /**
+   * Releases a direct or mapped buffer at once, instead of when it is garbage collected. The buffer must not be
+   * used afterwards.
+   */
+  private static void unmap(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        // Java 8
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+        return;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+    } catch (Exception e) {
+      log.debug("Could not release a buffer, it is left to the garbage collector. Cause: " + e);
+    }
+  }
+
+  private byte[] serialize(Object object) {
+    if (!(object instanceof Serializable)) {
+      throw new CacheException("OffHeapCache can only store serializable objects but got: " + object);
+    }
+    return SerializedCache.serialize((Serializable) object);
+  }
+
+  private static long location(int segment, int offset) {
+    return ((long) segment << 32) | offset;
+  }
+
+  private static int segmentOf(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offsetOf(long location) {
+    return (int) location;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+    return getId().equals(((Cache) o).getId());
+  }
+
+  @Override
+  public int hashCode() {
+    return getId().hashCode();
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The idle connections of a {@link PooledDataSource}, borrowed and returned without a pool wide lock.
+ *
+ * A thread first tries the connection it returned last, then the most recently returned connection of any thread.
+ * When there is none it waits on a fair hand-off queue, so the connections returned while threads are waiting go
+ * to the longest waiting thread. Each connection is claimed by moving its state from
+ * {@link PooledConnection#STATE_IDLE}, which makes sure only one thread gets it whichever way it found it.
+ *
+ * @since 3.5.0
+ */
+class ConnectionBag {
+
+  private final ConcurrentLinkedDeque<PooledConnection> connections = new ConcurrentLinkedDeque<PooledConnection>();
+  private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+  private final ThreadLocal<WeakReference<PooledConnection>> lastReturned = new ThreadLocal<WeakReference<PooledConnection>>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /*
+   * Borrows an idle connection without waiting
+   *
+   * @return The connection, or null if there is no idle connection
+   */
+  public PooledConnection borrow() {
+    WeakReference<PooledConnection> reference = lastReturned.get();
+    if (reference != null) {
+      PooledConnection conn = reference.get();
+      lastReturned.remove();
+      if (conn != null && claim(conn, PooledConnection.STATE_IN_USE)) {
+        connections.removeFirstOccurrence(conn);
+        return conn;
+      }
+    }
+    return poll(PooledConnection.STATE_IN_USE);
+  }
+
+  /*
+   * Borrows an idle connection, waiting for one to be returned if there is none
+   *
+   * @param timeout - the milliseconds to wait
+   * @return The connection, or null if none was returned in time
+   */
+  public PooledConnection borrow(long timeout) throws InterruptedException {
+    waiters.incrementAndGet();
+    try {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      while (true) {
+        // a connection returned before this thread became a waiter is not handed off
+        PooledConnection conn = poll(PooledConnection.STATE_IN_USE);
+        if (conn != null) {
+          return conn;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return null;
+        }
+        conn = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (conn != null && claim(conn, PooledConnection.STATE_IN_USE)) {
+          connections.removeFirstOccurrence(conn);
+          return conn;
+        }
+      }
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Adds a returned connection, handing it off to a waiting thread if there is one
+   *
+   * @param conn - the idle connection
+   * @param maxIdle - the maximum number of idle connections
+   * @return False if the bag already holds the maximum number of idle connections
+   */
+  public boolean add(PooledConnection conn, int maxIdle) {
+    int n;
+    do {
+      n = size.get();
+      if (n >= maxIdle) {
+        return false;
+      }
+    } while (!size.compareAndSet(n, n + 1));
+    connections.addFirst(conn);
+    lastReturned.set(new WeakReference<PooledConnection>(conn));
+    while (waiters.get() > 0 && conn.getState() == PooledConnection.STATE_IDLE) {
+      if (handoffQueue.offer(conn)) {
+        break;
+      }
+      Thread.yield();
+    }
+    return true;
+  }
+
+  /*
+   * Removes an idle connection to close it
+   *
+   * @return The connection, or null if there is no idle connection
+   */
+  public PooledConnection remove() {
+    return poll(PooledConnection.STATE_REMOVED);
+  }
+
+  /*
+   * Removes a given idle connection to check or close it
+   *
+   * @param conn - the idle connection
+   * @return False if another thread borrowed or removed the connection first
+   */
+  public boolean remove(PooledConnection conn) {
+    if (claim(conn, PooledConnection.STATE_REMOVED)) {
+      connections.removeFirstOccurrence(conn);
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Getter for the idle connections, which other threads may borrow meanwhile
+   *
+   * @return The idle connections
+   */
+  public List<PooledConnection> values() {
+    return new ArrayList<PooledConnection>(connections);
+  }
+
+  /*
+   * Getter for the number of idle connections
+   *
+   * @return The number of idle connections
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /*
+   * Getter for the number of threads waiting for a connection
+   *
+   * @return The number of waiting threads
+   */
+  public int getWaiterCount() {
+    return waiters.get();
+  }
+
+  private PooledConnection poll(int state) {
+    PooledConnection conn;
+    while ((conn = connections.pollFirst()) != null) {
+      if (claim(conn, state)) {
+        return conn;
+      }
+    }
+    return null;
+  }
+
+  private boolean claim(PooledConnection conn, int state) {
+    if (conn.compareAndSetState(PooledConnection.STATE_IDLE, state)) {
+      size.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+}
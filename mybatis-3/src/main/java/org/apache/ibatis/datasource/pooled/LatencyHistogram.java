@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in milliseconds, recorded without locking. The durations are counted in power of two
+ * buckets, so a percentile is the upper bound of the bucket it falls in, at most twice the actual duration.
+ *
+ * @since 3.5.0
+ */
+public class LatencyHistogram {
+
+  // bucket 0 counts zero durations, bucket i the durations from 2^(i-1) to 2^i - 1 and the last one all longer ones
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long millis) {
+    long duration = Math.max(0, millis);
+    buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(duration)));
+    count.increment();
+    total.add(duration);
+    long current;
+    while (duration > (current = max.get()) && !max.compareAndSet(current, duration)) {
+      // retry
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getAverage() {
+    long n = count.sum();
+    return n == 0 ? 0 : total.sum() / n;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the upper bound of the durations of the given percentile, 0 if nothing was recorded
+   */
+  public long getPercentile(double percentile) {
+    long n = 0;
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      n += counts[i];
+    }
+    long rank = (long) Math.ceil(n * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return the count, average, 50th, 95th and 99th percentiles and max
+   */
+  public Map<String, Long> getSummary() {
+    Map<String, Long> summary = new LinkedHashMap<String, Long>();
+    summary.put("count", getCount());
+    summary.put("average", getAverage());
+    summary.put("p50", getPercentile(50));
+    summary.put("p95", getPercentile(95));
+    summary.put("p99", getPercentile(99));
+    summary.put("max", getMax());
+    return summary;
+  }
+
+}
@@ -0,0 +1,50 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Notified by a {@link PooledDataSource} of the use of its connections, e.g. to export them to a metrics library.
+ * It is called by the threads using the pool, so it must be fast. Exceptions it throws are logged and ignored.
+ *
+ * @since 3.5.0
+ */
+public interface PoolListener {
+
+  /**
+   * @param millis the time it took to open a new connection
+   */
+  void connectionOpened(long millis);
+
+  /**
+   * @param waitMillis the time the borrower waited for the connection
+   */
+  void connectionCheckedOut(long waitMillis);
+
+  /**
+   * @param checkoutMillis the time the connection was checked out
+   */
+  void connectionReturned(long checkoutMillis);
+
+  /**
+   * Called once for a connection checked out longer than the
+   * {@link PooledDataSource#setPoolLeakDetectionThreshold(int) leak detection threshold}.
+   *
+   * @param checkoutMillis the time the connection has been checked out
+   * @param checkoutTrace the stack trace of the thread that checked it out
+   */
+  void connectionLeaked(long checkoutMillis, Throwable checkoutTrace);
+
+}
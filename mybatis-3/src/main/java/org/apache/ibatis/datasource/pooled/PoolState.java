@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -17,73 +17,159 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Clinton Begin
  */
-public class PoolState {
+public class PoolState implements PoolStateMBean {
 
   protected PooledDataSource dataSource;
 
+  /**
+   * @deprecated no longer maintained since 3.5.0, see {@link #idleConnectionBag}
+   */
+  @Deprecated
   protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
+  /**
+   * @deprecated no longer maintained since 3.5.0, see {@link #activeConnectionSet}
+   */
+  @Deprecated
   protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
+  /**
+   * @deprecated no longer maintained since 3.5.0, the counts are kept by the counters below and read through the getters
+   */
+  @Deprecated
   protected long requestCount = 0;
+  @Deprecated
   protected long accumulatedRequestTime = 0;
+  @Deprecated
   protected long accumulatedCheckoutTime = 0;
+  @Deprecated
   protected long claimedOverdueConnectionCount = 0;
+  @Deprecated
   protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
+  @Deprecated
   protected long accumulatedWaitTime = 0;
+  @Deprecated
   protected long hadToWaitCount = 0;
+  @Deprecated
   protected long badConnectionCount = 0;
 
+  /**
+   * @since 3.5.0
+   */
+  protected final ConnectionBag idleConnectionBag = new ConnectionBag();
+  /**
+   * @since 3.5.0
+   */
+  protected final Set<PooledConnection> activeConnectionSet = ConcurrentHashMap.<PooledConnection>newKeySet();
+  protected final AtomicInteger connectionCount = new AtomicInteger();
+  protected final LongAdder requestCounter = new LongAdder();
+  protected final LongAdder accumulatedRequestTimeCounter = new LongAdder();
+  protected final LongAdder accumulatedCheckoutTimeCounter = new LongAdder();
+  protected final LongAdder claimedOverdueConnectionCounter = new LongAdder();
+  protected final LongAdder accumulatedCheckoutTimeOfOverdueConnectionsCounter = new LongAdder();
+  protected final LongAdder accumulatedWaitTimeCounter = new LongAdder();
+  protected final LongAdder hadToWaitCounter = new LongAdder();
+  protected final LongAdder badConnectionCounter = new LongAdder();
+  protected final LongAdder leakedConnectionCount = new LongAdder();
+  protected final LatencyHistogram waitTime = new LatencyHistogram();
+  protected final LatencyHistogram checkoutTime = new LatencyHistogram();
+  protected final LatencyHistogram creationTime = new LatencyHistogram();
+
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  public long getRequestCount() {
+    return requestCounter.sum();
+  }
+
+  public long getAverageRequestTime() {
+    long requests = requestCounter.sum();
+    return requests == 0 ? 0 : accumulatedRequestTimeCounter.sum() / requests;
+  }
+
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCounter.sum();
+    return waits == 0 ? 0 : accumulatedWaitTimeCounter.sum() / waits;
+
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getHadToWaitCount() {
+    return hadToWaitCounter.sum();
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  public long getBadConnectionCount() {
+    return badConnectionCounter.sum();
+  }
 
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCounter.sum();
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCounter.sum();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnectionsCounter.sum() / claimed;
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getAverageCheckoutTime() {
+    long requests = requestCounter.sum();
+    return requests == 0 ? 0 : accumulatedCheckoutTimeCounter.sum() / requests;
+  }
+
+
+  public int getIdleConnectionCount() {
+    return idleConnectionBag.size();
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public int getActiveConnectionCount() {
+    return activeConnectionSet.size();
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public int getConnectionCount() {
+    return connectionCount.get();
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public int getPendingConnectionCount() {
+    return idleConnectionBag.getWaiterCount();
   }
 
+  public long getLeakedConnectionCount() {
+    return leakedConnectionCount.sum();
+  }
+
+  public LatencyHistogram getWaitTimeHistogram() {
+    return waitTime;
+  }
+
+  public LatencyHistogram getCheckoutTimeHistogram() {
+    return checkoutTime;
+  }
+
+  public LatencyHistogram getCreationTimeHistogram() {
+    return creationTime;
+  }
+
+  public Map<String, Long> getWaitTimeSummary() {
+    return waitTime.getSummary();
+  }
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  public Map<String, Long> getCheckoutTimeSummary() {
+    return checkoutTime.getSummary();
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  public Map<String, Long> getCreationTimeSummary() {
+    return creationTime.getSummary();
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -100,6 +186,8 @@ public class PoolState {
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n connections                    ").append(getConnectionCount());
+    builder.append("\n pendingConnections             ").append(getPendingConnectionCount());
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
@@ -108,6 +196,10 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n leakedConnectionCount          ").append(getLeakedConnectionCount());
+    builder.append("\n waitTime                       ").append(getWaitTimeSummary());
+    builder.append("\n checkoutTime                   ").append(getCheckoutTimeSummary());
+    builder.append("\n creationTime                   ").append(getCreationTimeSummary());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link PoolState} registered by {@link PooledDataSource#registerMBean}.
+ *
+ * @since 3.5.0
+ */
+public interface PoolStateMBean {
+
+  long getRequestCount();
+
+  long getAverageRequestTime();
+
+  long getAverageWaitTime();
+
+  long getHadToWaitCount();
+
+  long getBadConnectionCount();
+
+  long getClaimedOverdueConnectionCount();
+
+  long getAverageOverdueCheckoutTime();
+
+  long getAverageCheckoutTime();
+
+  long getLeakedConnectionCount();
+
+  int getIdleConnectionCount();
+
+  int getActiveConnectionCount();
+
+  int getPendingConnectionCount();
+
+  int getConnectionCount();
+
+  Map<String, Long> getWaitTimeSummary();
+
+  Map<String, Long> getCheckoutTimeSummary();
+
+  Map<String, Long> getCreationTimeSummary();
+
+}
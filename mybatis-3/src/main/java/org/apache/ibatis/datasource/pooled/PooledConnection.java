@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -20,6 +20,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -29,17 +31,26 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
+  static final int STATE_IDLE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = 2;
+
   private final int hashCode;
   private final PooledDataSource dataSource;
   private final Connection realConnection;
   private final Connection proxyConnection;
-  private long checkoutTimestamp;
+  private volatile long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
+  private PooledStatementCache statementCache;
+  private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+  private Throwable checkoutTrace;
+  private final AtomicBoolean leakReported = new AtomicBoolean();
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -91,6 +102,71 @@ class PooledConnection implements InvocationHandler {
     return proxyConnection;
   }
 
+  /*
+   * Getter for the prepared statements kept open on the real connection
+   *
+   * @return The statement cache, null if statements are not cached
+   */
+  public PooledStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Setter for the prepared statements kept open on the real connection
+   *
+   * @param statementCache - the statement cache
+   */
+  public void setStatementCache(PooledStatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  /*
+   * Getter for the stack trace of the thread that checked out the connection
+   *
+   * @return The stack trace, null if leaks are not detected
+   */
+  public Throwable getCheckoutTrace() {
+    return checkoutTrace;
+  }
+
+  /*
+   * Setter for the stack trace of the thread that checked out the connection
+   *
+   * @param checkoutTrace - the stack trace
+   */
+  public void setCheckoutTrace(Throwable checkoutTrace) {
+    this.checkoutTrace = checkoutTrace;
+  }
+
+  /*
+   * Marks the connection as reported as leaked
+   *
+   * @return False if it was reported before
+   */
+  boolean reportLeak() {
+    return leakReported.compareAndSet(false, true);
+  }
+
+  /*
+   * Getter for the state of the connection in the pool
+   *
+   * @return The state, idle, in use or removed
+   */
+  int getState() {
+    return state.get();
+  }
+
+  /*
+   * Moves the connection to another state in the pool, if no other thread did it first
+   *
+   * @param expect - the current state
+   * @param update - the new state
+   * @return True if the state was changed
+   */
+  boolean compareAndSetState(int expect, int update) {
+    return state.compareAndSet(expect, update);
+  }
+
   /*
    * Gets the hashcode of the real connection (or 0 if it is null)
    *
@@ -242,6 +318,9 @@ class PooledConnection implements InvocationHandler {
           // throw an SQLException instead of a Runtime
           checkConnection();
         }
+        if (statementCache != null && PREPARE_STATEMENT.equals(methodName)) {
+          return statementCache.prepareStatement(method, args, proxyConnection);
+        }
         return method.invoke(realConnection, args);
       } catch (Throwable t) {
         throw ExceptionUtil.unwrapThrowable(t);
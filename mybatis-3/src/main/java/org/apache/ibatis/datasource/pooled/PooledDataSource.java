@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,20 +15,38 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 /**
- * This is a simple, synchronous, thread-safe database connection pool.
+ * This is a simple, thread-safe database connection pool.
+ *
+ * Connections are borrowed and returned without a pool wide lock, see {@link ConnectionBag}, and new connections
+ * are opened by the borrowing thread while the other threads keep using the pool.
+ *
+ * With a minimum of idle connections, a maximum lifetime or an idle validation interval, a housekeeping thread
+ * opens the idle connections ahead of the borrowers, validates the idle connections and retires the old ones.
+ * It is started by {@link #warmUp()} and stopped by {@link #close()}.
  *
  * @author Clinton Begin
  */
@@ -36,6 +54,8 @@ public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
   private final PoolState state = new PoolState(this);
 
   private final UnpooledDataSource dataSource;
@@ -49,8 +69,17 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
-
-  private int expectedConnectionTypeCode;
+  protected int poolPreparedStatementCacheSize;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumLifetime;
+  protected int poolIdleValidationInterval;
+  protected int poolHousekeepingInterval = 30000;
+  protected int poolLeakDetectionThreshold;
+  private volatile GuardedPoolListener poolListener;
+
+  private volatile int expectedConnectionTypeCode;
+  private final AtomicReference<ScheduledExecutorService> housekeeper = new AtomicReference<ScheduledExecutorService>();
+  private final AtomicBoolean fillRequested = new AtomicBoolean();
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -58,6 +87,7 @@ public class PooledDataSource implements DataSource {
 
   public PooledDataSource(UnpooledDataSource dataSource) {
     this.dataSource = dataSource;
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
   }
 
   public PooledDataSource(String driver, String url, String username, String password) {
@@ -231,6 +261,101 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The number of prepared statements kept open on each connection, so that sessions
+   * running the same sql on the connection do not prepare it again. Zero disables the cache.
+   *
+   * @param poolPreparedStatementCacheSize The number of statements per connection
+   *
+   * @since 3.5.0
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of idle connections the housekeeping thread keeps open, so that borrowers do not
+   * have to open them. Zero opens connections only when they are borrowed.
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /*
+   * The time after which a connection is closed instead of being returned to the pool, less up to 2.5%
+   * so that the connections opened together are not all closed together. Zero keeps connections open.
+   *
+   * @param milliseconds The maximum lifetime of a connection
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * If an idle connection has not been used in this many milliseconds, the housekeeping thread checks it
+   * with {@link Connection#isValid(int)}. A checked connection counts as used, so with a larger
+   * poolPingConnectionsNotUsedFor it is not pinged again when it is borrowed. Zero disables the check.
+   *
+   * @param milliseconds the number of milliseconds of inactivity that will trigger a check
+   *
+   * @since 3.5.0
+   */
+  public void setPoolIdleValidationInterval(int milliseconds) {
+    this.poolIdleValidationInterval = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * How often the housekeeping thread runs
+   *
+   * @param milliseconds The time between two runs, must be positive
+   *
+   * @since 3.5.0
+   */
+  public void setPoolHousekeepingInterval(int milliseconds) {
+    if (milliseconds <= 0) {
+      throw new IllegalArgumentException("poolHousekeepingInterval must be positive but was " + milliseconds);
+    }
+    this.poolHousekeepingInterval = milliseconds;
+    stopHousekeeping();
+    forceCloseAll();
+  }
+
+  /*
+   * If a connection is checked out longer than this many milliseconds, the housekeeping thread
+   * reports it with the stack trace of the thread that checked it out. Zero disables the detection,
+   * which saves taking a stack trace on each checkout.
+   *
+   * @param milliseconds the checkout time that is reported as a leak
+   *
+   * @since 3.5.0
+   */
+  public void setPoolLeakDetectionThreshold(int milliseconds) {
+    this.poolLeakDetectionThreshold = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * Notified when connections are opened, checked out, returned or leaked. Exceptions thrown by the
+   * listener are logged and do not affect the pool.
+   *
+   * @param poolListener The listener
+   *
+   * @since 3.5.0
+   */
+  public void setPoolListener(PoolListener poolListener) {
+    this.poolListener = poolListener == null ? null : new GuardedPoolListener(poolListener);
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -291,90 +416,192 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolIdleValidationInterval() {
+    return poolIdleValidationInterval;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public PoolListener getPoolListener() {
+    GuardedPoolListener listener = poolListener;
+    return listener == null ? null : listener.delegate;
+  }
+
   /*
-   * Closes all active and idle connections in the pool
+   * Starts the housekeeping thread, which opens the minimum idle connections right away. Does nothing
+   * if the pool needs no housekeeping or it is started already. It is called once the properties are set
+   * by {@link PooledDataSourceFactory}, and otherwise when the first connection is borrowed.
+   *
+   * @since 3.5.0
    */
-  public void forceCloseAll() {
-    synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
-      for (int i = state.activeConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.activeConnections.remove(i - 1);
-          conn.invalidate();
-
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
-          }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
-        }
+  public void warmUp() {
+    if (!isHousekeepingEnabled() || housekeeper.get() != null) {
+      return;
+    }
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+        thread.setDaemon(true);
+        return thread;
       }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
-          conn.invalidate();
+    });
+    if (housekeeper.compareAndSet(null, executor)) {
+      executor.scheduleWithFixedDelay(new Housekeeper(this, executor), 0, poolHousekeepingInterval, TimeUnit.MILLISECONDS);
+    } else {
+      executor.shutdown();
+    }
+  }
 
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
-          }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
-        }
+  private boolean isHousekeepingEnabled() {
+    return poolMinimumIdleConnections > 0 || poolMaximumLifetime > 0 || poolIdleValidationInterval > 0
+        || poolLeakDetectionThreshold > 0;
+  }
+
+  private void stopHousekeeping() {
+    ScheduledExecutorService executor = housekeeper.getAndSet(null);
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /*
+   * Closes all active and idle connections in the pool
+   */
+  public void forceCloseAll() {
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    for (PooledConnection conn : state.activeConnectionSet) {
+      if (conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)) {
+        state.activeConnectionSet.remove(conn);
+        closeConnection(conn);
       }
     }
+    for (PooledConnection conn = state.idleConnectionBag.remove(); conn != null; conn = state.idleConnectionBag.remove()) {
+      closeConnection(conn);
+    }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
     }
   }
 
+  /*
+   * Stops the housekeeping thread and closes all the connections. Borrowing a connection afterwards
+   * opens the pool again.
+   *
+   * @since 3.5.0
+   */
+  public void close() {
+    stopHousekeeping();
+    forceCloseAll();
+  }
+
   public PoolState getPoolState() {
     return state;
   }
 
+  /*
+   * Registers the pool state as an MBean named <code>org.mybatis:type=Pool,name=&lt;name&gt;</code>
+   *
+   * @param server - the MBean server
+   * @param name - distinguishes the pools in the same server
+   *
+   * @since 3.5.0
+   */
+  public void registerMBean(MBeanServer server, String name) {
+    try {
+      ObjectName objectName = objectName(name);
+      if (!server.isRegistered(objectName)) {
+        server.registerMBean(state, objectName);
+      }
+    } catch (JMException e) {
+      throw new DataSourceException("Error registering pool state MBean.  Cause: " + e, e);
+    }
+  }
+
+  public void unregisterMBean(MBeanServer server, String name) {
+    try {
+      ObjectName objectName = objectName(name);
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      throw new DataSourceException("Error unregistering pool state MBean.  Cause: " + e, e);
+    }
+  }
+
+  private static ObjectName objectName(String name) throws JMException {
+    return new ObjectName("org.mybatis:type=Pool,name=" + ObjectName.quote(name));
+  }
+
+  private PooledStatementCache newStatementCache(Connection realConnection) {
+    return poolPreparedStatementCacheSize > 0 ? new PooledStatementCache(realConnection, poolPreparedStatementCacheSize) : null;
+  }
+
   private int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
   protected void pushConnection(PooledConnection conn) throws SQLException {
-
-    synchronized (state) {
-      state.activeConnections.remove(conn);
-      if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
-          conn.invalidate();
+    if (!conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)) {
+      // closed twice, claimed as overdue or closed by forceCloseAll
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.increment();
+      return;
+    }
+    state.activeConnectionSet.remove(conn);
+    if (conn.isValid()) {
+      long checkoutTime = conn.getCheckoutTime();
+      state.accumulatedCheckoutTimeCounter.add(checkoutTime);
+      state.checkoutTime.record(checkoutTime);
+      if (poolListener != null) {
+        poolListener.connectionReturned(checkoutTime);
+      }
+      rollback(conn);
+      if (conn.getConnectionTypeCode() == expectedConnectionTypeCode && !isExpired(conn)) {
+        if (conn.getStatementCache() != null) {
+          conn.getStatementCache().closeInUse();
+        }
+        PooledConnection newConn = copyConnection(conn);
+        conn.invalidate();
+        if (state.idleConnectionBag.add(newConn, poolMaximumIdleConnections)) {
           if (log.isDebugEnabled()) {
             log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
           }
-          state.notifyAll();
-        } else {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          conn.getRealConnection().close();
-          if (log.isDebugEnabled()) {
-            log.debug("Closed connection " + conn.getRealHashCode() + ".");
-          }
-          conn.invalidate();
-        }
-      } else {
-        if (log.isDebugEnabled()) {
-          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+          return;
         }
-        state.badConnectionCount++;
       }
+      state.connectionCount.decrementAndGet();
+      conn.getRealConnection().close();
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+      conn.invalidate();
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.connectionCount.decrementAndGet();
+      state.badConnectionCounter.increment();
     }
   }
 
@@ -383,99 +610,84 @@ public class PooledDataSource implements DataSource {
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
     int localBadConnectionCount = 0;
+    if (housekeeper.get() == null) {
+      warmUp();
+    }
 
     while (conn == null) {
-      synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
-          // Pool has available connection
-          conn = state.idleConnections.remove(0);
+      conn = state.idleConnectionBag.borrow();
+      if (conn != null) {
+        // Pool has available connection
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if (reserveConnection()) {
+        // Can create new connection, the other threads keep borrowing and returning connections meanwhile
+        conn = openConnection();
+        conn.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_IN_USE);
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        // Cannot create new connection
+        conn = claimOverdueConnection();
+        if (conn == null) {
+          // Must wait
+          if (!countedWait) {
+            state.hadToWaitCounter.increment();
+            countedWait = true;
+          }
           if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          try {
+            conn = state.idleConnectionBag.borrow(poolTimeToWait);
+          } catch (InterruptedException e) {
+            break;
+          }
+          state.accumulatedWaitTimeCounter.add(System.currentTimeMillis() - wt);
+          if (conn != null && log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
+        }
+      }
+      if (conn != null) {
+        // ping to server and check the connection is valid or not
+        if (conn.isValid()) {
+          rollback(conn);
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          if (poolLeakDetectionThreshold > 0) {
+            conn.setCheckoutTrace(new Throwable("Connection " + conn.getRealHashCode() + " was checked out by thread "
+                + Thread.currentThread().getName() + "."));
+          }
+          state.activeConnectionSet.add(conn);
+          state.requestCounter.increment();
+          long requestTime = System.currentTimeMillis() - t;
+          state.accumulatedRequestTimeCounter.add(requestTime);
+          state.waitTime.record(requestTime);
+          if (poolListener != null) {
+            poolListener.connectionCheckedOut(requestTime);
+          }
+          if (state.idleConnectionBag.size() < poolMinimumIdleConnections) {
+            requestFill();
+          }
         } else {
-          // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
-            if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
-            }
-          } else {
-            // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                try {
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  /*
-                     Just log a message for debug and continue to execute the following
-                     statement like nothing happend.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not intterupt current executing thread and give current thread a
-                     chance to join the next competion for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
-                   */
-                  log.debug("Bad connection. Could not roll back");
-                }  
-              }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-              }
-            } else {
-              // Must wait
-              try {
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
-              }
-            }
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
           }
-        }
-        if (conn != null) {
-          // ping to server and check the connection is valid or not
-          if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
-            }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
-          } else {
+          conn.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED);
+          state.connectionCount.decrementAndGet();
+          state.badConnectionCounter.increment();
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
             if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
-            state.badConnectionCount++;
-            localBadConnectionCount++;
-            conn = null;
-            if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
             }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
           }
         }
       }
@@ -492,6 +704,229 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  private boolean reserveConnection() {
+    int count;
+    do {
+      count = state.connectionCount.get();
+      if (count >= poolMaximumActiveConnections) {
+        return false;
+      }
+    } while (!state.connectionCount.compareAndSet(count, count + 1));
+    return true;
+  }
+
+  private PooledConnection openConnection() throws SQLException {
+    boolean opened = false;
+    long t = System.currentTimeMillis();
+    try {
+      PooledConnection conn = new PooledConnection(dataSource.getConnection(), this);
+      conn.setStatementCache(newStatementCache(conn.getRealConnection()));
+      opened = true;
+      long creationTime = System.currentTimeMillis() - t;
+      state.creationTime.record(creationTime);
+      if (poolListener != null) {
+        poolListener.connectionOpened(creationTime);
+      }
+      return conn;
+    } finally {
+      if (!opened) {
+        state.connectionCount.decrementAndGet();
+      }
+    }
+  }
+
+  private PooledConnection claimOverdueConnection() throws SQLException {
+    PooledConnection oldestActiveConnection = null;
+    for (PooledConnection conn : state.activeConnectionSet) {
+      if (oldestActiveConnection == null || conn.getCheckoutTimestamp() < oldestActiveConnection.getCheckoutTimestamp()) {
+        oldestActiveConnection = conn;
+      }
+    }
+    if (oldestActiveConnection == null) {
+      // the connections are still being opened
+      return null;
+    }
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime
+        || !oldestActiveConnection.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)) {
+      return null;
+    }
+    // Can claim overdue connection
+    state.activeConnectionSet.remove(oldestActiveConnection);
+    state.claimedOverdueConnectionCounter.increment();
+    state.accumulatedCheckoutTimeOfOverdueConnectionsCounter.add(longestCheckoutTime);
+    state.accumulatedCheckoutTimeCounter.add(longestCheckoutTime);
+    state.checkoutTime.record(longestCheckoutTime);
+    reportLeak(oldestActiveConnection, longestCheckoutTime);
+    if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+      try {
+        oldestActiveConnection.getRealConnection().rollback();
+      } catch (SQLException e) {
+        /*
+           Just log a message for debug and continue to execute the following
+           statement like nothing happend.
+           Wrap the bad connection with a new PooledConnection, this will help
+           to not intterupt current executing thread and give current thread a
+           chance to join the next competion for another valid/good database
+           connection. At the end of this loop, bad {@link @conn} will be set as null.
+         */
+        log.debug("Bad connection. Could not roll back");
+      }
+    }
+    if (oldestActiveConnection.getStatementCache() != null) {
+      oldestActiveConnection.getStatementCache().close();
+    }
+    PooledConnection conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+    conn.setStatementCache(newStatementCache(conn.getRealConnection()));
+    conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+    conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+    conn.compareAndSetState(PooledConnection.STATE_IDLE, PooledConnection.STATE_IN_USE);
+    oldestActiveConnection.invalidate();
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+    }
+    return conn;
+  }
+
+  private PooledConnection copyConnection(PooledConnection conn) {
+    PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+    newConn.setStatementCache(conn.getStatementCache());
+    newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+    newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+    return newConn;
+  }
+
+  private boolean isExpired(PooledConnection conn) {
+    if (poolMaximumLifetime <= 0) {
+      return false;
+    }
+    // the same connection always gets the same jitter
+    long variance = poolMaximumLifetime / 40;
+    long jitter = variance > 0 ? (conn.getRealHashCode() & Integer.MAX_VALUE) % variance : 0;
+    return conn.getAge() >= poolMaximumLifetime - jitter;
+  }
+
+  private void requestFill() {
+    ScheduledExecutorService executor = housekeeper.get();
+    if (executor != null && fillRequested.compareAndSet(false, true)) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          fillRequested.set(false);
+          fill();
+        }
+      });
+    }
+  }
+
+  /*
+   * Reports the leaked connections, retires the expired idle connections, validates the idle connections
+   * not used for a while and opens the minimum idle connections
+   */
+  private void housekeep() {
+    if (poolLeakDetectionThreshold > 0) {
+      for (PooledConnection conn : state.activeConnectionSet) {
+        long checkoutTime = conn.getCheckoutTime();
+        if (checkoutTime > poolLeakDetectionThreshold) {
+          reportLeak(conn, checkoutTime);
+        }
+      }
+    }
+    for (PooledConnection conn : state.idleConnectionBag.values()) {
+      if (isExpired(conn)) {
+        if (state.idleConnectionBag.remove(conn)) {
+          closeConnection(conn);
+          if (log.isDebugEnabled()) {
+            log.debug("Retired connection " + conn.getRealHashCode() + ".");
+          }
+        }
+      } else if (poolIdleValidationInterval > 0 && conn.getTimeElapsedSinceLastUse() >= poolIdleValidationInterval
+          && state.idleConnectionBag.remove(conn)) {
+        validate(conn);
+      }
+    }
+    fill();
+  }
+
+  private void reportLeak(PooledConnection conn, long checkoutTime) {
+    Throwable checkoutTrace = conn.getCheckoutTrace();
+    if (checkoutTrace == null || !conn.reportLeak()) {
+      return;
+    }
+    state.leakedConnectionCount.increment();
+    log.error("Connection " + conn.getRealHashCode() + " has been checked out for " + checkoutTime
+        + " milliseconds, it may have leaked.", checkoutTrace);
+    if (poolListener != null) {
+      poolListener.connectionLeaked(checkoutTime, checkoutTrace);
+    }
+  }
+
+  private void validate(PooledConnection conn) {
+    boolean valid;
+    try {
+      valid = conn.getRealConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      valid = false;
+    }
+    if (!valid) {
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD, closing it.");
+      }
+      state.badConnectionCounter.increment();
+      closeConnection(conn);
+      return;
+    }
+    PooledConnection newConn = copyConnection(conn);
+    newConn.setLastUsedTimestamp(System.currentTimeMillis());
+    conn.invalidate();
+    if (!state.idleConnectionBag.add(newConn, poolMaximumIdleConnections)) {
+      closeConnection(newConn);
+    }
+  }
+
+  private void fill() {
+    int minimumIdle = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections);
+    try {
+      while (state.idleConnectionBag.size() < minimumIdle && reserveConnection()) {
+        PooledConnection conn = openConnection();
+        if (!state.idleConnectionBag.add(conn, poolMaximumIdleConnections)) {
+          closeConnection(conn);
+          return;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Opened idle connection " + conn.getRealHashCode() + ".");
+        }
+      }
+    } catch (SQLException e) {
+      log.warn("Could not open an idle connection. Cause: " + e);
+    }
+  }
+
+  private void rollback(PooledConnection conn) throws SQLException {
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      closeConnection(conn);
+      throw e;
+    }
+  }
+
+  private void closeConnection(PooledConnection conn) {
+    state.connectionCount.decrementAndGet();
+    conn.invalidate();
+    try {
+      Connection realConn = conn.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -564,7 +999,7 @@ public class PooledDataSource implements DataSource {
   }
 
   protected void finalize() throws Throwable {
-    forceCloseAll();
+    close();
     super.finalize();
   }
 
@@ -580,4 +1015,78 @@ public class PooledDataSource implements DataSource {
     return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // requires JDK version 1.6
   }
 
+  private static class Housekeeper implements Runnable {
+
+    // the pool can be garbage collected while the housekeeping thread runs
+    private final WeakReference<PooledDataSource> dataSource;
+    private final ScheduledExecutorService executor;
+
+    Housekeeper(PooledDataSource dataSource, ScheduledExecutorService executor) {
+      this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+      this.executor = executor;
+    }
+
+    @Override
+    public void run() {
+      PooledDataSource pool = dataSource.get();
+      if (pool == null) {
+        executor.shutdown();
+        return;
+      }
+      try {
+        pool.housekeep();
+      } catch (RuntimeException e) {
+        log.warn("Housekeeping of the pool failed. Cause: " + e);
+      }
+    }
+  }
+
+  /**
+   * Keeps an exception of the listener from breaking the bookkeeping of the pool.
+   */
+  private static class GuardedPoolListener implements PoolListener {
+
+    private final PoolListener delegate;
+
+    GuardedPoolListener(PoolListener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void connectionOpened(long millis) {
+      try {
+        delegate.connectionOpened(millis);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener failed on an opened connection. Cause: " + e);
+      }
+    }
+
+    @Override
+    public void connectionCheckedOut(long waitMillis) {
+      try {
+        delegate.connectionCheckedOut(waitMillis);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener failed on a checked out connection. Cause: " + e);
+      }
+    }
+
+    @Override
+    public void connectionReturned(long checkoutMillis) {
+      try {
+        delegate.connectionReturned(checkoutMillis);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener failed on a returned connection. Cause: " + e);
+      }
+    }
+
+    @Override
+    public void connectionLeaked(long checkoutMillis, Throwable checkoutTrace) {
+      try {
+        delegate.connectionLeaked(checkoutMillis, checkoutTrace);
+      } catch (RuntimeException e) {
+        log.warn("Pool listener failed on a leaked connection. Cause: " + e);
+      }
+    }
+  }
+
 }
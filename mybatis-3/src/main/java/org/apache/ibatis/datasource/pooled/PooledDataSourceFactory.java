@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,15 +15,39 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import java.util.Properties;
+
+import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
+import org.apache.ibatis.io.Resources;
 
 /**
  * @author Clinton Begin
  */
 public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
 
+  private static final String POOL_LISTENER_PROPERTY = "poolListener";
+
   public PooledDataSourceFactory() {
     this.dataSource = new PooledDataSource();
   }
 
+  @Override
+  public void setProperties(Properties properties) {
+    String poolListener = properties.getProperty(POOL_LISTENER_PROPERTY);
+    if (poolListener != null) {
+      Properties dataSourceProperties = new Properties();
+      dataSourceProperties.putAll(properties);
+      dataSourceProperties.remove(POOL_LISTENER_PROPERTY);
+      properties = dataSourceProperties;
+      try {
+        ((PooledDataSource) dataSource).setPoolListener((PoolListener) Resources.classForName(poolListener).newInstance());
+      } catch (Exception e) {
+        throw new DataSourceException("Error creating pool listener " + poolListener + ".  Cause: " + e, e);
+      }
+    }
+    super.setProperties(properties);
+    ((PooledDataSource) dataSource).warmUp();
+  }
+
 }
@@ -0,0 +1,353 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Prepared statements of a pooled connection, kept open across the sessions that use the connection.
+ *
+ * The statements are handed out behind a proxy whose close() resets and returns them to the cache instead of
+ * closing them. A statement is only handed out to one user at a time, when the same sql is prepared again
+ * while its statement is in use a new, uncached, statement is prepared. The least recently used statements
+ * are closed once the cache is full.
+ */
+class PooledStatementCache {
+
+  private static final Log log = LogFactory.getLog(PooledStatementCache.class);
+
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+
+  private final Connection realConnection;
+  private final int size;
+  private final Map<Key, CachedStatement> statements;
+  // not a monitor, a virtual thread preparing a statement would pin its carrier thread
+  private final ReentrantLock lock = new ReentrantLock();
+  private long hits;
+  private long misses;
+
+  PooledStatementCache(Connection realConnection, int size) {
+    this.realConnection = realConnection;
+    this.size = size;
+    this.statements = new LinkedHashMap<Key, CachedStatement>(16, 0.75f, true);
+  }
+
+  /**
+   * Prepares a statement through one of the prepareStatement methods of the connection.
+   */
+  PreparedStatement prepareStatement(Method method, Object[] args, Connection proxyConnection) throws SQLException {
+    lock.lock();
+    try {
+      Key key = new Key(method, args);
+      CachedStatement cached = statements.get(key);
+      if (cached != null && !cached.inUse) {
+        hits++;
+        cached.checkout(proxyConnection);
+        return cached.proxy;
+      }
+      misses++;
+      PreparedStatement statement = (PreparedStatement) invoke(method, realConnection, args);
+      if (cached != null) {
+        // the cached one is in use, this one is closed after use
+        return statement;
+      }
+      cached = new CachedStatement(key, statement);
+      statements.put(key, cached);
+      evict();
+      cached.checkout(proxyConnection);
+      return cached.proxy;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getSize() {
+    lock.lock();
+    try {
+      return statements.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long getHitCount() {
+    lock.lock();
+    try {
+      return hits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long getMissCount() {
+    lock.lock();
+    try {
+      return misses;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the statements still in use, called when their connection goes back to the pool.
+   */
+  void closeInUse() {
+    lock.lock();
+    try {
+      Iterator<CachedStatement> iterator = statements.values().iterator();
+      while (iterator.hasNext()) {
+        CachedStatement cached = iterator.next();
+        if (cached.inUse) {
+          iterator.remove();
+          cached.closeQuietly();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void close() {
+    lock.lock();
+    try {
+      for (CachedStatement cached : statements.values()) {
+        cached.closeQuietly();
+      }
+      statements.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void evict() {
+    Iterator<CachedStatement> iterator = statements.values().iterator();
+    while (statements.size() > size && iterator.hasNext()) {
+      CachedStatement eldest = iterator.next();
+      if (!eldest.inUse) {
+        iterator.remove();
+        eldest.closeQuietly();
+      }
+    }
+  }
+
+  private void checkin(CachedStatement cached) {
+    lock.lock();
+    try {
+      if (statements.get(cached.key) != cached) {
+        // evicted or closed meanwhile
+        cached.closeQuietly();
+      } else {
+        cached.inUse = false;
+        evict();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void discard(CachedStatement cached) {
+    lock.lock();
+    try {
+      if (statements.get(cached.key) == cached) {
+        statements.remove(cached.key);
+      }
+      cached.closeQuietly();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object[] args) throws SQLException {
+    try {
+      return method.invoke(target, args);
+    } catch (Throwable t) {
+      Throwable cause = ExceptionUtil.unwrapThrowable(t);
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      throw new SQLException("Error invoking " + method.getName() + ". Cause: " + cause, cause);
+    }
+  }
+
+  private static class Key {
+    private final Method method;
+    private final Object[] args;
+    private final int hashCode;
+
+    Key(Method method, Object[] args) {
+      this.method = method;
+      this.args = args;
+      this.hashCode = 31 * method.hashCode() + Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return method.equals(other.method) && Arrays.deepEquals(args, other.args);
+    }
+  }
+
+  private class CachedStatement implements InvocationHandler {
+
+    private final Key key;
+    private final PreparedStatement statement;
+    private final PreparedStatement proxy;
+    private final int queryTimeout;
+    private final int fetchSize;
+    private final int maxRows;
+    private final int maxFieldSize;
+    private final int fetchDirection;
+    private final List<ResultSet> resultSets = new ArrayList<ResultSet>();
+    private Connection proxyConnection;
+    private boolean inUse;
+    private boolean changed;
+    private boolean batched;
+    private boolean reusable;
+
+    CachedStatement(Key key, PreparedStatement statement) throws SQLException {
+      this.key = key;
+      this.statement = statement;
+      this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, this);
+      this.queryTimeout = statement.getQueryTimeout();
+      this.fetchSize = statement.getFetchSize();
+      this.maxRows = statement.getMaxRows();
+      this.maxFieldSize = statement.getMaxFieldSize();
+      this.fetchDirection = statement.getFetchDirection();
+    }
+
+    void checkout(Connection proxyConnection) {
+      this.proxyConnection = proxyConnection;
+      this.inUse = true;
+      this.changed = false;
+      this.batched = false;
+      this.reusable = true;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (Object.class.equals(method.getDeclaringClass())) {
+        return method.invoke(this, args);
+      }
+      if ("isClosed".equals(name)) {
+        return !inUse || statement.isClosed();
+      }
+      if ("close".equals(name)) {
+        if (inUse) {
+          release();
+        }
+        return null;
+      }
+      if (!inUse) {
+        throw new SQLException("Statement is closed.");
+      }
+      if ("getConnection".equals(name)) {
+        return proxyConnection;
+      }
+      if (Statement.class.equals(method.getDeclaringClass()) && name.startsWith("set")) {
+        track(name);
+      } else if ("addBatch".equals(name)) {
+        batched = true;
+      } else if ("closeOnCompletion".equals(name)) {
+        reusable = false;
+      }
+      Object result = PooledStatementCache.invoke(method, statement, args);
+      if (result instanceof ResultSet) {
+        resultSets.add((ResultSet) result);
+      }
+      return result;
+    }
+
+    private void track(String name) {
+      if ("setQueryTimeout".equals(name) || "setFetchSize".equals(name) || "setMaxRows".equals(name)
+          || "setMaxFieldSize".equals(name) || "setFetchDirection".equals(name)) {
+        changed = true;
+      } else {
+        // cursor name, escape processing, poolable... are not restored
+        reusable = false;
+      }
+    }
+
+    private void release() {
+      proxyConnection = null;
+      if (!reusable) {
+        discard(this);
+        return;
+      }
+      try {
+        for (ResultSet resultSet : resultSets) {
+          resultSet.close();
+        }
+        resultSets.clear();
+        statement.clearParameters();
+        statement.clearWarnings();
+        if (batched) {
+          statement.clearBatch();
+        }
+        if (changed) {
+          statement.setQueryTimeout(queryTimeout);
+          statement.setFetchSize(fetchSize);
+          statement.setMaxRows(maxRows);
+          statement.setMaxFieldSize(maxFieldSize);
+          statement.setFetchDirection(fetchDirection);
+        }
+        checkin(this);
+      } catch (SQLException e) {
+        if (log.isDebugEnabled()) {
+          log.debug("Could not reset a cached statement, closing it. Cause: " + e);
+        }
+        discard(this);
+      }
+    }
+
+    void closeQuietly() {
+      inUse = false;
+      resultSets.clear();
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+}
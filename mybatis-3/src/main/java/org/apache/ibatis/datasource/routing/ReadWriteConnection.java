@@ -0,0 +1,273 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.ibatis.datasource.routing.ReadWriteDataSource.Replica;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * The connection of a {@link ReadWriteDataSource}. It opens a replica and a primary connection when they are first
+ * needed and sends each statement to one of them.
+ *
+ * @since 3.5.0
+ */
+class ReadWriteConnection implements InvocationHandler {
+
+  private final ReadWriteDataSource dataSource;
+  private final String username;
+  private final String password;
+
+  private Connection primaryConnection;
+  private Connection replicaConnection;
+  private Replica replica;
+  private boolean replicaUnavailable;
+  private boolean wrote;
+  private boolean closed;
+
+  private boolean autoCommit = true;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+
+  ReadWriteConnection(ReadWriteDataSource dataSource, String username, String password) {
+    this.dataSource = dataSource;
+    this.username = username;
+    this.password = password;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      if ("equals".equals(methodName)) {
+        return proxy == args[0];
+      }
+      return "hashCode".equals(methodName) ? System.identityHashCode(proxy) : toString();
+    }
+    if ("close".equals(methodName)) {
+      close();
+      return null;
+    }
+    if ("isClosed".equals(methodName)) {
+      return closed;
+    }
+    if (closed) {
+      throw new SQLException("Error accessing ReadWriteConnection. Connection is closed.");
+    }
+    if ("getAutoCommit".equals(methodName)) {
+      return autoCommit;
+    }
+    if ("setAutoCommit".equals(methodName)) {
+      autoCommit = (Boolean) args[0];
+      invokeOpened(method, args);
+      return null;
+    }
+    if ("setTransactionIsolation".equals(methodName)) {
+      transactionIsolation = (Integer) args[0];
+      invokeOpened(method, args);
+      return null;
+    }
+    if ("setReadOnly".equals(methodName)) {
+      readOnly = (Boolean) args[0];
+      invokeOpened(method, args);
+      return null;
+    }
+    if ("commit".equals(methodName) || "rollback".equals(methodName) && (args == null || args.length == 0)) {
+      invokeOpened(method, args);
+      wrote = false;
+      return null;
+    }
+    if (methodName.startsWith("prepare") || "createStatement".equals(methodName)) {
+      MappedStatement ms = RoutingContext.get();
+      if (!isRead(ms)) {
+        wrote = true;
+      } else if (isReplicaRead(ms)) {
+        Connection connection = replicaConnection();
+        if (connection != null) {
+          return prepareOnReplica(connection, method, args);
+        }
+      }
+    }
+    return invoke(primaryConnection(), method, args);
+  }
+
+  /**
+   * A select may read a replica when the session has not written and is not in a transaction. Inside a
+   * transaction a replica that lags could feed stale rows to the writes that follow, so only read only
+   * sessions and statements marked replica safe read it there.
+   */
+  private boolean isReplicaRead(MappedStatement ms) {
+    if (wrote) {
+      return false;
+    }
+    return autoCommit || Boolean.TRUE.equals(readOnly) || ms.isReplicaSafe();
+  }
+
+  static boolean isRead(MappedStatement ms) {
+    return ms != null
+        && ms.getSqlCommandType() == SqlCommandType.SELECT
+        && ms.getStatementType() != StatementType.CALLABLE
+        && !ms.getId().endsWith(SelectKeyGenerator.SELECT_KEY_SUFFIX);
+  }
+
+  private Object prepareOnReplica(Connection connection, Method method, Object[] args) throws Throwable {
+    Statement statement;
+    try {
+      statement = (Statement) method.invoke(connection, args);
+    } catch (Throwable t) {
+      throw replicaFailure(ExceptionUtil.unwrapThrowable(t));
+    }
+    ReplicaStatement handler = new ReplicaStatement(statement);
+    return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { method.getReturnType() }, handler);
+  }
+
+  private Connection replicaConnection() throws SQLException {
+    while (replicaConnection == null && !replicaUnavailable) {
+      replica = dataSource.reserveReplica();
+      if (replica == null) {
+        // every replica is ejected, the session reads from the primary
+        replicaUnavailable = true;
+        break;
+      }
+      try {
+        replicaConnection = prepare(replica.dataSource.getConnection());
+      } catch (SQLException e) {
+        replica.outstanding.decrementAndGet();
+        dataSource.eject(replica, e);
+        replica = null;
+      }
+    }
+    return replicaConnection;
+  }
+
+  private Connection primaryConnection() throws SQLException {
+    if (primaryConnection == null) {
+      primaryConnection = prepare(dataSource.openPrimary(username, password));
+    }
+    return primaryConnection;
+  }
+
+  private Connection prepare(Connection connection) throws SQLException {
+    try {
+      if (connection.getAutoCommit() != autoCommit) {
+        connection.setAutoCommit(autoCommit);
+      }
+      if (transactionIsolation != null) {
+        connection.setTransactionIsolation(transactionIsolation);
+      }
+      if (readOnly != null) {
+        connection.setReadOnly(readOnly);
+      }
+      return connection;
+    } catch (SQLException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  private void invokeOpened(Method method, Object[] args) throws Throwable {
+    if (primaryConnection != null) {
+      invoke(primaryConnection, method, args);
+    }
+    if (replicaConnection != null) {
+      try {
+        invoke(replicaConnection, method, args);
+      } catch (SQLException e) {
+        throw replicaFailure(e);
+      }
+    }
+  }
+
+  private Throwable replicaFailure(Throwable t) {
+    if (t instanceof SQLException && isConnectionError((SQLException) t) && replica != null) {
+      dataSource.eject(replica, (SQLException) t);
+    }
+    return t;
+  }
+
+  private static boolean isConnectionError(SQLException e) {
+    // SQL state class 08 is a connection exception
+    String sqlState = e.getSQLState();
+    return sqlState != null && sqlState.startsWith("08");
+  }
+
+  private void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    SQLException failure = null;
+    if (replicaConnection != null) {
+      replica.outstanding.decrementAndGet();
+      try {
+        replicaConnection.close();
+      } catch (SQLException e) {
+        failure = e;
+      }
+    }
+    if (primaryConnection != null) {
+      try {
+        primaryConnection.close();
+      } catch (SQLException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(connection, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  /**
+   * Ejects the replica when one of its statements fails with a connection error.
+   */
+  private class ReplicaStatement implements InvocationHandler {
+
+    private final Statement statement;
+
+    ReplicaStatement(Statement statement) {
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(statement, args);
+      } catch (Throwable t) {
+        throw replicaFailure(ExceptionUtil.unwrapThrowable(t));
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,296 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * A DataSource that sends the writes of a session to a primary and its reads to one of several replicas.
+ *
+ * Each connection is a proxy that opens a replica connection for the first query of the session and a primary
+ * connection for the first update. The statement is told apart by the {@link RoutingContext} the executor sets: a
+ * select goes to the replica unless the session has written since its last commit or rollback, so that a session
+ * reads its own writes. Callable statements, select keys and any sql run outside an executor go to the primary.
+ *
+ * A session that is in a transaction, i.e. whose connection is not in auto commit, reads from the primary too, so
+ * that what it reads before writing is not stale. Its selects still go to a replica when the connection was set
+ * read only or the statement is {@link org.apache.ibatis.mapping.MappedStatement#isReplicaSafe() replica safe}.
+ *
+ * The replica of a session is picked by {@link Balancing weighted round robin or least outstanding connections}.
+ * A replica that cannot be connected to, or fails with a connection error, is ejected for {@link #getEjectionTime()
+ * ejectionTime} milliseconds. Reads fall back to the primary while all the replicas are ejected.
+ *
+ * @since 3.5.0
+ */
+public class ReadWriteDataSource implements DataSource {
+
+  private static final Log log = LogFactory.getLog(ReadWriteDataSource.class);
+
+  public enum Balancing {
+    /** Replicas take turns in proportion to their weight. */
+    ROUND_ROBIN,
+    /** The replica with the fewest open connections per weight is picked. */
+    LEAST_OUTSTANDING
+  }
+
+  private DataSource primary;
+  private volatile Replica[] replicas = new Replica[0];
+  private volatile int[] schedule = new int[0];
+  private final AtomicLong turn = new AtomicLong();
+  private Balancing balancing = Balancing.ROUND_ROBIN;
+  private long ejectionTime = 30000;
+
+  public ReadWriteDataSource() {
+  }
+
+  public ReadWriteDataSource(DataSource primary) {
+    this.primary = primary;
+  }
+
+  public void setPrimary(DataSource primary) {
+    this.primary = primary;
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public void addReplica(DataSource replica) {
+    addReplica(replica, 1);
+  }
+
+  /**
+   * Adds a replica that gets reads in proportion to its weight.
+   *
+   * @param replica the replica
+   * @param weight a positive weight, relative to the weights of the other replicas
+   */
+  public void addReplica(DataSource replica, int weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("The weight of a replica must be positive, was " + weight);
+    }
+    Replica[] current = replicas;
+    Replica[] extended = new Replica[current.length + 1];
+    System.arraycopy(current, 0, extended, 0, current.length);
+    extended[current.length] = new Replica(replica, weight);
+    schedule = schedule(extended);
+    replicas = extended;
+  }
+
+  public List<DataSource> getReplicas() {
+    List<DataSource> list = new ArrayList<DataSource>();
+    for (Replica replica : replicas) {
+      list.add(replica.dataSource);
+    }
+    return list;
+  }
+
+  public void setBalancing(Balancing balancing) {
+    this.balancing = balancing;
+  }
+
+  public Balancing getBalancing() {
+    return balancing;
+  }
+
+  /**
+   * @param ejectionTime milliseconds a failed replica gets no reads
+   */
+  public void setEjectionTime(long ejectionTime) {
+    this.ejectionTime = ejectionTime;
+  }
+
+  public long getEjectionTime() {
+    return ejectionTime;
+  }
+
+  /**
+   * @return the number of replicas that are currently ejected
+   */
+  public int getEjectedReplicaCount() {
+    int count = 0;
+    long now = System.currentTimeMillis();
+    for (Replica replica : replicas) {
+      if (replica.isEjected(now)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return newConnection(null, null);
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return newConnection(username, password);
+  }
+
+  private Connection newConnection(String username, String password) {
+    if (primary == null) {
+      throw new IllegalStateException("ReadWriteDataSource has no primary DataSource.");
+    }
+    ReadWriteConnection connection = new ReadWriteConnection(this, username, password);
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, connection);
+  }
+
+  Connection openPrimary(String username, String password) throws SQLException {
+    return username == null ? primary.getConnection() : primary.getConnection(username, password);
+  }
+
+  /**
+   * Picks the replica of a session and counts the session as outstanding on it.
+   *
+   * @return the replica, or null when every replica is ejected
+   */
+  Replica reserveReplica() {
+    Replica[] current = replicas;
+    if (current.length == 0) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    Replica replica = balancing == Balancing.LEAST_OUTSTANDING ? leastOutstanding(current, now) : nextInTurn(current, now);
+    if (replica != null) {
+      replica.outstanding.incrementAndGet();
+    }
+    return replica;
+  }
+
+  private Replica nextInTurn(Replica[] current, long now) {
+    int[] order = schedule;
+    for (int i = 0; i < order.length; i++) {
+      Replica replica = current[order[(int) (turn.getAndIncrement() % order.length)]];
+      if (!replica.isEjected(now)) {
+        return replica;
+      }
+    }
+    return null;
+  }
+
+  private Replica leastOutstanding(Replica[] current, long now) {
+    int start = (int) (turn.getAndIncrement() % current.length);
+    Replica best = null;
+    for (int i = 0; i < current.length; i++) {
+      Replica replica = current[(start + i) % current.length];
+      if (replica.isEjected(now)) {
+        continue;
+      }
+      if (best == null || (long) replica.outstanding.get() * best.weight < (long) best.outstanding.get() * replica.weight) {
+        best = replica;
+      }
+    }
+    return best;
+  }
+
+  void eject(Replica replica, SQLException cause) {
+    replica.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+    log.warn("Ejecting replica " + replica.dataSource + " for " + ejectionTime + " ms.  Cause: " + cause);
+  }
+
+  /**
+   * Spreads the turns of each replica over a cycle as long as the sum of the weights, as nginx does in its smooth
+   * weighted round robin, so that a heavy replica does not get all its turns in a row.
+   */
+  private static int[] schedule(Replica[] replicas) {
+    int total = 0;
+    for (Replica replica : replicas) {
+      total += replica.weight;
+    }
+    int[] order = new int[total];
+    int[] current = new int[replicas.length];
+    for (int slot = 0; slot < total; slot++) {
+      int best = 0;
+      for (int i = 0; i < replicas.length; i++) {
+        current[i] += replicas[i].weight;
+        if (current[i] > current[best]) {
+          best = i;
+        }
+      }
+      current[best] -= total;
+      order[slot] = best;
+    }
+    return order;
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    primary.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    primary.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+  static final class Replica {
+
+    final DataSource dataSource;
+    final int weight;
+    final AtomicInteger outstanding = new AtomicInteger();
+    volatile long ejectedUntil;
+
+    Replica(DataSource dataSource, int weight) {
+      this.dataSource = dataSource;
+      this.weight = weight;
+    }
+
+    boolean isEjected(long now) {
+      return ejectedUntil > now;
+    }
+
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+/**
+ * Builds a {@link ReadWriteDataSource} over pooled data sources. Properties starting with <code>primary.</code> go
+ * to the primary pool and properties starting with <code>replica.&lt;name&gt;.</code> to the pool of that replica,
+ * whose <code>weight</code> is read from <code>replica.&lt;name&gt;.weight</code>. <code>balancing</code> and
+ * <code>ejectionTime</code> set the routing, and every other property is shared by all the pools.
+ *
+ * @since 3.5.0
+ */
+public class ReadWriteDataSourceFactory implements DataSourceFactory {
+
+  private static final String PRIMARY_PREFIX = "primary.";
+  private static final String REPLICA_PREFIX = "replica.";
+  private static final String WEIGHT_PROPERTY = "weight";
+  private static final String BALANCING_PROPERTY = "balancing";
+  private static final String EJECTION_TIME_PROPERTY = "ejectionTime";
+
+  private final ReadWriteDataSource dataSource = new ReadWriteDataSource();
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties shared = new Properties();
+    Properties primary = new Properties();
+    Map<String, Properties> replicas = new TreeMap<String, Properties>();
+    for (String name : properties.stringPropertyNames()) {
+      String value = properties.getProperty(name);
+      if (name.startsWith(PRIMARY_PREFIX)) {
+        primary.setProperty(name.substring(PRIMARY_PREFIX.length()), value);
+      } else if (name.startsWith(REPLICA_PREFIX)) {
+        String rest = name.substring(REPLICA_PREFIX.length());
+        int dot = rest.indexOf('.');
+        if (dot <= 0) {
+          throw new DataSourceException("Replica property " + name + " should be named replica.<name>.<property>");
+        }
+        String replica = rest.substring(0, dot);
+        if (!replicas.containsKey(replica)) {
+          replicas.put(replica, new Properties());
+        }
+        replicas.get(replica).setProperty(rest.substring(dot + 1), value);
+      } else if (BALANCING_PROPERTY.equals(name)) {
+        try {
+          dataSource.setBalancing(ReadWriteDataSource.Balancing.valueOf(value.toUpperCase(Locale.ENGLISH)));
+        } catch (IllegalArgumentException e) {
+          throw new DataSourceException("Unknown balancing " + value + ", expected ROUND_ROBIN or LEAST_OUTSTANDING.", e);
+        }
+      } else if (EJECTION_TIME_PROPERTY.equals(name)) {
+        dataSource.setEjectionTime(Long.parseLong(value));
+      } else {
+        shared.setProperty(name, value);
+      }
+    }
+    dataSource.setPrimary(newPool(shared, primary));
+    for (Map.Entry<String, Properties> replica : replicas.entrySet()) {
+      Properties poolProperties = replica.getValue();
+      String weight = (String) poolProperties.remove(WEIGHT_PROPERTY);
+      try {
+        dataSource.addReplica(newPool(shared, poolProperties), weight == null ? 1 : Integer.parseInt(weight));
+      } catch (IllegalArgumentException e) {
+        throw new DataSourceException("Error configuring replica " + replica.getKey() + ".  Cause: " + e, e);
+      }
+    }
+  }
+
+  private DataSource newPool(Properties shared, Properties own) {
+    Properties properties = new Properties();
+    properties.putAll(shared);
+    properties.putAll(own);
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(properties);
+    return factory.getDataSource();
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+}
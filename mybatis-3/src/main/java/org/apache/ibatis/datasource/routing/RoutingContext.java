@@ -0,0 +1,58 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Holds the statement the executor is running on the current thread, so that a {@link ReadWriteDataSource}
+ * connection can tell reads from writes when the statement is prepared.
+ *
+ * @since 3.5.0
+ */
+public final class RoutingContext {
+
+  private static final ThreadLocal<MappedStatement> CURRENT = new ThreadLocal<MappedStatement>();
+
+  private RoutingContext() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * Sets the statement of the current thread.
+   *
+   * @param ms the statement that is about to run, or null when no statement runs
+   * @return the statement that was set before, to be given to {@link #restore(MappedStatement)}
+   */
+  public static MappedStatement set(MappedStatement ms) {
+    MappedStatement previous = CURRENT.get();
+    CURRENT.set(ms);
+    return previous;
+  }
+
+  public static void restore(MappedStatement previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  public static MappedStatement get() {
+    return CURRENT.get();
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -25,6 +25,7 @@ import java.util.Enumeration;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -42,6 +43,7 @@ public class UnpooledDataSource implements DataSource {
   private static Map<String, Driver> registeredDrivers = new ConcurrentHashMap<String, Driver>();
 
   private String driver;
+  private final ReentrantLock driverLock = new ReentrantLock();
   private String url;
   private String username;
   private String password;
@@ -138,8 +140,13 @@ public class UnpooledDataSource implements DataSource {
     return driver;
   }
 
-  public synchronized void setDriver(String driver) {
-    this.driver = driver;
+  public void setDriver(String driver) {
+    driverLock.lock();
+    try {
+      this.driver = driver;
+    } finally {
+      driverLock.unlock();
+    }
   }
 
   public String getUrl() {
@@ -203,7 +210,17 @@ public class UnpooledDataSource implements DataSource {
     return connection;
   }
 
-  private synchronized void initializeDriver() throws SQLException {
+  private void initializeDriver() throws SQLException {
+    // not a monitor, it is locked by every connection opened, also by virtual threads
+    driverLock.lock();
+    try {
+      doInitializeDriver();
+    } finally {
+      driverLock.unlock();
+    }
+  }
+
+  private void doInitializeDriver() throws SQLException {
     if (!registeredDrivers.containsKey(driver)) {
       Class<?> driverType;
       try {
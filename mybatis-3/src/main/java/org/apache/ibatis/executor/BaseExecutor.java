@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -18,6 +18,7 @@ package org.apache.ibatis.executor;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.routing.RoutingContext;
 import org.apache.ibatis.executor.statement.StatementUtil;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -63,8 +64,14 @@ public abstract class BaseExecutor implements Executor {
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-    this.localCache = new PerpetualCache("LocalCache");
-    this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
+    // the closed executor of deserialized lazy loaders has no configuration
+    Integer localCacheSize = configuration == null ? null : configuration.getLocalCacheSize();
+    Long localCacheMaxBytes = configuration == null ? null : configuration.getLocalCacheMaxBytes();
+    LocalCache localCache = new LocalCache("LocalCache", localCacheSize == null ? 0 : localCacheSize,
+        localCacheMaxBytes == null ? 0 : localCacheMaxBytes);
+    this.localCache = localCache;
+    // bounded along with the results they go with
+    this.localOutputParameterCache = localCache.getOutputParameters();
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
@@ -112,7 +119,12 @@ public abstract class BaseExecutor implements Executor {
       throw new ExecutorException("Executor was closed.");
     }
     clearLocalCache();
-    return doUpdate(ms, parameter);
+    MappedStatement previous = RoutingContext.set(ms);
+    try {
+      return doUpdate(ms, parameter);
+    } finally {
+      RoutingContext.restore(previous);
+    }
   }
 
   @Override
@@ -124,7 +136,13 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    return doFlushStatements(isRollBack);
+    // the flushed statements are updates, even when a query flushes them
+    MappedStatement previous = RoutingContext.set(null);
+    try {
+      return doFlushStatements(isRollBack);
+    } finally {
+      RoutingContext.restore(previous);
+    }
   }
 
   @Override
@@ -170,6 +188,8 @@ public abstract class BaseExecutor implements Executor {
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         // issue #482
         clearLocalCache();
+      } else if (localCache instanceof LocalCache) {
+        ((LocalCache) localCache).evictEntries();
       }
     }
     return list;
@@ -178,7 +198,12 @@ public abstract class BaseExecutor implements Executor {
   @Override
   public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
     BoundSql boundSql = ms.getBoundSql(parameter);
-    return doQueryCursor(ms, parameter, rowBounds, boundSql);
+    MappedStatement previous = RoutingContext.set(ms);
+    try {
+      return doQueryCursor(ms, parameter, rowBounds, boundSql);
+    } finally {
+      RoutingContext.restore(previous);
+    }
   }
 
   @Override
@@ -206,6 +231,7 @@ public abstract class BaseExecutor implements Executor {
     cacheKey.update(boundSql.getSql()); // SQL语句
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+    MetaObject metaObject = null;
     // 所有参数值
     for (ParameterMapping parameterMapping : parameterMappings) {
       if (parameterMapping.getMode() != ParameterMode.OUT) {
@@ -218,7 +244,9 @@ public abstract class BaseExecutor implements Executor {
         } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
           value = parameterObject;
         } else {
-          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          if (metaObject == null) {
+            metaObject = configuration.newMetaObject(parameterObject);
+          }
           value = metaObject.getValue(propertyName);
         }
         cacheKey.update(value);
@@ -325,14 +353,19 @@ public abstract class BaseExecutor implements Executor {
   private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
     List<E> list;
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
+    MappedStatement previous = RoutingContext.set(ms);
     try {
       // 调用doQuery（）方法查询
       list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
     } finally {
+      RoutingContext.restore(previous);
       localCache.removeObject(key);
     }
     // 缓存查询结果
     localCache.putObject(key, list);
+    if (!ms.isUseLocalCache() && localCache instanceof LocalCache) {
+      ((LocalCache) localCache).dropLater(key);
+    }
     if (ms.getStatementType() == StatementType.CALLABLE) {
       localOutputParameterCache.putObject(key, parameter);
     }
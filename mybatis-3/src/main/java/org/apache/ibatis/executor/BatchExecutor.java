@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.executor;
 
+import org.apache.ibatis.cache.decorators.ObjectSizeEstimator;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -33,9 +34,25 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Sends the updates to the database in JDBC batches, one per statement and sql, when the statements are flushed.
+ *
+ * The pending batches are executed before they are flushed once one of them holds
+ * {@link Configuration#getBatchMaxSize() batchMaxSize} rows or the parameters of all of them are estimated to take
+ * {@link Configuration#getBatchMaxBytes() batchMaxBytes}. The results of those batches are not returned by
+ * {@link #flushStatements()}, so that their parameters can be garbage collected.
+ *
+ * Consecutive updates with the same statement and sql go to the same batch. With
+ * {@link Configuration#isBatchReorderStatements() batchReorderStatements} an update joins the batch of its statement
+ * and sql even if other updates came in between, so the batches are executed in the order their first update came.
+ *
+ * With {@link Configuration#isBatchRewriteInserts() batchRewriteInserts} the batches of single row inserts are sent
+ * as multi row inserts, see {@link MultiRowInsert}.
+ *
  * @author Jeff Butler 
  */
 public class BatchExecutor extends BaseExecutor {
@@ -44,8 +61,11 @@ public class BatchExecutor extends BaseExecutor {
 
   private final List<Statement> statementList = new ArrayList<Statement>();
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
+  private final List<MultiRowInsert> multiRowInsertList = new ArrayList<MultiRowInsert>();
+  private final Map<String, Integer> statementIndexes = new HashMap<String, Integer>();
   private String currentSql;
   private MappedStatement currentStatement;
+  private long pendingBytes;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
@@ -57,28 +77,78 @@ public class BatchExecutor extends BaseExecutor {
     final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
-    final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      applyTransactionTimeout(stmt);
-      handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
+    Statement stmt = null;
+    final BatchResult batchResult;
+    final MultiRowInsert multiRowInsert;
+    int index = indexOf(ms, sql);
+    if (index >= 0) {
+      stmt = statementList.get(index);
+      multiRowInsert = multiRowInsertList.get(index);
+      if (multiRowInsert == null) {
+        applyTransactionTimeout(stmt);
+        handler.parameterize(stmt);//fix Issues 322
+      }
+      batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection, transaction.getTimeout());
-      handler.parameterize(stmt);    //fix Issues 322
-      currentSql = sql;
-      currentStatement = ms;
+      multiRowInsert = configuration.isBatchRewriteInserts()
+          ? MultiRowInsert.of(ms, boundSql, configuration.getBatchRewriteRows(), configuration.getBatchRewriteMaxParameters())
+          : null;
+      if (multiRowInsert == null) {
+        Connection connection = getConnection(ms.getStatementLog());
+        stmt = handler.prepare(connection, transaction.getTimeout());
+        handler.parameterize(stmt);    //fix Issues 322
+      }
+      batchResult = new BatchResult(ms, sql, parameterObject);
+      if (configuration.isBatchReorderStatements()) {
+        statementIndexes.put(ms.getId() + '\n' + sql, statementList.size());
+      }
       statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      multiRowInsertList.add(multiRowInsert);
+      batchResultList.add(batchResult);
     }
+    currentSql = sql;
+    currentStatement = ms;
   // handler.parameterize(stmt);
-    handler.batch(stmt);
+    if (multiRowInsert != null) {
+      // parameterized when the rows are inserted
+      multiRowInsert.addRow(handler, parameterObject);
+    } else {
+      handler.batch(stmt);
+    }
+    if (isFull(batchResult, parameterObject)) {
+      configuration.getBatchStatistics().recordAutoFlush();
+      doFlushStatements(false);
+    }
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  private int indexOf(MappedStatement ms, String sql) {
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      return statementList.size() - 1;
+    }
+    if (configuration.isBatchReorderStatements()) {
+      Integer index = statementIndexes.get(ms.getId() + '\n' + sql);
+      if (index != null) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isFull(BatchResult batchResult, Object parameterObject) {
+    Integer maxSize = configuration.getBatchMaxSize();
+    if (maxSize != null && batchResult.getParameterObjects().size() >= maxSize) {
+      return true;
+    }
+    Long maxBytes = configuration.getBatchMaxBytes();
+    if (maxBytes != null) {
+      pendingBytes += ObjectSizeEstimator.estimate(parameterObject);
+      return pendingBytes >= maxBytes;
+    }
+    return false;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -116,10 +186,24 @@ public class BatchExecutor extends BaseExecutor {
       }
       for (int i = 0, n = statementList.size(); i < n; i++) {
         Statement stmt = statementList.get(i);
-        applyTransactionTimeout(stmt);
         BatchResult batchResult = batchResultList.get(i);
+        MultiRowInsert multiRowInsert = multiRowInsertList.get(i);
+        if (multiRowInsert != null) {
+          try {
+            Connection connection = getConnection(batchResult.getMappedStatement().getStatementLog());
+            batchResult.setUpdateCounts(multiRowInsert.execute(connection, transaction.getTimeout()));
+            configuration.getBatchStatistics().recordBatch(batchResult.getParameterObjects().size());
+          } catch (SQLException e) {
+            BatchUpdateException cause = new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), new int[0], e);
+            throw new BatchExecutorException(failureMessage(batchResult, i), cause, results, batchResult);
+          }
+          results.add(batchResult);
+          continue;
+        }
+        applyTransactionTimeout(stmt);
         try {
           batchResult.setUpdateCounts(stmt.executeBatch());
+          configuration.getBatchStatistics().recordBatch(batchResult.getParameterObjects().size());
           MappedStatement ms = batchResult.getMappedStatement();
           List<Object> parameterObjects = batchResult.getParameterObjects();
           KeyGenerator keyGenerator = ms.getKeyGenerator();
@@ -134,18 +218,7 @@ public class BatchExecutor extends BaseExecutor {
           // Close statement to close cursor #1109
           closeStatement(stmt);
         } catch (BatchUpdateException e) {
-          StringBuilder message = new StringBuilder();
-          message.append(batchResult.getMappedStatement().getId())
-              .append(" (batch index #")
-              .append(i + 1)
-              .append(")")
-              .append(" failed.");
-          if (i > 0) {
-            message.append(" ")
-                .append(i)
-                .append(" prior sub executor(s) completed successfully, but will be rolled back.");
-          }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
+          throw new BatchExecutorException(failureMessage(batchResult, i), e, results, batchResult);
         }
         results.add(batchResult);
       }
@@ -155,9 +228,28 @@ public class BatchExecutor extends BaseExecutor {
         closeStatement(stmt);
       }
       currentSql = null;
+      currentStatement = null;
+      pendingBytes = 0;
       statementList.clear();
+      multiRowInsertList.clear();
       batchResultList.clear();
+      statementIndexes.clear();
+    }
+  }
+
+  private String failureMessage(BatchResult batchResult, int i) {
+    StringBuilder message = new StringBuilder();
+    message.append(batchResult.getMappedStatement().getId())
+        .append(" (batch index #")
+        .append(i + 1)
+        .append(")")
+        .append(" failed.");
+    if (i > 0) {
+      message.append(" ")
+          .append(i)
+          .append(" prior sub executor(s) completed successfully, but will be rolled back.");
     }
+    return message.toString();
   }
 
 }
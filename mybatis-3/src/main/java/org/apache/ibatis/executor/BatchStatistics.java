@@ -0,0 +1,90 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the JDBC batches executed by the {@link BatchExecutor}s of a
+ * {@link org.apache.ibatis.session.Configuration}.
+ *
+ * @since 3.5.0
+ */
+public class BatchStatistics {
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder autoFlushes = new LongAdder();
+  private final AtomicLong maxRows = new AtomicLong();
+
+  void recordBatch(int batchRows) {
+    batches.increment();
+    rows.add(batchRows);
+    long max = maxRows.get();
+    while (batchRows > max && !maxRows.compareAndSet(max, batchRows)) {
+      max = maxRows.get();
+    }
+  }
+
+  void recordAutoFlush() {
+    autoFlushes.increment();
+  }
+
+  /**
+   * @return number of statements whose batch was executed
+   */
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  /**
+   * @return number of rows, that is parameter objects, sent in batches
+   */
+  public long getRowCount() {
+    return rows.sum();
+  }
+
+  public long getMaxRowsPerBatch() {
+    return maxRows.get();
+  }
+
+  public double getAverageRowsPerBatch() {
+    long count = batches.sum();
+    return count == 0 ? 0 : (double) rows.sum() / count;
+  }
+
+  /**
+   * @return number of times the pending batches were executed because they reached batchMaxSize or batchMaxBytes
+   */
+  public long getAutoFlushCount() {
+    return autoFlushes.sum();
+  }
+
+  public void reset() {
+    batches.reset();
+    rows.reset();
+    autoFlushes.reset();
+    maxRows.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchStatistics[batches=" + getBatchCount() + ", rows=" + getRowCount() + ", maxRowsPerBatch="
+        + getMaxRowsPerBatch() + ", autoFlushes=" + getAutoFlushCount() + "]";
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -16,17 +16,29 @@
 package org.apache.ibatis.executor;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.CacheWriteBehind;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.decorators.SingleFlightCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.*;
+import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
@@ -35,10 +47,19 @@ import java.util.List;
 public class CachingExecutor implements Executor {
 
   private final Executor delegate;
-  private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private final TransactionalCacheManager tcm;
+  // keys whose flight this session leads, a nested query for one of them must not wait for itself
+  private final Set<CacheKey> leadingKeys = new HashSet<CacheKey>();
+  // writes not committed yet, a result read through them must not be handed to other sessions
+  private boolean dirty;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  public CachingExecutor(Executor delegate, CacheWriteBehind writeBehind) {
     this.delegate = delegate;
+    this.tcm = new TransactionalCacheManager(writeBehind);
     delegate.setExecutorWrapper(this);
   }
 
@@ -69,7 +90,8 @@ public class CachingExecutor implements Executor {
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
     // 如果需要刷新，则更新缓存
-    flushCacheIfRequired(ms);
+    invalidateCacheIfRequired(ms, parameterObject);
+    dirty = true;
     return delegate.update(ms, parameterObject);
   }
 
@@ -97,14 +119,19 @@ public class CachingExecutor implements Executor {
       flushCacheIfRequired(ms);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, boundSql);
+        if (cache instanceof TableInvalidatingCache) {
+          return trackedQuery((TableInvalidatingCache) cache, ms, parameterObject, rowBounds, key, boundSql);
+        }
         // 从MappedStatement对象对应的二级缓存中获取数据
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {
           // 如果缓存数据不存在，则从数据库中查询数据
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          list = queryMissed(cache, cache, ms, parameterObject, rowBounds, key, boundSql);
           // 將数据存放到MappedStatement对象对应的二级缓存中
           tcm.putObject(cache, key, list); // issue #578 and #116
+        } else {
+          refreshIfDue(cache, ms, parameterObject, rowBounds, key, boundSql);
         }
         return list;
       }
@@ -120,6 +147,7 @@ public class CachingExecutor implements Executor {
   @Override
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
+    dirty = false;
     tcm.commit();
   }
 
@@ -127,6 +155,7 @@ public class CachingExecutor implements Executor {
   public void rollback(boolean required) throws SQLException {
     try {
       delegate.rollback(required);
+      dirty = false;
     } finally {
       if (required) {
         tcm.rollback();
@@ -134,6 +163,118 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  private <E> List<E> trackedQuery(TableInvalidatingCache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    Set<String> tables = ms.getTables(boundSql);
+    if (tables.isEmpty() || tcm.isInvalidated(tables)) {
+      // nothing to track the entry with, or it would hold changes this session has not committed yet
+      return delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+    }
+    // taken before the query so that a write committed meanwhile makes the entry stale
+    long version = cache.getVersion(tables);
+    @SuppressWarnings("unchecked")
+    List<E> list = (List<E>) tcm.getObject(cache, key);
+    if (list == null) {
+      list = queryMissed(cache, cache.getDelegate(), ms, parameterObject, rowBounds, key, boundSql);
+      tcm.putObject(cache, key, cache.track(list, tables, version));
+    } else {
+      refreshIfDue(cache, ms, parameterObject, rowBounds, key, boundSql);
+    }
+    return list;
+  }
+
+  private <E> List<E> queryMissed(Cache cache, Cache decorator, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    CacheStatistics statistics = ms.getConfiguration().getCacheMetrics().getStatistics(cache.getId());
+    long start = statistics == null ? 0 : System.nanoTime();
+    if (decorator instanceof RefreshAheadCache) {
+      decorator = ((RefreshAheadCache) decorator).getDelegate();
+    }
+    List<E> list;
+    if (decorator instanceof SingleFlightCache && !dirty && !tcm.isClearOnCommit(cache)) {
+      list = coalescedQuery((SingleFlightCache) decorator, ms, parameterObject, rowBounds, key, boundSql);
+    } else {
+      list = delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+    }
+    if (statistics != null) {
+      statistics.recordLoad(System.nanoTime() - start);
+    }
+    return list;
+  }
+
+  private void refreshIfDue(final Cache cache, final MappedStatement ms, final Object parameterObject, final RowBounds rowBounds,
+      final CacheKey key, final BoundSql boundSql) {
+    Cache decorator = cache instanceof TableInvalidatingCache ? ((TableInvalidatingCache) cache).getDelegate() : cache;
+    if (decorator instanceof RefreshAheadCache && ms.getConfiguration().getEnvironment() != null) {
+      ((RefreshAheadCache) decorator).refresh(key, new Runnable() {
+        @Override
+        public void run() {
+          reload(cache, ms, parameterObject, rowBounds, key, boundSql);
+        }
+      });
+    }
+  }
+
+  /**
+   * Runs the query again in a transaction of its own, the session that read the stale entry may be long gone,
+   * and puts the result straight into the cache as it holds only committed data.
+   */
+  private static void reload(Cache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+    Configuration configuration = ms.getConfiguration();
+    Environment environment = configuration.getEnvironment();
+    Transaction transaction = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+    Executor executor = new SimpleExecutor(configuration, transaction);
+    // the executor plugins must shape the result as they did the cached one
+    for (Interceptor interceptor : configuration.getInterceptors()) {
+      executor = (Executor) interceptor.plugin(executor);
+    }
+    try {
+      if (cache instanceof TableInvalidatingCache) {
+        TableInvalidatingCache tracking = (TableInvalidatingCache) cache;
+        Set<String> tables = ms.getTables(boundSql);
+        long version = tracking.getVersion(tables);
+        List<Object> list = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+        cache.putObject(key, tracking.track(list, tables, version));
+      } else {
+        cache.putObject(key, executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql));
+      }
+    } catch (SQLException e) {
+      throw new CacheException("Error refreshing the entry " + key + " of the cache " + cache.getId() + ".  Cause: " + e, e);
+    } finally {
+      executor.close(false);
+    }
+  }
+
+  private <E> List<E> coalescedQuery(SingleFlightCache cache, MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    if (leadingKeys.contains(key)) {
+      return delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+    }
+    SingleFlightCache.Flight flight = cache.join(key);
+    if (flight.isLeader()) {
+      boolean completed = false;
+      leadingKeys.add(key);
+      try {
+        List<E> list = delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+        flight.complete(list);
+        completed = true;
+        return list;
+      } finally {
+        leadingKeys.remove(key);
+        if (!completed) {
+          flight.cancel();
+        }
+      }
+    }
+    if (flight.await()) {
+      @SuppressWarnings("unchecked")
+      List<E> list = (List<E>) flight.getResult();
+      return list;
+    }
+    // the leader failed or is too slow, go on our own
+    return delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+  }
+
   private void ensureNoOutParams(MappedStatement ms, BoundSql boundSql) {
     if (ms.getStatementType() == StatementType.CALLABLE) {
       for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
@@ -171,6 +312,22 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  private void invalidateCacheIfRequired(MappedStatement ms, Object parameterObject) {
+    if (!ms.isFlushCacheRequired()) {
+      return;
+    }
+    TableVersions versions = ms.getConfiguration().getTableVersions();
+    Set<String> tables = Collections.emptySet();
+    if (versions.isTracked()) {
+      tables = ms.getTablesForParameter(parameterObject);
+      tcm.invalidate(versions, tables);
+    }
+    Cache cache = ms.getCache();
+    if (cache != null && (tables.isEmpty() || !(cache instanceof TableInvalidatingCache))) {
+      tcm.clear(cache);
+    }
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
@@ -0,0 +1,171 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.ObjectSizeEstimator;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+
+/**
+ * First level cache of a session, optionally bounded by its number of entries and by their estimated bytes.
+ *
+ * Entries are kept in access order but are never evicted while a query is in progress, as nested queries and
+ * deferred loads need the entries of the outer query. The {@link BaseExecutor} calls {@link #evictEntries()} once
+ * the top level query is done, which then drops the least recently used entries and those of the statements
+ * that opted out of the local cache.
+ *
+ * The output parameters of callable statements are kept in {@link #getOutputParameters()}, under the key of the
+ * result they go with. They count in the bytes of this cache and are dropped along with their result.
+ */
+class LocalCache extends PerpetualCache {
+
+  private final Map<Object, Object> cache = new LinkedHashMap<Object, Object>(16, .75F, true);
+  private final Map<Object, Long> weights = new HashMap<Object, Long>();
+  private final OutputParameters outputParameters;
+  private final List<Object> uncachedKeys = new ArrayList<Object>();
+  private final int maxSize;
+  private final long maxBytes;
+  private long bytes;
+
+  /**
+   * @param maxSize maximum number of entries, zero or less means unbounded
+   * @param maxBytes maximum estimated bytes of the entries, zero or less means unbounded
+   */
+  LocalCache(String id, int maxSize, long maxBytes) {
+    super(id);
+    this.maxSize = maxSize;
+    this.maxBytes = maxBytes;
+    this.outputParameters = new OutputParameters(id + "OutputParameters");
+  }
+
+  PerpetualCache getOutputParameters() {
+    return outputParameters;
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    cache.put(key, value);
+    if (maxBytes > 0) {
+      long weight = value == EXECUTION_PLACEHOLDER ? 0 : ObjectSizeEstimator.estimate(value);
+      Long previous = weights.put(key, weight);
+      bytes += weight - (previous == null ? 0 : previous);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return cache.get(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    release(key);
+    outputParameters.removeObject(key);
+    return cache.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    cache.clear();
+    weights.clear();
+    outputParameters.clear();
+    uncachedKeys.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Makes the entry go away at the next {@link #evictEntries()}, the query that put it is not to be cached.
+   */
+  void dropLater(Object key) {
+    uncachedKeys.add(key);
+  }
+
+  void evictEntries() {
+    for (Object key : uncachedKeys) {
+      removeObject(key);
+    }
+    uncachedKeys.clear();
+    Iterator<Map.Entry<Object, Object>> eldest = cache.entrySet().iterator();
+    while (isOverLimit() && eldest.hasNext()) {
+      Object key = eldest.next().getKey();
+      eldest.remove();
+      release(key);
+      outputParameters.removeObject(key);
+    }
+  }
+
+  private boolean isOverLimit() {
+    return (maxSize > 0 && cache.size() > maxSize) || (maxBytes > 0 && bytes > maxBytes);
+  }
+
+  private void release(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      bytes -= weight;
+    }
+  }
+
+  private class OutputParameters extends PerpetualCache {
+
+    private final Map<Object, Long> outputWeights = new HashMap<Object, Long>();
+
+    OutputParameters(String id) {
+      super(id);
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      super.putObject(key, value);
+      if (maxBytes > 0) {
+        long weight = ObjectSizeEstimator.estimate(value);
+        Long previous = outputWeights.put(key, weight);
+        bytes += weight - (previous == null ? 0 : previous);
+      }
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      Long weight = outputWeights.remove(key);
+      if (weight != null) {
+        bytes -= weight;
+      }
+      return super.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+      for (Long weight : outputWeights.values()) {
+        bytes -= weight;
+      }
+      outputWeights.clear();
+      super.clear();
+    }
+  }
+
+}
@@ -0,0 +1,281 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.executor.statement.StatementUtil;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * The rows of a batch of single row inserts, sent as multi row <code>INSERT ... VALUES (...), (...)</code> statements
+ * instead of one JDBC batch entry per row.
+ *
+ * Each row is still parameterized by its own {@link StatementHandler}, on a view of the statement whose parameter
+ * indexes are shifted to the values of the row.
+ */
+final class MultiRowInsert {
+
+  private final MappedStatement mappedStatement;
+  private final String head;
+  private final String values;
+  private final int parametersPerRow;
+  private final int rowsPerStatement;
+  private final List<StatementHandler> rows = new ArrayList<StatementHandler>();
+  private final List<Object> parameterObjects = new ArrayList<Object>();
+
+  private MultiRowInsert(MappedStatement mappedStatement, String head, String values, int parametersPerRow, int rowsPerStatement) {
+    this.mappedStatement = mappedStatement;
+    this.head = head;
+    this.values = values;
+    this.parametersPerRow = parametersPerRow;
+    this.rowsPerStatement = rowsPerStatement;
+  }
+
+  /**
+   * @return the multi row insert of the statement, or null if its sql cannot be rewritten
+   */
+  static MultiRowInsert of(MappedStatement ms, BoundSql boundSql, int maxRows, int maxParameters) {
+    if (ms.getSqlCommandType() != SqlCommandType.INSERT || ms.getStatementType() != StatementType.PREPARED) {
+      return null;
+    }
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (!NoKeyGenerator.class.equals(keyGenerator.getClass()) && !Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+      return null;
+    }
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    for (ParameterMapping parameterMapping : parameterMappings) {
+      if (parameterMapping.getMode() != ParameterMode.IN) {
+        return null;
+      }
+    }
+    int parametersPerRow = parameterMappings.size();
+    int rowsPerStatement = parametersPerRow == 0 ? maxRows : Math.min(maxRows, maxParameters / parametersPerRow);
+    if (rowsPerStatement < 2) {
+      return null;
+    }
+    String sql = boundSql.getSql();
+    int valuesStart = valuesStart(sql);
+    if (valuesStart < 0) {
+      return null;
+    }
+    String values = sql.substring(valuesStart, closingParenthesis(sql, valuesStart) + 1);
+    if (countPlaceholders(values) != parametersPerRow) {
+      return null;
+    }
+    return new MultiRowInsert(ms, sql.substring(0, valuesStart), values, parametersPerRow, rowsPerStatement);
+  }
+
+  /**
+   * @return index of the single parenthesized group that follows VALUES and ends the sql, -1 if there is none
+   */
+  static int valuesStart(String sql) {
+    int depth = 0;
+    int valuesEnd = -1;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i = sql.indexOf(c, i + 1);
+        if (i < 0) {
+          return -1;
+        }
+      } else if (c == '(') {
+        if (depth == 0 && valuesEnd >= 0) {
+          if (sql.substring(valuesEnd, i).trim().length() > 0) {
+            return -1;
+          }
+          int end = closingParenthesis(sql, i);
+          if (end < 0 || sql.substring(end + 1).replace(';', ' ').trim().length() > 0) {
+            return -1;
+          }
+          return i;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (depth == 0 && valuesEnd < 0 && isKeyword(sql, i, "values")) {
+        valuesEnd = i + "values".length();
+        i = valuesEnd - 1;
+      }
+    }
+    return -1;
+  }
+
+  private static int closingParenthesis(String sql, int open) {
+    int depth = 0;
+    for (int i = open; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i = sql.indexOf(c, i + 1);
+        if (i < 0) {
+          return -1;
+        }
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int countPlaceholders(String sql) {
+    int count = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i = sql.indexOf(c, i + 1);
+      } else if (c == '?') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean isKeyword(String sql, int index, String keyword) {
+    int end = index + keyword.length();
+    return sql.regionMatches(true, index, keyword, 0, keyword.length())
+        && (index == 0 || !Character.isJavaIdentifierPart(sql.charAt(index - 1)))
+        && (end == sql.length() || !Character.isJavaIdentifierPart(sql.charAt(end)));
+  }
+
+  void addRow(StatementHandler handler, Object parameterObject) {
+    rows.add(handler);
+    parameterObjects.add(parameterObject);
+  }
+
+  /**
+   * Inserts the rows, at most rowsPerStatement at a time, and sets their generated keys.
+   *
+   * @return an update count per row, one if the statements inserted all their rows, {@link Statement#SUCCESS_NO_INFO} if not
+   */
+  int[] execute(Connection connection, Integer transactionTimeout) throws SQLException {
+    int[] updateCounts = new int[rows.size()];
+    PreparedStatement stmt = null;
+    int preparedRows = 0;
+    try {
+      for (int start = 0; start < rows.size(); start += rowsPerStatement) {
+        int count = Math.min(rowsPerStatement, rows.size() - start);
+        if (count != preparedRows) {
+          closeStatement(stmt);
+          stmt = null;
+          stmt = prepare(connection, count, transactionTimeout);
+          preparedRows = count;
+        }
+        for (int row = 0; row < count; row++) {
+          rows.get(start + row).parameterize(shifted(stmt, row * parametersPerRow));
+        }
+        int inserted = stmt.executeUpdate();
+        Arrays.fill(updateCounts, start, start + count, inserted == count ? 1 : Statement.SUCCESS_NO_INFO);
+        if (Jdbc3KeyGenerator.class.equals(mappedStatement.getKeyGenerator().getClass())) {
+          ((Jdbc3KeyGenerator) mappedStatement.getKeyGenerator()).processBatch(mappedStatement, stmt, parameterObjects.subList(start, start + count));
+        }
+      }
+    } finally {
+      closeStatement(stmt);
+    }
+    return updateCounts;
+  }
+
+  String getSql(int count) {
+    StringBuilder sql = new StringBuilder(head.length() + count * (values.length() + 2));
+    sql.append(head).append(values);
+    for (int i = 1; i < count; i++) {
+      sql.append(", ").append(values);
+    }
+    return sql.toString();
+  }
+
+  private PreparedStatement prepare(Connection connection, int count, Integer transactionTimeout) throws SQLException {
+    String sql = getSql(count);
+    PreparedStatement stmt;
+    if (Jdbc3KeyGenerator.class.equals(mappedStatement.getKeyGenerator().getClass())) {
+      String[] keyColumnNames = mappedStatement.getKeyColumns();
+      if (keyColumnNames == null) {
+        stmt = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+      } else {
+        stmt = connection.prepareStatement(sql, keyColumnNames);
+      }
+    } else {
+      stmt = connection.prepareStatement(sql);
+    }
+    try {
+      Integer queryTimeout = mappedStatement.getTimeout();
+      if (queryTimeout == null) {
+        queryTimeout = mappedStatement.getConfiguration().getDefaultStatementTimeout();
+      }
+      if (queryTimeout != null) {
+        stmt.setQueryTimeout(queryTimeout);
+      }
+      StatementUtil.applyTransactionTimeout(stmt, queryTimeout, transactionTimeout);
+    } catch (SQLException e) {
+      closeStatement(stmt);
+      throw e;
+    }
+    return stmt;
+  }
+
+  private static void closeStatement(Statement stmt) {
+    if (stmt != null) {
+      try {
+        stmt.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+  private static PreparedStatement shifted(final PreparedStatement stmt, final int offset) {
+    if (offset == 0) {
+      return stmt;
+    }
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (args != null && args.length > 1 && method.getName().startsWith("set")
+                && PreparedStatement.class.equals(method.getDeclaringClass()) && args[0] instanceof Integer) {
+              args[0] = (Integer) args[0] + offset;
+            }
+            try {
+              return method.invoke(stmt, args);
+            } catch (Throwable t) {
+              throw ExceptionUtil.unwrapThrowable(t);
+            }
+          }
+        });
+  }
+
+}
@@ -0,0 +1,420 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.decorators.ObjectSizeEstimator;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.jdbc.ConnectionLogger;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ * Batch executor for bulk loads that need not be transactional.
+ *
+ * Updates are grouped in batches as the {@link BatchExecutor} does, but nothing is sent until they are flushed.
+ * The rows of each batch are then split in {@link Configuration#getBatchParallelism() batchParallelism} slices,
+ * each executed and committed on its own connection of the data source of the environment, concurrently,
+ * whatever its transaction factory. The slices are bounded by the maximum active connections of a
+ * {@link PooledDataSource} minus the one of the session, but the connections held by other sessions are not
+ * accounted for, so the pool should be sized for the sessions flushing at the same time. The batches themselves are
+ * flushed one after the other, on the threads of the {@link Configuration#getBatchFlushExecutor() batchFlushExecutor}
+ * shared by all the sessions. The rows flushed this way are committed even if the session is rolled back
+ * afterwards, and when a slice fails the other slices of its batch stay committed.
+ *
+ * When the thread flushing is interrupted, the slices that have not started are cancelled and the others are
+ * interrupted and awaited before an {@link ExecutorException} is thrown.
+ *
+ * Batches whose statement has a key generator other than the JDBC one are executed on the connection of the session,
+ * as the {@link BatchExecutor} would.
+ *
+ * @since 3.5.0
+ */
+public class ParallelBatchExecutor extends BaseExecutor {
+
+  private final List<Batch> batchList = new ArrayList<Batch>();
+  private final Map<String, Batch> batches = new HashMap<String, Batch>();
+  private Batch currentBatch;
+  private long pendingBytes;
+
+  public ParallelBatchExecutor(Configuration configuration, Transaction transaction) {
+    super(configuration, transaction);
+  }
+
+  @Override
+  public int doUpdate(MappedStatement ms, Object parameterObject) throws SQLException {
+    final Configuration configuration = ms.getConfiguration();
+    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
+    final String sql = handler.getBoundSql().getSql();
+    Batch batch = currentBatch;
+    if (batch == null || !batch.matches(ms, sql)) {
+      batch = configuration.isBatchReorderStatements() ? batches.get(ms.getId() + '\n' + sql) : null;
+      if (batch == null) {
+        batch = new Batch(ms, sql);
+        batches.put(ms.getId() + '\n' + sql, batch);
+        batchList.add(batch);
+      }
+      currentBatch = batch;
+    }
+    batch.add(handler, parameterObject);
+    if (isFull(batch, parameterObject)) {
+      configuration.getBatchStatistics().recordAutoFlush();
+      doFlushStatements(false);
+    }
+    return BatchExecutor.BATCH_UPDATE_RETURN_VALUE;
+  }
+
+  private boolean isFull(Batch batch, Object parameterObject) {
+    Integer maxSize = configuration.getBatchMaxSize();
+    if (maxSize != null && batch.rows.size() >= maxSize) {
+      return true;
+    }
+    Long maxBytes = configuration.getBatchMaxBytes();
+    if (maxBytes != null) {
+      pendingBytes += ObjectSizeEstimator.estimate(parameterObject);
+      return pendingBytes >= maxBytes;
+    }
+    return false;
+  }
+
+  @Override
+  public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
+      throws SQLException {
+    Statement stmt = null;
+    try {
+      flushStatements();
+      Configuration configuration = ms.getConfiguration();
+      StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameterObject, rowBounds, resultHandler, boundSql);
+      Connection connection = getConnection(ms.getStatementLog());
+      stmt = handler.prepare(connection, transaction.getTimeout());
+      handler.parameterize(stmt);
+      return handler.<E>query(stmt, resultHandler);
+    } finally {
+      closeStatement(stmt);
+    }
+  }
+
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    Statement stmt = handler.prepare(connection, transaction.getTimeout());
+    handler.parameterize(stmt);
+    return handler.<E>queryCursor(stmt);
+  }
+
+  @Override
+  public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+    try {
+      List<BatchResult> results = new ArrayList<BatchResult>();
+      if (isRollback) {
+        return Collections.emptyList();
+      }
+      for (int i = 0, n = batchList.size(); i < n; i++) {
+        Batch batch = batchList.get(i);
+        if (isParallel(batch.mappedStatement)) {
+          flushInParallel(batch, i, results);
+        } else {
+          Connection connection = getConnection(batch.mappedStatement.getStatementLog());
+          try {
+            batch.result.setUpdateCounts(execute(batch.mappedStatement, batch.rows, batch.result.getParameterObjects(), connection));
+          } catch (BatchUpdateException e) {
+            throw new BatchExecutorException(failureMessage(batch, i, null), e, results, batch.result);
+          }
+          KeyGenerator keyGenerator = batch.mappedStatement.getKeyGenerator();
+          for (Object parameter : batch.result.getParameterObjects()) {
+            keyGenerator.processAfter(this, batch.mappedStatement, null, parameter);
+          }
+        }
+        results.add(batch.result);
+      }
+      return results;
+    } finally {
+      currentBatch = null;
+      pendingBytes = 0;
+      batchList.clear();
+      batches.clear();
+    }
+  }
+
+  private void flushInParallel(Batch batch, int index, List<BatchResult> results) throws SQLException {
+    int rows = batch.rows.size();
+    int parallelism = getParallelism();
+    int sliceSize = (rows + parallelism - 1) / parallelism;
+    ExecutorService flushers = configuration.getBatchFlushExecutor();
+    List<Slice> slices = new ArrayList<Slice>();
+    for (int start = 0; start < rows; start += sliceSize) {
+      Slice slice = new Slice(batch, start, Math.min(rows, start + sliceSize));
+      slice.future = flushers.submit(slice);
+      slices.add(slice);
+    }
+    int[] updateCounts = new int[rows];
+    int failed = 0;
+    Throwable failure = null;
+    for (int i = 0; i < slices.size(); i++) {
+      Slice slice = slices.get(i);
+      try {
+        System.arraycopy(getResult(slice.future, slices), 0, updateCounts, slice.start, slice.end - slice.start);
+      } catch (ExecutionException e) {
+        Arrays.fill(updateCounts, slice.start, slice.end, Statement.EXECUTE_FAILED);
+        failed++;
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    batch.result.setUpdateCounts(updateCounts);
+    if (failure != null) {
+      String message = failureMessage(batch, index, failed + " of " + slices.size() + " slices failed, the other slices were committed.");
+      BatchUpdateException cause = failure instanceof SQLException
+          ? new BatchUpdateException(failure.getMessage(), ((SQLException) failure).getSQLState(), ((SQLException) failure).getErrorCode(), updateCounts, failure)
+          : new BatchUpdateException(failure.getMessage(), null, 0, updateCounts, failure);
+      throw new BatchExecutorException(message, cause, results, batch.result);
+    }
+  }
+
+  private int[] getResult(Future<int[]> future, List<Slice> slices) throws ExecutionException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      cancel(slices);
+      Thread.currentThread().interrupt();
+      throw new ExecutorException("Interrupted while flushing the batch statements, the slices already executed were committed.", e);
+    }
+  }
+
+  /**
+   * Cancels the slices that have not started and waits for the others, so that no slice still
+   * runs once the flush has failed.
+   */
+  private void cancel(List<Slice> slices) {
+    for (Slice slice : slices) {
+      if (!slice.state.compareAndSet(Slice.NEW, Slice.CANCELLED)) {
+        // interrupts the slice if it is still executing, it then rolls back
+        slice.future.cancel(true);
+      }
+    }
+    for (Slice slice : slices) {
+      if (slice.state.get() != Slice.CANCELLED) {
+        slice.awaitUninterruptibly();
+      }
+    }
+  }
+
+  /**
+   * Bounds the number of slices by the connections a {@link PooledDataSource} can hand out besides the one of the
+   * session, so that a flush never waits for a connection held by itself.
+   */
+  private int getParallelism() {
+    int parallelism = Math.max(1, configuration.getBatchParallelism());
+    DataSource dataSource = configuration.getEnvironment().getDataSource();
+    if (dataSource instanceof PooledDataSource) {
+      parallelism = Math.min(parallelism, Math.max(1, ((PooledDataSource) dataSource).getPoolMaximumActiveConnections() - 1));
+    }
+    return parallelism;
+  }
+
+  /**
+   * Commits on the connection itself rather than through a transaction of the environment, which may leave the
+   * commit to a container, as the MANAGED one does, and the rows of the slice to be rolled back once it is closed.
+   */
+  private int[] executeSlice(Batch batch, int start, int end) throws SQLException {
+    MappedStatement ms = batch.mappedStatement;
+    Connection connection = configuration.getEnvironment().getDataSource().getConnection();
+    boolean autoCommit = connection.getAutoCommit();
+    boolean committed = false;
+    try {
+      if (autoCommit) {
+        connection.setAutoCommit(false);
+      }
+      Connection sliceConnection = connection;
+      Log statementLog = ms.getStatementLog();
+      if (statementLog.isDebugEnabled()) {
+        sliceConnection = ConnectionLogger.newInstance(connection, statementLog, 0);
+      }
+      int[] updateCounts = execute(ms, batch.rows.subList(start, end), batch.result.getParameterObjects().subList(start, end), sliceConnection);
+      connection.commit();
+      committed = true;
+      return updateCounts;
+    } finally {
+      try {
+        if (!committed) {
+          connection.rollback();
+        }
+        if (autoCommit) {
+          connection.setAutoCommit(true);
+        }
+      } finally {
+        connection.close();
+        ErrorContext.instance().reset();
+      }
+    }
+  }
+
+  private int[] execute(MappedStatement ms, List<StatementHandler> rows, List<Object> parameterObjects, Connection connection) throws SQLException {
+    Integer transactionTimeout = transaction.getTimeout();
+    if (configuration.isBatchRewriteInserts()) {
+      MultiRowInsert multiRowInsert = MultiRowInsert.of(ms, rows.get(0).getBoundSql(),
+          configuration.getBatchRewriteRows(), configuration.getBatchRewriteMaxParameters());
+      if (multiRowInsert != null) {
+        for (int i = 0; i < rows.size(); i++) {
+          multiRowInsert.addRow(rows.get(i), parameterObjects.get(i));
+        }
+        int[] updateCounts = multiRowInsert.execute(connection, transactionTimeout);
+        configuration.getBatchStatistics().recordBatch(rows.size());
+        return updateCounts;
+      }
+    }
+    Statement stmt = rows.get(0).prepare(connection, transactionTimeout);
+    try {
+      for (StatementHandler row : rows) {
+        row.parameterize(stmt);
+        row.batch(stmt);
+      }
+      int[] updateCounts = stmt.executeBatch();
+      configuration.getBatchStatistics().recordBatch(rows.size());
+      if (Jdbc3KeyGenerator.class.equals(ms.getKeyGenerator().getClass())) {
+        ((Jdbc3KeyGenerator) ms.getKeyGenerator()).processBatch(ms, stmt, parameterObjects);
+      }
+      return updateCounts;
+    } finally {
+      closeStatement(stmt);
+    }
+  }
+
+  private boolean isParallel(MappedStatement ms) {
+    Class<?> keyGenerator = ms.getKeyGenerator().getClass();
+    return NoKeyGenerator.class.equals(keyGenerator) || Jdbc3KeyGenerator.class.equals(keyGenerator);
+  }
+
+  private String failureMessage(Batch batch, int index, String detail) {
+    StringBuilder message = new StringBuilder();
+    message.append(batch.mappedStatement.getId())
+        .append(" (batch index #")
+        .append(index + 1)
+        .append(")")
+        .append(" failed.");
+    if (detail != null) {
+      message.append(" ").append(detail);
+    }
+    if (index > 0) {
+      message.append(" ")
+          .append(index)
+          .append(" prior sub executor(s) completed successfully.");
+    }
+    return message.toString();
+  }
+
+  private static class Batch {
+    private final MappedStatement mappedStatement;
+    private final String sql;
+    private final BatchResult result;
+    private final List<StatementHandler> rows = new ArrayList<StatementHandler>();
+
+    Batch(MappedStatement mappedStatement, String sql) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+      this.result = new BatchResult(mappedStatement, sql);
+    }
+
+    boolean matches(MappedStatement ms, String sql) {
+      return this.sql.equals(sql) && mappedStatement.equals(ms);
+    }
+
+    void add(StatementHandler handler, Object parameterObject) {
+      rows.add(handler);
+      result.addParameterObject(parameterObject);
+    }
+  }
+
+  private class Slice implements Callable<int[]> {
+    private static final int NEW = 0;
+    private static final int STARTED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Batch batch;
+    private final int start;
+    private final int end;
+    private final AtomicInteger state = new AtomicInteger(NEW);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Future<int[]> future;
+
+    Slice(Batch batch, int start, int end) {
+      this.batch = batch;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int[] call() throws SQLException {
+      if (!state.compareAndSet(NEW, STARTED)) {
+        throw new CancellationException();
+      }
+      try {
+        return executeSlice(batch, start, end);
+      } finally {
+        done.countDown();
+      }
+    }
+
+    void awaitUninterruptibly() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
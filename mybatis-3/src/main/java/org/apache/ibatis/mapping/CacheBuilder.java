@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -23,13 +23,25 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CopyingCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.MemoryWeightedCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SingleFlightCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -42,10 +54,20 @@ public class CacheBuilder {
   private Class<? extends Cache> implementation;
   private final List<Class<? extends Cache>> decorators;
   private Integer size;
+  private Long maxBytes;
+  private CacheMemoryBudget memoryBudget;
   private Long clearInterval;
   private boolean readWrite;
+  private CacheSerializer serializer;
+  private boolean reflectiveCopy;
   private Properties properties;
   private boolean blocking;
+  private boolean coalescing;
+  private boolean tableInvalidation;
+  private boolean refreshAhead;
+  private TableVersions tableVersions;
+  private CacheMetrics metrics;
+  private CacheStatistics statistics;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -69,6 +91,16 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder maxBytes(Long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  public CacheBuilder memoryBudget(CacheMemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
   public CacheBuilder clearInterval(Long clearInterval) {
     this.clearInterval = clearInterval;
     return this;
@@ -79,11 +111,46 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder serializer(CacheSerializer serializer) {
+    this.serializer = serializer;
+    return this;
+  }
+
+  public CacheBuilder reflectiveCopy(boolean reflectiveCopy) {
+    this.reflectiveCopy = reflectiveCopy;
+    return this;
+  }
+
   public CacheBuilder blocking(boolean blocking) {
     this.blocking = blocking;
     return this;
   }
   
+  public CacheBuilder coalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+    return this;
+  }
+
+  public CacheBuilder tableInvalidation(boolean tableInvalidation) {
+    this.tableInvalidation = tableInvalidation;
+    return this;
+  }
+
+  public CacheBuilder refreshAhead(boolean refreshAhead) {
+    this.refreshAhead = refreshAhead;
+    return this;
+  }
+
+  public CacheBuilder tableVersions(TableVersions tableVersions) {
+    this.tableVersions = tableVersions;
+    return this;
+  }
+
+  public CacheBuilder metrics(CacheMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -91,17 +158,26 @@ public class CacheBuilder {
 
   public Cache build() {
     setDefaultImplementations();
+    if (refreshAhead && clearInterval == null) {
+      throw new CacheException("Cache " + id + " refreshes ahead but has no flushInterval to expire its entries.");
+    }
+    statistics = metrics == null ? new CacheStatistics(id) : metrics.register(id);
     Cache cache = newBaseCacheInstance(implementation, id);
     setCacheProperties(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
+      cache = setMemoryWeight(cache);
+      MemoryWeightedCache weightedCache = cache instanceof MemoryWeightedCache ? (MemoryWeightedCache) cache : null;
       for (Class<? extends Cache> decorator : decorators) {
         cache = newCacheDecoratorInstance(decorator, cache);
         setCacheProperties(cache);
       }
+      if (weightedCache != null && weightedCache != cache) {
+        weightedCache.setEvictionDecorator(cache);
+      }
       cache = setStandardDecorators(cache);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-      cache = new LoggingCache(cache);
+      cache = new LoggingCache(cache, statistics);
     }
     return cache;
   }
@@ -115,24 +191,71 @@ public class CacheBuilder {
     }
   }
 
+  private Cache setMemoryWeight(Cache cache) {
+    boolean globalBudget = memoryBudget != null && memoryBudget.getMaxBytes() > 0;
+    if (maxBytes == null && !globalBudget) {
+      return cache;
+    }
+    for (Class<? extends Cache> decorator : decorators) {
+      if (TinyLfuCache.class.isAssignableFrom(decorator)) {
+        // TinyLFU keeps the entries in its own map, none of them would reach the weigher below it
+        throw new CacheException("Cache " + id + " uses the TINYLFU eviction, which cannot be bounded by "
+            + (maxBytes != null ? "maxBytes." : "the cacheMaxBytes setting."));
+      }
+    }
+    MemoryWeightedCache weightedCache = new MemoryWeightedCache(cache);
+    if (maxBytes != null) {
+      weightedCache.setMaxBytes(maxBytes);
+    }
+    weightedCache.setBudget(memoryBudget);
+    weightedCache.setStatistics(statistics);
+    return weightedCache;
+  }
+
   private Cache setStandardDecorators(Cache cache) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
-      if (clearInterval != null) {
+      if (metaCache.hasSetter("statistics")) {
+        metaCache.setValue("statistics", statistics);
+      }
+      boolean concurrent = cache instanceof ConcurrentCache;
+      if (clearInterval != null && !refreshAhead) {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
-      if (readWrite) {
-        cache = new SerializedCache(cache);
+      if (readWrite && reflectiveCopy) {
+        cache = new CopyingCache(cache);
+      } else if (readWrite) {
+        cache = new SerializedCache(cache, serializer);
+      }
+      cache = new LoggingCache(cache, statistics);
+      if (!concurrent) {
+        cache = new SynchronizedCache(cache);
       }
-      cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
-      if (blocking) {
+      if (coalescing) {
+        cache = new SingleFlightCache(cache);
+        ((SingleFlightCache) cache).setReadWrite(readWrite);
+        ((SingleFlightCache) cache).setSerializer(serializer);
+        ((SingleFlightCache) cache).setReflectiveCopy(reflectiveCopy);
+        setCacheProperties(cache);
+      } else if (blocking) {
         cache = new BlockingCache(cache);
       }
+      if (refreshAhead) {
+        cache = new RefreshAheadCache(cache);
+        ((RefreshAheadCache) cache).setExpiry(clearInterval);
+        setCacheProperties(cache);
+      }
+      if (tableInvalidation) {
+        cache = new TableInvalidatingCache(cache);
+        if (tableVersions != null) {
+          ((TableInvalidatingCache) cache).setVersions(tableVersions);
+        }
+        ((TableInvalidatingCache) cache).getVersions().setTracked(true);
+      }
       return cache;
     } catch (Exception e) {
       throw new CacheException("Error building standard cache decorators.  Cause: " + e, e);
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.mapping;
 
+import org.apache.ibatis.builder.StaticSqlSource;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -22,17 +23,23 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.session.Configuration;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
  */
 public final class MappedStatement {
 
+  private static final int PARSED_TABLES_SIZE = 64;
+
   private String id;
   private Integer fetchSize;
   private Integer timeout;
@@ -42,6 +49,8 @@ public final class MappedStatement {
   private List<ResultMap> resultMaps;
   private boolean flushCacheRequired;
   private boolean useCache;
+  private boolean useLocalCache;
+  private boolean replicaSafe;
   private boolean resultOrdered;
   private SqlCommandType sqlCommandType;
   private LanguageDriver lang;
@@ -49,6 +58,17 @@ public final class MappedStatement {
   private String[] keyColumns;
   private String databaseId;
   private String[] resultSets;
+  private Set<String> tables;
+  private volatile Set<String> staticTables;
+  private final Map<String, Set<String>> parsedTables = Collections.synchronizedMap(
+      new LinkedHashMap<String, Set<String>>(16, .75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+          return size() > PARSED_TABLES_SIZE;
+        }
+      });
 
   private Cache cache; // 二级缓存实例
   private SqlSource sqlSource; // 解析SQL语句生成的SqlSource实例
@@ -73,6 +93,8 @@ public final class MappedStatement {
       mappedStatement.statementType = StatementType.PREPARED;
       mappedStatement.parameterMap = new ParameterMap.Builder(configuration, "defaultParameterMap", null, new ArrayList<ParameterMapping>()).build();
       mappedStatement.resultMaps = new ArrayList<ResultMap>();
+      mappedStatement.tables = Collections.emptySet();
+      mappedStatement.useLocalCache = true;
       mappedStatement.sqlCommandType = sqlCommandType;
       mappedStatement.keyGenerator = configuration.isUseGeneratedKeys() && SqlCommandType.INSERT.equals(sqlCommandType) ? Jdbc3KeyGenerator.INSTANCE : NoKeyGenerator.INSTANCE;
       String logId = id;
@@ -140,6 +162,22 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * @param useLocalCache false to keep the results out of the session's local cache once the query is done
+     */
+    public Builder useLocalCache(boolean useLocalCache) {
+      mappedStatement.useLocalCache = useLocalCache;
+      return this;
+    }
+
+    /**
+     * @param replicaSafe true to let a read/write routing data source send the query to a replica inside a transaction
+     */
+    public Builder replicaSafe(boolean replicaSafe) {
+      mappedStatement.replicaSafe = replicaSafe;
+      return this;
+    }
+
     public Builder resultOrdered(boolean resultOrdered) {
       mappedStatement.resultOrdered = resultOrdered;
       return this;
@@ -175,6 +213,15 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * @param tables comma separated names of the tables the statement reads or writes,
+     *               when not set they are found in the sql
+     */
+    public Builder tables(String tables) {
+      mappedStatement.tables = TableNameParser.parseDeclared(tables);
+      return this;
+    }
+
     /** @deprecated Use {@link #resultSets} */
     @Deprecated
     public Builder resulSets(String resultSet) {
@@ -256,6 +303,14 @@ public final class MappedStatement {
     return useCache;
   }
 
+  public boolean isUseLocalCache() {
+    return useLocalCache;
+  }
+
+  public boolean isReplicaSafe() {
+    return replicaSafe;
+  }
+
   public boolean isResultOrdered() {
     return resultOrdered;
   }
@@ -290,6 +345,57 @@ public final class MappedStatement {
     return resultSets;
   }
   
+  /**
+   * @return the declared tables of the statement, empty if none were declared
+   */
+  public Set<String> getTables() {
+    return tables;
+  }
+
+  /**
+   * Returns the declared tables or, if none were declared, the tables found in the sql.
+   * An empty set means the tables are not known.
+   */
+  public Set<String> getTables(BoundSql boundSql) {
+    if (!tables.isEmpty()) {
+      return tables;
+    }
+    if (isStatic()) {
+      Set<String> parsed = staticTables;
+      if (parsed == null) {
+        parsed = TableNameParser.parse(boundSql.getSql());
+        staticTables = parsed;
+      }
+      return parsed;
+    }
+    // dynamic sql has a few shapes, each one is parsed once
+    String sql = boundSql.getSql();
+    Set<String> parsed = parsedTables.get(sql);
+    if (parsed == null) {
+      parsed = TableNameParser.parse(sql);
+      parsedTables.put(sql, parsed);
+    }
+    return parsed;
+  }
+
+  /**
+   * Same as {@link #getTables(BoundSql)}, the sql is only built when it is dynamic and
+   * its tables were not declared.
+   */
+  public Set<String> getTablesForParameter(Object parameterObject) {
+    if (!tables.isEmpty()) {
+      return tables;
+    }
+    if (isStatic() && staticTables != null) {
+      return staticTables;
+    }
+    return getTables(sqlSource.getBoundSql(parameterObject));
+  }
+
+  private boolean isStatic() {
+    return sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource;
+  }
+
   public BoundSql getBoundSql(Object parameterObject) {
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
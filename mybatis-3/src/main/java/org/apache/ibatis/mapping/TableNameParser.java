@@ -0,0 +1,193 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the tables a sql statement reads or writes.
+ *
+ * This is not a sql parser, it only looks at the names that follow FROM, JOIN, INTO, UPDATE, USING and TABLE.
+ * It may report a few names that are not tables, like the column of an EXTRACT(... FROM column), which is harmless
+ * for cache invalidation. It cannot see the tables behind views or stored procedures, those must be declared.
+ *
+ * Names are lower cased, unquoted and stripped from their schema.
+ */
+final class TableNameParser {
+
+  private static final Set<String> TABLE_PREFIXES = new HashSet<String>(Arrays.asList(
+      "from", "join", "into", "update", "using", "table"));
+
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "as", "select", "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "on",
+      "using", "group", "order", "having", "limit", "offset", "fetch", "union", "except", "intersect", "minus",
+      "set", "values", "value", "for", "with", "window", "connect", "start", "returning", "lateral", "only",
+      "straight_join", "partition", "default", "nowait", "of", "when", "then"));
+
+  private TableNameParser() {
+    // Prevent Instantiation of Static Class
+  }
+
+  static Set<String> parse(String sql) {
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new LinkedHashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i).toLowerCase(Locale.ENGLISH);
+      if (!TABLE_PREFIXES.contains(token)) {
+        continue;
+      }
+      String previous = i > 0 ? tokens.get(i - 1).toLowerCase(Locale.ENGLISH) : "";
+      if ("for".equals(previous) || "key".equals(previous)) {
+        // SELECT ... FOR UPDATE and ON DUPLICATE KEY UPDATE
+        continue;
+      }
+      boolean list = "from".equals(token) || "update".equals(token);
+      readTables(tokens, i + 1, list, tables);
+    }
+    return Collections.unmodifiableSet(tables);
+  }
+
+  static Set<String> parseDeclared(String declared) {
+    Set<String> tables = new LinkedHashSet<String>();
+    if (declared != null) {
+      for (String table : declared.split(",")) {
+        if (table.trim().length() > 0) {
+          tables.add(normalize(table.trim()));
+        }
+      }
+    }
+    return Collections.unmodifiableSet(tables);
+  }
+
+  private static void readTables(List<String> tokens, int index, boolean list, Set<String> tables) {
+    int i = index;
+    while (i < tokens.size() && isName(tokens.get(i))) {
+      tables.add(normalize(tokens.get(i++)));
+      if (!list) {
+        return;
+      }
+      // skip the alias
+      if (i < tokens.size() && "as".equalsIgnoreCase(tokens.get(i))) {
+        i++;
+      }
+      if (i < tokens.size() && isName(tokens.get(i))) {
+        i++;
+      }
+      if (i >= tokens.size() || !",".equals(tokens.get(i))) {
+        return;
+      }
+      i++;
+    }
+  }
+
+  private static boolean isName(String token) {
+    char first = token.charAt(0);
+    return (Character.isLetter(first) || first == '_' || first == '"' || first == '`' || first == '[')
+        && !KEYWORDS.contains(token.toLowerCase(Locale.ENGLISH));
+  }
+
+  static String normalize(String name) {
+    StringBuilder part = new StringBuilder();
+    char quote = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        } else {
+          part.append(c);
+        }
+      } else if (c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '[') {
+        quote = ']';
+      } else if (c == '.') {
+        // keep the last part only
+        part.setLength(0);
+      } else {
+        part.append(c);
+      }
+    }
+    return part.toString().toLowerCase(Locale.ENGLISH);
+  }
+
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (isNamePart(c) || c == '"' || c == '`' || c == '[') {
+        int start = i;
+        while (i < length) {
+          char current = sql.charAt(i);
+          if (current == '"' || current == '`') {
+            i = skipQuoted(sql, i, current);
+          } else if (current == '[') {
+            int end = sql.indexOf(']', i);
+            i = end < 0 ? length : end + 1;
+          } else if (isNamePart(current) || current == '.') {
+            i++;
+          } else {
+            break;
+          }
+        }
+        tokens.add(sql.substring(start, i));
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static int skipQuoted(String sql, int start, char quote) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == quote) {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isNamePart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+  }
+
+}
@@ -21,13 +21,22 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.CacheSnapshot;
+import org.apache.ibatis.cache.CacheWriteBehind;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.ReadWriteDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.*;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -72,7 +81,12 @@ import org.apache.ibatis.type.TypeAliasRegistry;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Clinton Begin
@@ -97,6 +111,16 @@ public class Configuration {
   protected Class<? extends Log> logImpl;
   protected Class<? extends VFS> vfsImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  protected Integer localCacheSize;
+  protected Long localCacheMaxBytes;
+  protected Integer batchMaxSize;
+  protected Long batchMaxBytes;
+  protected boolean batchReorderStatements;
+  protected boolean batchRewriteInserts;
+  protected int batchRewriteRows = 100;
+  protected int batchRewriteMaxParameters = 2000;
+  protected int batchParallelism = 4;
+  protected ExecutorService batchFlushExecutor;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[]{"equals", "clone", "hashCode", "toString"}));
   protected Integer defaultStatementTimeout;
@@ -131,6 +155,18 @@ public class Configuration {
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  protected final CacheMemoryBudget cacheMemoryBudget = new CacheMemoryBudget();
+  protected final TableVersions tableVersions = new TableVersions();
+  protected final CacheSerializer cacheSerializer = new CacheSerializer();
+  protected final CacheMetrics cacheMetrics = new CacheMetrics();
+  protected final BatchStatistics batchStatistics = new BatchStatistics();
+  protected CacheSnapshot cacheSnapshot;
+  protected Long cacheSnapshotInterval;
+  protected Long cacheSnapshotMaxAge;
+  protected String cacheSnapshotVersion;
+  protected boolean cacheSnapshotSaveOnShutdown;
+  protected CacheWriteBehind cacheWriteBehind;
+  protected Integer cacheWriteBehindQueueSize;
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
@@ -166,12 +202,15 @@ public class Configuration {
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("READ_WRITE", ReadWriteDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -393,6 +432,219 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  public Long getCacheMaxBytes() {
+    long maxBytes = cacheMemoryBudget.getMaxBytes();
+    return maxBytes > 0 ? maxBytes : null;
+  }
+
+  /**
+   * Sets the estimated heap bytes all the caches built afterwards may hold together.
+   */
+  public void setCacheMaxBytes(Long cacheMaxBytes) {
+    cacheMemoryBudget.setMaxBytes(cacheMaxBytes == null ? 0 : cacheMaxBytes);
+  }
+
+  public CacheMemoryBudget getCacheMemoryBudget() {
+    return cacheMemoryBudget;
+  }
+
+  public Integer getCacheCompressionThreshold() {
+    int threshold = cacheSerializer.getCompressionThreshold();
+    return threshold > 0 ? threshold : null;
+  }
+
+  /**
+   * Sets the size in bytes above which the values of read/write caches are compressed.
+   */
+  public void setCacheCompressionThreshold(Integer cacheCompressionThreshold) {
+    cacheSerializer.setCompressionThreshold(cacheCompressionThreshold == null ? 0 : cacheCompressionThreshold);
+  }
+
+  public CacheSerializer getCacheSerializer() {
+    return cacheSerializer;
+  }
+
+  public TableVersions getTableVersions() {
+    return tableVersions;
+  }
+
+  /**
+   * @return hit, miss, eviction and load statistics of the second level caches
+   */
+  public CacheMetrics getCacheMetrics() {
+    return cacheMetrics;
+  }
+
+  /**
+   * @return the snapshot restored and then periodically saved when the session factory is built, null if none
+   * @since 3.5.0
+   */
+  public CacheSnapshot getCacheSnapshot() {
+    return cacheSnapshot;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public void setCacheSnapshot(CacheSnapshot cacheSnapshot) {
+    this.cacheSnapshot = cacheSnapshot;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public String getCacheSnapshotFile() {
+    return cacheSnapshot == null ? null : cacheSnapshot.getFile().getPath();
+  }
+
+  /**
+   * @param cacheSnapshotFile file the hot entries of the caches are saved to, null for no snapshot
+   * @since 3.5.0
+   */
+  public void setCacheSnapshotFile(String cacheSnapshotFile) {
+    if (cacheSnapshotFile == null) {
+      cacheSnapshot = null;
+      return;
+    }
+    cacheSnapshot = new CacheSnapshot(new File(cacheSnapshotFile));
+    if (cacheSnapshotInterval != null) {
+      cacheSnapshot.setInterval(cacheSnapshotInterval);
+    }
+    if (cacheSnapshotMaxAge != null) {
+      cacheSnapshot.setMaxAge(cacheSnapshotMaxAge);
+    }
+    cacheSnapshot.setVersion(cacheSnapshotVersion);
+    cacheSnapshot.setSaveOnShutdown(cacheSnapshotSaveOnShutdown);
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public Long getCacheSnapshotInterval() {
+    return cacheSnapshotInterval;
+  }
+
+  /**
+   * @param cacheSnapshotInterval milliseconds between two saves of the cache snapshot, one minute by default
+   * @since 3.5.0
+   */
+  public void setCacheSnapshotInterval(Long cacheSnapshotInterval) {
+    this.cacheSnapshotInterval = cacheSnapshotInterval;
+    if (cacheSnapshot != null && cacheSnapshotInterval != null) {
+      cacheSnapshot.setInterval(cacheSnapshotInterval);
+    }
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public Long getCacheSnapshotMaxAge() {
+    return cacheSnapshotMaxAge;
+  }
+
+  /**
+   * @param cacheSnapshotMaxAge milliseconds after which a cache snapshot is too old to be restored, no limit by default
+   * @since 3.5.0
+   */
+  public void setCacheSnapshotMaxAge(Long cacheSnapshotMaxAge) {
+    this.cacheSnapshotMaxAge = cacheSnapshotMaxAge;
+    if (cacheSnapshot != null && cacheSnapshotMaxAge != null) {
+      cacheSnapshot.setMaxAge(cacheSnapshotMaxAge);
+    }
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public String getCacheSnapshotVersion() {
+    return cacheSnapshotVersion;
+  }
+
+  /**
+   * @param cacheSnapshotVersion application version, cache snapshots saved by another version are not restored
+   * @since 3.5.0
+   */
+  public void setCacheSnapshotVersion(String cacheSnapshotVersion) {
+    this.cacheSnapshotVersion = cacheSnapshotVersion;
+    if (cacheSnapshot != null) {
+      cacheSnapshot.setVersion(cacheSnapshotVersion);
+    }
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public boolean isCacheSnapshotSaveOnShutdown() {
+    return cacheSnapshotSaveOnShutdown;
+  }
+
+  /**
+   * @param cacheSnapshotSaveOnShutdown whether a JVM shutdown hook saves the cache snapshot, false by default
+   * @since 3.5.0
+   */
+  public void setCacheSnapshotSaveOnShutdown(boolean cacheSnapshotSaveOnShutdown) {
+    this.cacheSnapshotSaveOnShutdown = cacheSnapshotSaveOnShutdown;
+    if (cacheSnapshot != null) {
+      cacheSnapshot.setSaveOnShutdown(cacheSnapshotSaveOnShutdown);
+    }
+  }
+
+  /**
+   * @return the background flusher of the second level cache entries of committed sessions, null if they are put
+   *         in the caches on commit
+   * @since 3.5.0
+   */
+  public CacheWriteBehind getCacheWriteBehind() {
+    return cacheWriteBehind;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public void setCacheWriteBehind(CacheWriteBehind cacheWriteBehind) {
+    this.cacheWriteBehind = cacheWriteBehind;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public boolean isCacheWriteBehindEnabled() {
+    return cacheWriteBehind != null;
+  }
+
+  /**
+   * @param cacheWriteBehindEnabled whether committed entries are put in the second level caches in background
+   * @since 3.5.0
+   */
+  public void setCacheWriteBehindEnabled(boolean cacheWriteBehindEnabled) {
+    if (!cacheWriteBehindEnabled) {
+      cacheWriteBehind = null;
+    } else if (cacheWriteBehind == null) {
+      cacheWriteBehind = new CacheWriteBehind();
+      if (cacheWriteBehindQueueSize != null) {
+        cacheWriteBehind.setQueueSize(cacheWriteBehindQueueSize);
+      }
+    }
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public Integer getCacheWriteBehindQueueSize() {
+    return cacheWriteBehindQueueSize;
+  }
+
+  /**
+   * @param cacheWriteBehindQueueSize maximum number of commits waiting to be put in the caches, 1000 by default
+   * @since 3.5.0
+   */
+  public void setCacheWriteBehindQueueSize(Integer cacheWriteBehindQueueSize) {
+    this.cacheWriteBehindQueueSize = cacheWriteBehindQueueSize;
+    if (cacheWriteBehind != null && cacheWriteBehindQueueSize != null) {
+      cacheWriteBehind.setQueueSize(cacheWriteBehindQueueSize);
+    }
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -431,6 +683,180 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  /**
+   * @since 3.5.0
+   */
+  public Integer getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  /**
+   * @param localCacheSize maximum number of results a session keeps in its local cache, null for no limit
+   * @since 3.5.0
+   */
+  public void setLocalCacheSize(Integer localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public Long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  /**
+   * @param localCacheMaxBytes estimated heap bytes a session may keep in its local cache, null for no limit
+   * @since 3.5.0
+   */
+  public void setLocalCacheMaxBytes(Long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public Integer getBatchMaxSize() {
+    return batchMaxSize;
+  }
+
+  /**
+   * @param batchMaxSize rows a JDBC batch may hold before the pending batches are executed, null for no limit
+   * @since 3.5.0
+   */
+  public void setBatchMaxSize(Integer batchMaxSize) {
+    this.batchMaxSize = batchMaxSize;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public Long getBatchMaxBytes() {
+    return batchMaxBytes;
+  }
+
+  /**
+   * @param batchMaxBytes estimated heap bytes of the parameters of the pending batches before they are executed,
+   *          null for no limit
+   * @since 3.5.0
+   */
+  public void setBatchMaxBytes(Long batchMaxBytes) {
+    this.batchMaxBytes = batchMaxBytes;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public boolean isBatchReorderStatements() {
+    return batchReorderStatements;
+  }
+
+  /**
+   * @param batchReorderStatements whether an update joins the pending batch of its statement even if updates of
+   *          other statements came in between
+   * @since 3.5.0
+   */
+  public void setBatchReorderStatements(boolean batchReorderStatements) {
+    this.batchReorderStatements = batchReorderStatements;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public boolean isBatchRewriteInserts() {
+    return batchRewriteInserts;
+  }
+
+  /**
+   * @param batchRewriteInserts whether the batches of single row inserts are sent as multi row inserts
+   * @since 3.5.0
+   */
+  public void setBatchRewriteInserts(boolean batchRewriteInserts) {
+    this.batchRewriteInserts = batchRewriteInserts;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public int getBatchRewriteRows() {
+    return batchRewriteRows;
+  }
+
+  /**
+   * @param batchRewriteRows maximum number of rows of a multi row insert, 100 by default
+   * @since 3.5.0
+   */
+  public void setBatchRewriteRows(int batchRewriteRows) {
+    this.batchRewriteRows = batchRewriteRows;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public int getBatchRewriteMaxParameters() {
+    return batchRewriteMaxParameters;
+  }
+
+  /**
+   * @param batchRewriteMaxParameters maximum number of parameters of a multi row insert, 2000 by default
+   * @since 3.5.0
+   */
+  public void setBatchRewriteMaxParameters(int batchRewriteMaxParameters) {
+    this.batchRewriteMaxParameters = batchRewriteMaxParameters;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public int getBatchParallelism() {
+    return batchParallelism;
+  }
+
+  /**
+   * @param batchParallelism number of connections the PARALLEL_BATCH executor flushes a batch over, 4 by default
+   * @since 3.5.0
+   */
+  public void setBatchParallelism(int batchParallelism) {
+    this.batchParallelism = batchParallelism;
+  }
+
+  /**
+   * @return the threads the PARALLEL_BATCH executors of all the sessions flush their slices on
+   * @since 3.5.0
+   */
+  public synchronized ExecutorService getBatchFlushExecutor() {
+    if (batchFlushExecutor == null) {
+      // daemon threads that are released after a minute without flush
+      batchFlushExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mybatis-batch-flush-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return batchFlushExecutor;
+  }
+
+  /**
+   * @param batchFlushExecutor threads the PARALLEL_BATCH executors flush their slices on, e.g. a pool managed by the
+   *          container, it is not shut down by MyBatis. By default a shared pool of daemon threads is used
+   * @since 3.5.0
+   */
+  public synchronized void setBatchFlushExecutor(ExecutorService batchFlushExecutor) {
+    this.batchFlushExecutor = batchFlushExecutor;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public BatchStatistics getBatchStatistics() {
+    return batchStatistics;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -563,6 +989,8 @@ public class Configuration {
     // 根据executor类型创建对象的Executor对象
     if (ExecutorType.BATCH == executorType) {
       executor = new BatchExecutor(this, transaction);
+    } else if (ExecutorType.PARALLEL_BATCH == executorType) {
+      executor = new ParallelBatchExecutor(this, transaction);
     } else if (ExecutorType.REUSE == executorType) {
       executor = new ReuseExecutor(this, transaction);
     } else {
@@ -570,7 +998,7 @@ public class Configuration {
     }
     // 如果cacheEnabled属性为ture，这使用CachingExecutor对上面创建的Executor进行装饰
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, cacheWriteBehind);
     }
     // 执行拦截器链的拦截逻辑
     executor = (Executor) interceptorChain.pluginAll(executor);
@@ -619,6 +1047,7 @@ public class Configuration {
 
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
+    cacheSerializer.register(rm.getType());
     checkLocallyForDiscriminatedNestedResultMaps(rm);
     checkGloballyForDiscriminatedNestedResultMaps(rm);
   }
@@ -661,6 +1090,11 @@ public class Configuration {
 
   public void addMappedStatement(MappedStatement ms) {
     mappedStatements.put(ms.getId(), ms);
+    if (ms.getResultMaps() != null) {
+      for (ResultMap resultMap : ms.getResultMaps()) {
+        cacheSerializer.register(resultMap.getType());
+      }
+    }
   }
 
   public Collection<String> getMappedStatementNames() {
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -19,5 +19,12 @@ package org.apache.ibatis.session;
  * @author Clinton Begin
  */
 public enum ExecutorType {
-  SIMPLE, REUSE, BATCH
+  SIMPLE, REUSE, BATCH,
+  /**
+   * Batches flushed concurrently over several connections, each committed on its own,
+   * see {@link org.apache.ibatis.executor.ParallelBatchExecutor}.
+   *
+   * @since 3.5.0
+   */
+  PARALLEL_BATCH
 }
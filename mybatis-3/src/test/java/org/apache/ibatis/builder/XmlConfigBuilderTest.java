@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.builder;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.math.RoundingMode;
@@ -79,6 +80,8 @@ public class XmlConfigBuilderTest {
       assertThat(config.getAutoMappingBehavior()).isEqualTo(AutoMappingBehavior.PARTIAL);
       assertThat(config.getAutoMappingUnknownColumnBehavior()).isEqualTo(AutoMappingUnknownColumnBehavior.NONE);
       assertThat(config.isCacheEnabled()).isTrue();
+      assertNull(config.getCacheMaxBytes());
+      assertNull(config.getCacheCompressionThreshold());
       assertThat(config.getProxyFactory()).isInstanceOf(JavassistProxyFactory.class);
       assertThat(config.isLazyLoadingEnabled()).isFalse();
       assertThat(config.isAggressiveLazyLoading()).isFalse();
@@ -91,6 +94,11 @@ public class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isFalse();
       assertThat(config.isSafeRowBoundsEnabled()).isFalse();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.SESSION);
+      assertNull(config.getLocalCacheSize());
+      assertThat(config.isCacheWriteBehindEnabled()).isFalse();
+      assertNull(config.getBatchMaxSize());
+      assertThat(config.isBatchReorderStatements()).isFalse();
+      assertNull(config.getLocalCacheMaxBytes());
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.OTHER);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString")));
       assertThat(config.isSafeResultHandlerEnabled()).isTrue();
@@ -172,6 +180,8 @@ public class XmlConfigBuilderTest {
         assertThat(config.getAutoMappingBehavior()).isEqualTo(AutoMappingBehavior.NONE);
         assertThat(config.getAutoMappingUnknownColumnBehavior()).isEqualTo(AutoMappingUnknownColumnBehavior.WARNING);
         assertThat(config.isCacheEnabled()).isFalse();
+        assertThat(config.getCacheMaxBytes()).isEqualTo(104857600L);
+        assertThat(config.getCacheCompressionThreshold()).isEqualTo(8192);
         assertThat(config.getProxyFactory()).isInstanceOf(CglibProxyFactory.class);
         assertThat(config.isLazyLoadingEnabled()).isTrue();
         assertThat(config.isAggressiveLazyLoading()).isTrue();
@@ -184,6 +194,16 @@ public class XmlConfigBuilderTest {
         assertThat(config.isMapUnderscoreToCamelCase()).isTrue();
         assertThat(config.isSafeRowBoundsEnabled()).isTrue();
         assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.STATEMENT);
+        assertThat(config.getLocalCacheSize()).isEqualTo(1000);
+        assertThat(config.getCacheWriteBehind().getQueueSize()).isEqualTo(50);
+        assertThat(config.getCacheSnapshot().getFile().getPath()).isEqualTo(new File("target/cache-snapshot.bin").getPath());
+        assertThat(config.getCacheSnapshot().getInterval()).isEqualTo(0L);
+        assertThat(config.getCacheSnapshot().getMaxAge()).isEqualTo(3600000L);
+        assertThat(config.getCacheSnapshot().getVersion()).isEqualTo("1.2");
+        assertThat(config.getCacheSnapshot().isSaveOnShutdown()).isTrue();
+        assertThat(config.getBatchMaxSize()).isEqualTo(500);
+        assertThat(config.isBatchReorderStatements()).isTrue();
+        assertThat(config.getLocalCacheMaxBytes()).isEqualTo(16777216L);
         assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.NULL);
         assertThat(config.getLazyLoadTriggerMethods()).isEqualTo((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString", "xxx")));
         assertThat(config.isSafeResultHandlerEnabled()).isFalse();
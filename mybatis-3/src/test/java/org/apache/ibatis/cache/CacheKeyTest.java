@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -90,6 +90,39 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTestCacheKeysWithManyParts() throws Exception {
+    CacheKey key1 = new CacheKey();
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 100; i++) {
+      key1.update(i);
+      key2.update(i);
+    }
+    assertEquals(100, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    key2.update(100);
+    assertFalse(key1.equals(key2));
+  }
+
+  @Test
+  public void shouldTestCacheKeysNotEqualWhenHashCodesOnlySwap() {
+    // the same hash codes in another order, which a plain sum would not tell apart
+    CacheKey key1 = new CacheKey(new Object[] { 1, 2, 3 });
+    CacheKey key2 = new CacheKey(new Object[] { 3, 2, 1 });
+    assertFalse(key1.equals(key2));
+    assertFalse(key1.hashCode() == key2.hashCode());
+  }
+
+  @Test
+  public void shouldCloneIndependently() throws Exception {
+    CacheKey key1 = new CacheKey(new Object[] { 1, "hello" });
+    CacheKey key2 = key1.clone();
+    assertEquals(key1, key2);
+    key2.update("world");
+    assertFalse(key1.equals(key2));
+    assertEquals(2, key1.getUpdateCount());
+  }
+
   @Test (expected = NotSerializableException.class)
   public void serializationExceptionTest() throws Exception {
     CacheKey cacheKey = new CacheKey();
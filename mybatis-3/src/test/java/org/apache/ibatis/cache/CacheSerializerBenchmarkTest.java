@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.test.SlowTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Times a serialize plus deserialize of lists of 5-field beans with the {@link CacheSerializer} and with plain JDK
+ * serialization. Excluded from the default build, run it with:
+ *
+ * <pre>
+ * mvn test -Dtest=CacheSerializerBenchmarkTest -Dmaven.surefire.excludeGroups=none
+ * </pre>
+ *
+ * Each measure is the median of several rounds, after warm-up rounds that let the JIT compile both paths.
+ */
+@Category(SlowTests.class)
+public class CacheSerializerBenchmarkTest {
+
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 11;
+  private static final long ROUND_NANOS = 200 * 1000 * 1000;
+
+  @Test
+  public void compareWithJdkSerialization() {
+    for (int count : new int[] { 1, 1000 }) {
+      final Serializable rows = (Serializable) rows(count);
+      final CacheSerializer serializer = new CacheSerializer();
+      serializer.register(Bean.class);
+      Copy cacheSerializer = new Copy() {
+        @Override
+        public Object copy() {
+          return serializer.deserialize(serializer.serialize(rows));
+        }
+      };
+      Copy jdk = new Copy() {
+        @Override
+        public Object copy() {
+          return SerializedCache.deserialize(SerializedCache.serialize(rows));
+        }
+      };
+      assertEquals(rows, cacheSerializer.copy());
+      assertEquals(rows, jdk.copy());
+      System.out.println(String.format("%4d rows: CacheSerializer %10.2f us/op, JDK %10.2f us/op", count,
+          measure(cacheSerializer) / 1000, measure(jdk) / 1000));
+    }
+  }
+
+  /**
+   * @return median nanoseconds per copy
+   */
+  private static double measure(Copy copy) {
+    double[] rounds = new double[ROUNDS];
+    for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+      long operations = 0;
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+        if (copy.copy() == null) {
+          throw new IllegalStateException();
+        }
+        operations++;
+        elapsed = System.nanoTime() - start;
+      } while (elapsed < ROUND_NANOS);
+      if (round >= 0) {
+        rounds[round] = (double) elapsed / operations;
+      }
+    }
+    Arrays.sort(rounds);
+    return rounds[ROUNDS / 2];
+  }
+
+  private static List<Bean> rows(int count) {
+    List<Bean> rows = new ArrayList<Bean>();
+    for (int i = 0; i < count; i++) {
+      Bean bean = new Bean();
+      bean.id = i;
+      bean.name = "name " + i;
+      bean.score = i * 1.5;
+      bean.active = i % 2 == 0;
+      bean.created = new Date(1000000L * i);
+      rows.add(bean);
+    }
+    return rows;
+  }
+
+  private interface Copy {
+    Object copy();
+  }
+
+  static class Bean implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Integer id;
+    private String name;
+    private double score;
+    private boolean active;
+    private Date created;
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Bean)) {
+        return false;
+      }
+      Bean other = (Bean) obj;
+      return id.equals(other.id) && name.equals(other.name) && score == other.score && active == other.active
+          && created.equals(other.created);
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+  }
+
+}
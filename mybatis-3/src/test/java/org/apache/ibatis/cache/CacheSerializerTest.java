@@ -0,0 +1,172 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.Test;
+
+public class CacheSerializerTest {
+
+  @Test
+  public void shouldWriteFlatBeansDirectly() {
+    CacheSerializer serializer = new CacheSerializer();
+    serializer.register(Row.class);
+    assertTrue(serializer.isFlat(Row.class));
+
+    List<Row> rows = rows(100);
+    byte[] bytes = serializer.serialize((Serializable) rows);
+    assertTrue(bytes.length < SerializedCache.serialize((Serializable) rows).length);
+    assertEquals(rows, serializer.deserialize(bytes));
+  }
+
+  @Test
+  public void shouldCopyBeansWithCustomSerialization() {
+    CacheSerializer serializer = new CacheSerializer();
+    serializer.register(Author.class);
+    serializer.register(Custom.class);
+    assertFalse(serializer.isFlat(Custom.class));
+
+    Author author = new Author(1, "jim", "secret", "jim@example.org", "bio", Section.NEWS);
+    Author copy = (Author) serializer.deserialize(serializer.serialize(author));
+    assertNotSame(author, copy);
+    assertEquals(author, copy);
+
+    Custom custom = new Custom();
+    custom.value = "custom";
+    assertEquals("custom!", ((Custom) serializer.deserialize(serializer.serialize(custom))).value);
+
+    ArrayList<Object> unregistered = new ArrayList<Object>();
+    unregistered.add(new StringBuilder("unregistered").toString());
+    assertEquals(unregistered, serializer.deserialize(serializer.serialize(unregistered)));
+  }
+
+  @Test
+  public void shouldKeepSharedReferencesToBeans() {
+    CacheSerializer serializer = new CacheSerializer();
+    serializer.register(Row.class);
+    Row row = rows(1).get(0);
+    ArrayList<Row> twice = new ArrayList<Row>();
+    twice.add(row);
+    twice.add(row);
+    @SuppressWarnings("unchecked")
+    List<Row> copy = (List<Row>) serializer.deserialize(serializer.serialize(twice));
+    assertSame(copy.get(0), copy.get(1));
+  }
+
+  @Test
+  public void shouldCompressLargeValues() {
+    CacheSerializer serializer = new CacheSerializer();
+    serializer.register(Row.class);
+    List<Row> rows = rows(1000);
+    int plainLength = serializer.serialize((Serializable) rows).length;
+    serializer.setCompressionThreshold(1024);
+    byte[] compressed = serializer.serialize((Serializable) rows);
+    assertTrue(compressed.length < plainLength);
+    assertEquals(rows, serializer.deserialize(compressed));
+    assertEquals("small", serializer.deserialize(serializer.serialize("small")));
+  }
+
+  @Test
+  public void shouldCopyThroughSerializedCache() {
+    CacheSerializer serializer = new CacheSerializer();
+    serializer.register(Row.class);
+    Cache cache = new SerializedCache(new PerpetualCache("default"), serializer);
+    List<Row> rows = rows(3);
+    cache.putObject("rows", rows);
+    assertEquals(rows, cache.getObject("rows"));
+    assertNotSame(cache.getObject("rows"), cache.getObject("rows"));
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectBytesOfAnotherSerializer() {
+    CacheSerializer writer = new CacheSerializer();
+    writer.register(Custom.class);
+    writer.register(Row.class);
+    byte[] bytes = writer.serialize((Serializable) rows(1));
+    new CacheSerializer().deserialize(bytes);
+  }
+
+  private static List<Row> rows(int count) {
+    List<Row> rows = new ArrayList<Row>();
+    for (int i = 0; i < count; i++) {
+      Row row = new Row();
+      row.id = i;
+      row.name = i % 7 == 0 ? null : "name " + i;
+      row.score = i * 1.5;
+      row.active = i % 2 == 0;
+      row.created = new Date(1000000L * i);
+      row.updated = new Timestamp(1000000L * i + 1);
+      row.amount = new BigDecimal(i).movePointLeft(2);
+      row.initial = 'r';
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  static class Row implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Integer id;
+    private String name;
+    private double score;
+    private Boolean active;
+    private Date created;
+    private Date updated;
+    private BigDecimal amount;
+    private char initial;
+    private transient Object ignored = new Object();
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Row)) {
+        return false;
+      }
+      Row other = (Row) obj;
+      return id.equals(other.id) && (name == null ? other.name == null : name.equals(other.name))
+          && score == other.score && active.equals(other.active) && created.equals(other.created)
+          && updated.equals(other.updated) && updated.getClass() == other.updated.getClass()
+          && amount.equals(other.amount) && initial == other.initial;
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+  }
+
+  static class Custom implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String value;
+
+    private Object readResolve() {
+      Custom resolved = new Custom();
+      resolved.value = value + "!";
+      return resolved;
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCountHitsMissesPutsAndEvictions() {
+    CacheMetrics metrics = new CacheMetrics();
+    Cache cache = new CacheBuilder("stats").addDecorator(LruCache.class).size(2).metrics(metrics).build();
+    cache.putObject("a", "1");
+    cache.putObject("b", "2");
+    cache.putObject("c", "3");
+    assertNull(cache.getObject("a"));
+    assertEquals("3", cache.getObject("c"));
+    cache.removeObject("c");
+    cache.clear();
+
+    CacheStatistics statistics = metrics.getStatistics("stats");
+    assertEquals(1, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+    assertEquals(0.5, statistics.getHitRatio(), 0);
+    assertEquals(3, statistics.getPuts());
+    assertEquals(1, statistics.getEvictions());
+    assertEquals(1, statistics.getRemovals());
+    assertEquals(1, statistics.getClears());
+    assertEquals(0, statistics.getEntryCount());
+    assertEquals(-1, statistics.getEstimatedBytes());
+  }
+
+  @Test
+  public void shouldCountRequestsAndHitsOfLoggingCache() {
+    LoggingCache cache = new LoggingCache(new PerpetualCache("logging"));
+    cache.putObject("a", "1");
+    cache.getObject("a");
+    cache.getObject("b");
+    assertEquals(2, cache.getRequestCount());
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void shouldReportEstimatedBytesOfMemoryWeightedCaches() {
+    CacheMetrics metrics = new CacheMetrics();
+    Cache cache = new CacheBuilder("weighted").maxBytes(1024L * 1024).metrics(metrics).build();
+    cache.putObject("a", "1");
+    assertTrue(metrics.getStatistics("weighted").getEstimatedBytes() > 0);
+    cache.clear();
+    assertEquals(0, metrics.getStatistics("weighted").getEstimatedBytes());
+  }
+
+  @Test
+  public void shouldFindHotKeys() {
+    CacheStatistics statistics = new CacheStatistics("hot");
+    LoggingCache cache = new LoggingCache(new LruCache(new PerpetualCache("hot")), statistics);
+    for (int i = 0; i < 20000; i++) {
+      cache.getObject("hot");
+      cache.getObject("cold" + i);
+    }
+    Map<String, Long> hotKeys = statistics.getHotKeys();
+    assertEquals("hot", hotKeys.keySet().iterator().next());
+    assertTrue(hotKeys.size() <= 10);
+
+    statistics.reset();
+    assertTrue(statistics.getHotKeys().isEmpty());
+    assertEquals(0, statistics.getMisses());
+  }
+
+  @Test
+  public void shouldRegisterMBeans() throws Exception {
+    CacheMetrics metrics = new CacheMetrics();
+    Cache cache = new CacheBuilder("org.apache.ibatis.Mapper").metrics(metrics).build();
+    cache.putObject("a", "1");
+    cache.getObject("a");
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.mybatis:type=Cache,configuration=\"test\",id=\"org.apache.ibatis.Mapper\"");
+    metrics.registerMBeans(server, "test");
+    try {
+      assertEquals(1L, server.getAttribute(name, "Hits"));
+      assertEquals(1, server.getAttribute(name, "EntryCount"));
+    } finally {
+      metrics.unregisterMBeans(server, "test");
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class CacheWriteBehindTest {
+
+  @Test
+  public void shouldPutCommittedEntriesInBackground() {
+    CacheWriteBehind writeBehind = new CacheWriteBehind();
+    RecordingCache cache = new RecordingCache("default");
+    TransactionalCache txCache = new TransactionalCache(cache, writeBehind);
+    txCache.putObject("a", "1");
+    txCache.commit();
+    writeBehind.flush();
+
+    assertEquals("1", cache.getObject("a"));
+    assertNotSame(Thread.currentThread(), cache.lastWriter);
+    assertEquals(1, writeBehind.getFlushedCount());
+    assertEquals(0, writeBehind.getPendingCount());
+    writeBehind.stop();
+  }
+
+  @Test
+  public void shouldPutEntriesRightAwayWhenStoppedMeanwhile() throws Exception {
+    CacheWriteBehind writeBehind = new CacheWriteBehind();
+    RecordingCache cache = new RecordingCache("default");
+    writeBehind.putObjects(cache, Collections.<Object, Object>singletonMap("a", "1"));
+    writeBehind.flush();
+    // as if stop() shut the threads down between the lookup of the flusher and the submission
+    Field flushers = CacheWriteBehind.class.getDeclaredField("flushers");
+    flushers.setAccessible(true);
+    for (ExecutorService flusher : (ExecutorService[]) flushers.get(writeBehind)) {
+      flusher.shutdown();
+    }
+    writeBehind.putObjects(cache, Collections.<Object, Object>singletonMap("b", "2"));
+
+    assertEquals("2", cache.getObject("b"));
+    assertSame(Thread.currentThread(), cache.lastWriter);
+    assertEquals(2, writeBehind.getFlushedCount());
+    assertEquals(0, writeBehind.getPendingCount());
+  }
+
+  @Test
+  public void shouldKeepOrderOfCommits() {
+    CacheWriteBehind writeBehind = new CacheWriteBehind();
+    writeBehind.setThreads(4);
+    RecordingCache cache = new RecordingCache("default");
+    for (int i = 0; i < 100; i++) {
+      TransactionalCache txCache = new TransactionalCache(cache, writeBehind);
+      txCache.putObject("a", i);
+      txCache.commit();
+    }
+    writeBehind.flush();
+
+    assertEquals(99, cache.getObject("a"));
+    List<Object> expected = new ArrayList<Object>();
+    for (int i = 0; i < 100; i++) {
+      expected.add(i);
+    }
+    assertEquals(expected, cache.puts);
+    writeBehind.stop();
+  }
+
+  @Test
+  public void shouldDiscardEntriesQueuedBeforeClear() throws Exception {
+    CacheWriteBehind writeBehind = new CacheWriteBehind();
+    final CountDownLatch release = new CountDownLatch(1);
+    RecordingCache blocker = new RecordingCache("blocker") {
+      @Override
+      public void putObjects(Map<Object, Object> entries) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    writeBehind.setThreads(1);
+    RecordingCache cache = new RecordingCache("default");
+
+    // holds the single flusher thread so that the next commit stays queued
+    writeBehind.putObjects(blocker, Collections.<Object, Object>singletonMap("x", "y"));
+    TransactionalCache txCache = new TransactionalCache(cache, writeBehind);
+    txCache.putObject("a", "1");
+    txCache.commit();
+    TransactionalCache clearingCache = new TransactionalCache(cache, writeBehind);
+    clearingCache.clear();
+    clearingCache.commit();
+    assertEquals(1, cache.clears);
+    release.countDown();
+    writeBehind.flush();
+
+    assertNull(cache.getObject("a"));
+    assertEquals(1, writeBehind.getDiscardedCount());
+    writeBehind.stop();
+  }
+
+  @Test
+  public void shouldNotPutEntriesAfterAClearThatCameDuringTheFlush() throws Exception {
+    final CacheWriteBehind writeBehind = new CacheWriteBehind();
+    final CountDownLatch putting = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final RecordingCache cache = new RecordingCache("default") {
+      @Override
+      public void putObjects(Map<Object, Object> entries) {
+        putting.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.putObjects(entries);
+      }
+    };
+
+    writeBehind.putObjects(cache, Collections.<Object, Object>singletonMap("a", "1"));
+    // the flusher has checked the epoch and is putting the entries
+    putting.await();
+    Thread clearing = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeBehind.clear(cache);
+      }
+    });
+    clearing.start();
+    clearing.join(200);
+    assertTrue(clearing.isAlive());
+    release.countDown();
+    clearing.join();
+    writeBehind.flush();
+
+    assertNull(cache.getObject("a"));
+    assertEquals(1, cache.clears);
+    writeBehind.stop();
+  }
+
+  @Test
+  public void shouldPutEntriesOfBlockingCacheOnCommit() {
+    CacheWriteBehind writeBehind = new CacheWriteBehind();
+    PerpetualCache cache = new PerpetualCache("default");
+    BlockingCache blockingCache = new BlockingCache(cache);
+    TransactionalCache txCache = new TransactionalCache(blockingCache, writeBehind);
+    assertNull(txCache.getObject("a"));
+    txCache.putObject("a", "1");
+    txCache.commit();
+
+    assertEquals("1", cache.getObject("a"));
+    assertEquals(0, writeBehind.getFlushedCount());
+  }
+
+  private static class RecordingCache extends PerpetualCache {
+    private final List<Object> puts = Collections.synchronizedList(new ArrayList<Object>());
+    private volatile Thread lastWriter;
+    private volatile int clears;
+
+    RecordingCache(String id) {
+      super(id);
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      lastWriter = Thread.currentThread();
+      puts.add(value);
+      super.putObject(key, value);
+    }
+
+    @Override
+    public void clear() {
+      clears++;
+      super.clear();
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.ibatis.cache.decorators.CopyingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.Test;
+
+public class CopyingCacheTest {
+
+  @Test
+  public void shouldHandOutIndependentCopies() {
+    Cache cache = new CopyingCache(new PerpetualCache("default"));
+    Author author = new Author(1, "jim", "secret", "jim@example.org", "bio", Section.NEWS);
+    List<Author> authors = new ArrayList<Author>();
+    authors.add(author);
+    cache.putObject("authors", authors);
+    author.setUsername("changed after put");
+
+    @SuppressWarnings("unchecked")
+    List<Author> hit = (List<Author>) cache.getObject("authors");
+    assertEquals("jim", hit.get(0).getUsername());
+    hit.get(0).setUsername("changed after get");
+    @SuppressWarnings("unchecked")
+    List<Author> other = (List<Author>) cache.getObject("authors");
+    assertEquals("jim", other.get(0).getUsername());
+    assertNotSame(hit, other);
+  }
+
+  @Test
+  public void shouldKeepSharedReferencesAndCycles() {
+    Author author = new Author(1, "jim", "secret", "jim@example.org", "bio", Section.NEWS);
+    Node node = new Node();
+    node.self = node;
+    node.authors = new Author[] { author, author };
+
+    Node copy = (Node) CopyingCache.copy(node);
+    assertNotSame(node, copy);
+    assertSame(copy, copy.self);
+    assertNotSame(author, copy.authors[0]);
+    assertSame(copy.authors[0], copy.authors[1]);
+    assertEquals("jim", copy.authors[0].getUsername());
+  }
+
+  @Test
+  public void shouldCopyCollectionsDatesAndArrays() {
+    Map<String, Object> row = new HashMap<String, Object>();
+    Date date = new Date(1000);
+    row.put("date", date);
+    row.put("bytes", new byte[] { 1, 2 });
+    row.put("names", new TreeSet<String>(Collections.reverseOrder()));
+    row.put("fixed", Arrays.asList("a", "b"));
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> copy = (Map<String, Object>) CopyingCache.copy(row);
+    assertEquals(date, copy.get("date"));
+    assertNotSame(date, copy.get("date"));
+    assertArrayEquals(new byte[] { 1, 2 }, (byte[]) copy.get("bytes"));
+    assertNotSame(row.get("bytes"), copy.get("bytes"));
+    assertEquals(Collections.reverseOrder(), ((TreeSet<?>) copy.get("names")).comparator());
+    assertEquals(Arrays.asList("a", "b"), copy.get("fixed"));
+  }
+
+  @Test
+  public void shouldNotCopyTransientFields() {
+    Node node = new Node();
+    node.cached = "cached";
+    assertNull(((Node) CopyingCache.copy(node)).cached);
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableObjects() {
+    CopyingCache.copy(Collections.singletonList(new Object()));
+  }
+
+  static class Node implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Node self;
+    private Author[] authors;
+    private transient String cached;
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.MemoryWeightedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class MemoryWeightedCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedWhenOverMaxBytes() {
+    MemoryWeightedCache cache = new MemoryWeightedCache(new PerpetualCache("default"));
+    cache.setMaxBytes(5000);
+    cache.putObject(0, new byte[2000]);
+    cache.putObject(1, new byte[2000]);
+    cache.getObject(0);
+    cache.putObject(2, new byte[2000]);
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(2));
+    assertTrue(cache.getBytes() <= 5000);
+  }
+
+  @Test
+  public void shouldWeightLargeResultsMoreThanSmallOnes() {
+    MemoryWeightedCache cache = new MemoryWeightedCache(new PerpetualCache("default"));
+    cache.putObject("small", rows(10));
+    long small = cache.getBytes();
+    cache.clear();
+    cache.putObject("large", rows(10000));
+    long large = cache.getBytes();
+    assertTrue("10000 rows weighted " + large + " and 10 rows " + small, large > small * 500);
+  }
+
+  @Test
+  public void shouldReleaseBytesOfEntriesEvictedAbove() {
+    MemoryWeightedCache weighted = new MemoryWeightedCache(new PerpetualCache("default"));
+    LruCache cache = new LruCache(weighted);
+    cache.setSize(1);
+    cache.putObject(0, new byte[1000]);
+    cache.putObject(1, new byte[1000]);
+    assertEquals(1, cache.getSize());
+    assertTrue(weighted.getBytes() < 2000);
+  }
+
+  @Test
+  public void shouldMakeEvictionDecoratorForgetKeysEvictedForSize() throws Exception {
+    MemoryWeightedCache weighted = new MemoryWeightedCache(new PerpetualCache("default"));
+    weighted.setMaxBytes(5000);
+    LruCache cache = new LruCache(weighted);
+    weighted.setEvictionDecorator(cache);
+    cache.putObject(0, new byte[2000]);
+    cache.putObject(1, new byte[2000]);
+    cache.putObject(2, new byte[2000]);
+    assertNull(cache.getObject(0));
+    Field keyMap = LruCache.class.getDeclaredField("keyMap");
+    keyMap.setAccessible(true);
+    assertEquals(new HashSet<Object>(Arrays.<Object>asList(1, 2)), ((Map<?, ?>) keyMap.get(cache)).keySet());
+  }
+
+  @Test
+  public void shouldKeepNewestEntryWhenBudgetIsTakenByOtherCaches() {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(5000);
+    MemoryWeightedCache first = new MemoryWeightedCache(new PerpetualCache("first"));
+    first.setBudget(budget);
+    MemoryWeightedCache second = new MemoryWeightedCache(new PerpetualCache("second"));
+    second.setBudget(budget);
+    first.putObject(0, new byte[4000]);
+    second.putObject(0, new byte[2000]);
+    assertNotNull(second.getObject(0));
+    assertEquals(1, first.getSize());
+  }
+
+  @Test
+  public void shouldShareGlobalBudget() {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(5000);
+    MemoryWeightedCache first = new MemoryWeightedCache(new PerpetualCache("first"));
+    first.setBudget(budget);
+    MemoryWeightedCache second = new MemoryWeightedCache(new PerpetualCache("second"));
+    second.setBudget(budget);
+    first.putObject(0, new byte[2000]);
+    second.putObject(0, new byte[2000]);
+    second.putObject(1, new byte[2000]);
+    assertEquals(1, first.getSize());
+    assertEquals(1, second.getSize());
+    assertNotNull(second.getObject(1));
+    assertTrue(budget.getUsedBytes() <= 5000);
+    assertEquals(first.getBytes() + second.getBytes(), budget.getUsedBytes());
+    second.clear();
+    first.clear();
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  private List<Row> rows(int count) {
+    List<Row> rows = new ArrayList<Row>();
+    for (int i = 0; i < count; i++) {
+      rows.add(new Row(i, "row " + i));
+    }
+    return rows;
+  }
+
+  private static class Row {
+    private final int id;
+    private final String name;
+
+    Row(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+
+}
@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("offheap", "cache");
+    directory.delete();
+  }
+
+  @After
+  public void tearDown() {
+    File file = new File(directory, "default.cache");
+    file.delete();
+    directory.delete();
+  }
+
+  @Test
+  public void shouldStoreAndReadCopies() throws Exception {
+    OffHeapCache cache = newCache(null);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, "value " + i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("value " + i, cache.getObject(i));
+    }
+    assertEquals(1000, cache.getSize());
+  }
+
+  @Test
+  public void shouldReplaceExistingValue() throws Exception {
+    OffHeapCache cache = newCache(null);
+    cache.putObject(0, "a");
+    cache.putObject(0, "b");
+    assertEquals("b", cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldDropOldestEntriesWhenFull() throws Exception {
+    OffHeapCache cache = newCache(null);
+    byte[] value = new byte[1024];
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, value);
+    }
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(999));
+    assertTrue(cache.getSize() < 1000);
+  }
+
+  @Test
+  public void shouldNotCacheEntriesLargerThanASegment() throws Exception {
+    OffHeapCache cache = newCache(null);
+    cache.putObject(0, new byte[64 * 1024]);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() throws Exception {
+    OffHeapCache cache = newCache(null);
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() throws Exception {
+    OffHeapCache cache = newCache(null);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldSurviveRestartWhenBackedByFile() throws Exception {
+    OffHeapCache cache = newCache(directory.getPath());
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, "value " + i);
+    }
+    cache.removeObject(3);
+    cache.putObject(5, "new value");
+
+    OffHeapCache restarted = newCache(directory.getPath());
+    assertEquals(9, restarted.getSize());
+    assertEquals("value 0", restarted.getObject(0));
+    assertNull(restarted.getObject(3));
+    assertEquals("new value", restarted.getObject(5));
+    restarted.putObject(10, "value 10");
+    assertEquals("value 10", restarted.getObject(10));
+  }
+
+  @Test
+  public void shouldNotRestoreClearedEntries() throws Exception {
+    OffHeapCache cache = newCache(directory.getPath());
+    cache.putObject(0, 0);
+    cache.clear();
+
+    OffHeapCache restarted = newCache(directory.getPath());
+    assertEquals(0, restarted.getSize());
+  }
+
+  @Test
+  public void shouldReturnTheRemovedValue() throws Exception {
+    OffHeapCache cache = newCache(null);
+    cache.putObject(0, "zero");
+    assertEquals("zero", cache.removeObject(0));
+    assertNull(cache.removeObject(0));
+  }
+
+  @Test
+  public void shouldStoreAgainAfterAClear() throws Exception {
+    OffHeapCache cache = newCache(directory.getPath());
+    cache.putObject(0, 0);
+    cache.clear();
+    cache.putObject(1, 1);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+
+    OffHeapCache restarted = newCache(directory.getPath());
+    assertEquals(1, restarted.getSize());
+    assertEquals(1, restarted.getObject(1));
+  }
+
+  @Test
+  public void shouldKeepTheEntriesOfTheFileWhenClosed() throws Exception {
+    OffHeapCache cache = newCache(directory.getPath());
+    cache.putObject(0, "zero");
+    cache.close();
+    assertNull(cache.getObject(0));
+    cache.putObject(1, "one");
+    assertEquals(0, cache.getSize());
+
+    OffHeapCache restarted = newCache(directory.getPath());
+    assertEquals("zero", restarted.getObject(0));
+    restarted.close();
+  }
+
+  @Test
+  public void shouldIgnoreAFileWrittenWithAnotherSegmentSize() throws Exception {
+    OffHeapCache cache = newCache(directory.getPath());
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, "value " + i);
+    }
+    cache.close();
+
+    OffHeapCache resized = newCache(directory.getPath(), 16 * 1024);
+    assertEquals(0, resized.getSize());
+    resized.putObject(0, "resized");
+    assertEquals("resized", resized.getObject(0));
+  }
+
+  private OffHeapCache newCache(String dir) throws Exception {
+    return newCache(dir, 32 * 1024);
+  }
+
+  private OffHeapCache newCache(String dir, int segmentSize) throws Exception {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(256 * 1024);
+    cache.setSegmentSize(segmentSize);
+    cache.setDirectory(dir);
+    cache.initialize();
+    return cache;
+  }
+
+}
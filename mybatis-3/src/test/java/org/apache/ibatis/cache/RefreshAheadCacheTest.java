@@ -0,0 +1,129 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class RefreshAheadCacheTest {
+
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  @Test
+  public void shouldNotRefreshFreshEntries() {
+    RefreshAheadCache cache = newCache(60000, 30000, 0);
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+    assertFalse(cache.refresh("key", new CountingTask()));
+  }
+
+  @Test
+  public void shouldServeOldValueAndRefreshOnce() {
+    final RefreshAheadCache cache = newCache(60000, 0, 0);
+    cache.putObject("key", "old");
+    assertEquals("old", cache.getObject("key"));
+    CountingTask task = new CountingTask() {
+      @Override
+      public void run() {
+        super.run();
+        cache.putObject("key", "new");
+      }
+    };
+    assertTrue(cache.refresh("key", task));
+    assertFalse(cache.refresh("key", task));
+    assertEquals(1, task.runs.get());
+    assertEquals(1, cache.getRefreshCount());
+    assertEquals("new", cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldLeaveRefreshToTheClaimingThread() throws Exception {
+    final RefreshAheadCache cache = newCache(60000, 0, 0);
+    cache.putObject("key", "value");
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        cache.getObject("key");
+      }
+    });
+    reader.start();
+    reader.join();
+    cache.getObject("key");
+    assertFalse(cache.refresh("key", new CountingTask()));
+  }
+
+  @Test
+  public void shouldServeExpiredEntryOnlyUpToMaxStale() throws Exception {
+    RefreshAheadCache cache = newCache(50, 0, 500);
+    cache.putObject("key", "value");
+    Thread.sleep(100);
+    assertEquals("value", cache.getObject("key"));
+    assertEquals(1, cache.getStaleHitCount());
+    Thread.sleep(500);
+    assertNull(cache.getObject("key"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldReleaseClaimWhenRefreshFails() {
+    RefreshAheadCache cache = newCache(60000, 0, 0);
+    cache.putObject("key", "value");
+    cache.getObject("key");
+    final AtomicBoolean failed = new AtomicBoolean();
+    assertTrue(cache.refresh("key", new Runnable() {
+      @Override
+      public void run() {
+        failed.set(true);
+        throw new IllegalStateException("database down");
+      }
+    }));
+    assertTrue(failed.get());
+    assertEquals(0, cache.getRefreshCount());
+    cache.getObject("key");
+    assertTrue(cache.refresh("key", new CountingTask()));
+  }
+
+  private RefreshAheadCache newCache(long expiry, long refreshAfter, long maxStale) {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setExpiry(expiry);
+    cache.setRefreshAfter(refreshAfter);
+    cache.setMaxStale(maxStale);
+    cache.setExecutor(DIRECT);
+    return cache;
+  }
+
+  private static class CountingTask implements Runnable {
+    final AtomicInteger runs = new AtomicInteger();
+
+    @Override
+    public void run() {
+      runs.incrementAndGet();
+    }
+  }
+
+}
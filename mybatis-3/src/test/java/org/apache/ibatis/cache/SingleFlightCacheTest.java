@@ -0,0 +1,173 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.decorators.SingleFlightCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class SingleFlightCacheTest {
+
+  @Test
+  public void shouldShareLeaderResultWithWaiters() throws Exception {
+    final SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    SingleFlightCache.Flight flight = cache.join("key");
+    assertTrue(flight.isLeader());
+
+    final CountDownLatch joined = new CountDownLatch(1);
+    final AtomicReference<Object> received = new AtomicReference<Object>();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        SingleFlightCache.Flight current = cache.join("key");
+        joined.countDown();
+        if (!current.isLeader() && current.await()) {
+          received.set(current.getResult());
+        }
+      }
+    });
+    waiter.start();
+    joined.await();
+    flight.complete("value");
+    waiter.join();
+
+    assertEquals("value", received.get());
+    assertEquals(1, cache.getLeaderCount());
+    assertEquals(1, cache.getCoalescedCount());
+    assertEquals(0, cache.getFlightsInProgress());
+  }
+
+  @Test
+  public void shouldLetTheLeaderEndTheFlightFromAnotherThread() throws Exception {
+    final SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    final SingleFlightCache.Flight flight = cache.join("key");
+    final AtomicReference<Boolean> leader = new AtomicReference<Boolean>();
+    Thread worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        leader.set(flight.isLeader());
+        flight.complete("value");
+      }
+    });
+    worker.start();
+    worker.join();
+
+    assertTrue(leader.get());
+    assertEquals(0, cache.getFlightsInProgress());
+  }
+
+  @Test
+  public void shouldNotLetAWaiterEndTheFlight() {
+    SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    cache.join("key");
+    SingleFlightCache.Flight waiter = cache.join("key");
+    assertFalse(waiter.isLeader());
+    try {
+      waiter.complete("value");
+      fail();
+    } catch (CacheException e) {
+      assertEquals(1, cache.getFlightsInProgress());
+    }
+  }
+
+  @Test
+  public void shouldStartNewFlightOnceTheLastOneLanded() {
+    SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    cache.join("key").complete("value");
+    SingleFlightCache.Flight flight = cache.join("key");
+    assertTrue(flight.isLeader());
+    assertEquals(2, cache.getLeaderCount());
+  }
+
+  @Test
+  public void shouldReleaseWaitersWhenLeaderIsCancelled() throws Exception {
+    final SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    SingleFlightCache.Flight flight = cache.join("key");
+    final CountDownLatch joined = new CountDownLatch(1);
+    final AtomicReference<Boolean> served = new AtomicReference<Boolean>();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        SingleFlightCache.Flight current = cache.join("key");
+        joined.countDown();
+        served.set(current.await());
+      }
+    });
+    waiter.start();
+    joined.await();
+    flight.cancel();
+    waiter.join();
+
+    assertFalse(served.get());
+    assertEquals(1, cache.getFailureCount());
+    assertEquals(0, cache.getCoalescedCount());
+  }
+
+  @Test
+  public void shouldStopWaitingAfterTimeout() throws Exception {
+    final SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    cache.join("key");
+    final AtomicReference<Boolean> served = new AtomicReference<Boolean>();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        served.set(cache.join("key").await());
+      }
+    });
+    waiter.start();
+    waiter.join();
+
+    assertFalse(served.get());
+    assertEquals(1, cache.getTimeoutCount());
+  }
+
+  @Test
+  public void shouldHandCopiesToWaitersOfReadWriteCache() throws Exception {
+    final SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("default"));
+    cache.setReadWrite(true);
+    SingleFlightCache.Flight flight = cache.join("key");
+    List<String> list = new ArrayList<String>();
+    list.add("a");
+    final CountDownLatch joined = new CountDownLatch(1);
+    final AtomicReference<Object> received = new AtomicReference<Object>();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        SingleFlightCache.Flight current = cache.join("key");
+        joined.countDown();
+        if (current.await()) {
+          received.set(current.getResult());
+        }
+      }
+    });
+    waiter.start();
+    joined.await();
+    flight.complete(list);
+    waiter.join();
+
+    assertEquals(list, received.get());
+    assertNotSame(list, received.get());
+  }
+
+}
@@ -0,0 +1,97 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class TableInvalidatingCacheTest {
+
+  private static final List<String> ORDERS = Collections.singletonList("orders");
+  private static final List<String> ORDERS_AND_ITEMS = Arrays.asList("orders", "order_items");
+
+  @Test
+  public void shouldDropOnlyEntriesOfModifiedTables() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    cache.putObject("orders", cache.track("a", ORDERS, cache.getVersion(ORDERS)));
+    cache.putObject("customers", cache.track("b", Collections.singletonList("customers"), 0));
+    cache.putObject("joined", cache.track("c", ORDERS_AND_ITEMS, cache.getVersion(ORDERS_AND_ITEMS)));
+
+    cache.getVersions().invalidate(Collections.singletonList("order_items"));
+
+    assertEquals("a", cache.getObject("orders"));
+    assertEquals("b", cache.getObject("customers"));
+    assertNull(cache.getObject("joined"));
+  }
+
+  @Test
+  public void shouldNotServeResultReadBeforeConcurrentWrite() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    long version = cache.getVersion(ORDERS);
+    cache.getVersions().invalidate(ORDERS);
+    cache.putObject("key", cache.track("value", ORDERS, version));
+    assertNull(cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldShareVersionsAmongCaches() {
+    TableVersions versions = new TableVersions();
+    TableInvalidatingCache first = new TableInvalidatingCache(new PerpetualCache("first"));
+    TableInvalidatingCache second = new TableInvalidatingCache(new SerializedCache(new PerpetualCache("second")));
+    first.setVersions(versions);
+    second.setVersions(versions);
+    second.putObject("key", second.track("value", ORDERS, second.getVersion(ORDERS)));
+    assertEquals("value", second.getObject("key"));
+
+    versions.invalidate(ORDERS);
+    assertNull(second.getObject("key"));
+  }
+
+  @Test
+  public void shouldReturnUntrackedValuesAsIs() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    cache.putObject("key", "value");
+    cache.getVersions().invalidate(ORDERS);
+    assertEquals("value", cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldInvalidateTablesOnCommitOnly() {
+    TableVersions versions = new TableVersions();
+    TransactionalCacheManager tcm = new TransactionalCacheManager();
+    tcm.invalidate(versions, ORDERS);
+    assertTrue(tcm.isInvalidated(ORDERS_AND_ITEMS));
+    assertEquals(0, versions.getVersion(ORDERS));
+
+    tcm.commit();
+    assertFalse(tcm.isInvalidated(ORDERS));
+    assertEquals(1, versions.getVersion(ORDERS));
+
+    tcm.invalidate(versions, ORDERS);
+    tcm.rollback();
+    assertFalse(tcm.isInvalidated(ORDERS));
+    assertEquals(1, versions.getVersion(ORDERS));
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class TransactionalCacheTest {
+
+  @Test
+  public void shouldPutAllPendingEntriesAtOnceOnCommit() {
+    BulkCache bulkCache = new BulkCache("default");
+    TransactionalCache txCache = new TransactionalCache(new SynchronizedCache(new LoggingCache(bulkCache)));
+    txCache.getObject("missed");
+    txCache.putObject("a", "1");
+    txCache.putObject("b", "2");
+    txCache.commit();
+
+    assertEquals(1, bulkCache.bulkPuts);
+    assertEquals(3, bulkCache.getSize());
+    assertEquals("1", bulkCache.getObject("a"));
+    assertNull(bulkCache.getObject("missed"));
+  }
+
+  @Test
+  public void shouldPutEntriesOneByOneByDefault() {
+    PerpetualCache cache = new PerpetualCache("default");
+    TransactionalCache txCache = new TransactionalCache(new SynchronizedCache(cache));
+    txCache.putObject("a", "1");
+    txCache.putObject("b", "2");
+    txCache.commit();
+    assertEquals("1", cache.getObject("a"));
+    assertEquals("2", cache.getObject("b"));
+  }
+
+  @Test
+  public void shouldNotPutAnythingOnRollback() {
+    BulkCache bulkCache = new BulkCache("default");
+    TransactionalCache txCache = new TransactionalCache(bulkCache);
+    txCache.putObject("a", "1");
+    txCache.rollback();
+    txCache.commit();
+    assertEquals(0, bulkCache.bulkPuts);
+  }
+
+  private static class BulkCache extends PerpetualCache {
+    private int bulkPuts;
+
+    BulkCache(String id) {
+      super(id);
+    }
+
+    @Override
+    public void putObjects(Map<Object, Object> entries) {
+      bulkPuts++;
+      for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+        super.putObject(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+}
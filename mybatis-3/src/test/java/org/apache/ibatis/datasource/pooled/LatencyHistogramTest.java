@@ -0,0 +1,53 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldReportPercentilesAsBucketUpperBounds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.record(3);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(100);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(12, histogram.getAverage());
+    assertEquals(100, histogram.getMax());
+    assertEquals(3, histogram.getPercentile(50));
+    assertEquals(3, histogram.getPercentile(90));
+    // 100 is counted from 64 to 127, but not above the max
+    assertEquals(100, histogram.getPercentile(95));
+    assertEquals(Long.valueOf(3), histogram.getSummary().get("p50"));
+  }
+
+  @Test
+  public void shouldReportZeroWhenEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(0);
+    histogram.record(-5);
+    assertEquals(0, histogram.getPercentile(99));
+    assertEquals(0, new LatencyHistogram().getPercentile(50));
+    assertEquals(0, new LatencyHistogram().getAverage());
+  }
+
+}
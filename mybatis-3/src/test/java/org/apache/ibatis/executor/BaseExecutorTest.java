@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -16,6 +16,7 @@
 package org.apache.ibatis.executor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -416,6 +417,59 @@ public class BaseExecutorTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldFetchComplexBlogsWithBoundedLocalCache() throws Exception {
+    config.setLocalCacheSize(1);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement selectBlog = ExecutorTestHelper.prepareComplexSelectBlogMappedStatement(config);
+      MappedStatement selectPosts = ExecutorTestHelper.prepareSelectPostsForBlogMappedStatement(config);
+      config.addMappedStatement(selectBlog);
+      config.addMappedStatement(selectPosts);
+      List<Blog> blogs = executor.query(selectBlog, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      executor.flushStatements();
+      assertEquals(1, blogs.size());
+      assertEquals(2, blogs.get(0).getPosts().size());
+      assertEquals(1, blogs.get(0).getPosts().get(1).getBlog().getPosts().get(1).getBlog().getId());
+      executor.rollback(true);
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedLocalCacheEntries() throws Exception {
+    config.setLocalCacheSize(1);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement selectAuthor = ExecutorTestHelper.prepareSelectOneAuthorMappedStatement(config);
+      executor.query(selectAuthor, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      executor.query(selectAuthor, 102, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertFalse(executor.isCached(selectAuthor, executor.createCacheKey(selectAuthor, 101, RowBounds.DEFAULT, selectAuthor.getBoundSql(101))));
+      assertTrue(executor.isCached(selectAuthor, executor.createCacheKey(selectAuthor, 102, RowBounds.DEFAULT, selectAuthor.getBoundSql(102))));
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldNotKeepResultsOfStatementsOptingOutOfLocalCache() throws Exception {
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement selectAuthor = ExecutorTestHelper.prepareSelectOneAuthorMappedStatement(config);
+      MappedStatement uncachedSelectAuthor = new MappedStatement.Builder(config, "uncachedSelectAuthor", selectAuthor.getSqlSource(), selectAuthor.getSqlCommandType())
+          .parameterMap(selectAuthor.getParameterMap()).resultMaps(selectAuthor.getResultMaps()).useLocalCache(false).build();
+      List<Author> authors = executor.query(uncachedSelectAuthor, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(1, authors.size());
+      assertFalse(executor.isCached(uncachedSelectAuthor, executor.createCacheKey(uncachedSelectAuthor, 101, RowBounds.DEFAULT, uncachedSelectAuthor.getBoundSql(101))));
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
   @Test
   public void shouldMapConstructorResults() throws Exception {
     
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,7 +15,18 @@
  */
 package org.apache.ibatis.executor;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.SingleFlightCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
 import org.junit.Test;
 
 public class CachingSimpleExecutorTest extends BaseExecutorTest {
@@ -24,6 +35,28 @@ public class CachingSimpleExecutorTest extends BaseExecutorTest {
   public void dummy() {
   }
 
+  @Test
+  public void shouldNotShareResultsReadThroughUncommittedWrites() throws Exception {
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      SingleFlightCache cache = new SingleFlightCache(new PerpetualCache("coalesced_author_cache"));
+      Author author = new Author(99, "someone", "******", "someone@apache.org", null, Section.NEWS);
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      MappedStatement selectStatement = ExecutorTestHelper.prepareCachedSelectOneAuthorMappedStatement(config, cache);
+      executor.update(insertStatement, author);
+      List<Author> authors = executor.query(selectStatement, 99, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(1, authors.size());
+      assertEquals(0, cache.getLeaderCount());
+      executor.rollback(true);
+      authors = executor.query(selectStatement, 99, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(0, authors.size());
+      assertEquals(1, cache.getLeaderCount());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
   @Override
   protected Executor createExecutor(Transaction transaction) {
     return new CachingExecutor(new SimpleExecutor(config,transaction));
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -155,6 +155,14 @@ public class ExecutorTestHelper {
   }
 
   public static MappedStatement prepareSelectOneAuthorMappedStatement(final Configuration config) {
+    return prepareSelectOneAuthorMappedStatement(config, authorCache, false);
+  }
+
+  public static MappedStatement prepareCachedSelectOneAuthorMappedStatement(final Configuration config, final Cache cache) {
+    return prepareSelectOneAuthorMappedStatement(config, cache, true);
+  }
+
+  private static MappedStatement prepareSelectOneAuthorMappedStatement(final Configuration config, final Cache cache, boolean useCache) {
     final TypeHandlerRegistry registry = config.getTypeHandlerRegistry();
 
     final ResultMap rm = new ResultMap.Builder(config, "defaultResultMap", Author.class, new
@@ -181,7 +189,8 @@ public class ExecutorTestHelper {
             add(rm);
           }
         })
-        .cache(authorCache).build();
+        .useCache(useCache)
+        .cache(cache).build();
     return ms;
   }
 
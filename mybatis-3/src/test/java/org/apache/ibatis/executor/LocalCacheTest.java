@@ -0,0 +1,106 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOLDER;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LocalCacheTest {
+
+  @Test
+  public void shouldOnlyEvictWhenAsked() {
+    LocalCache cache = new LocalCache("local", 2, 0);
+    cache.putObject("a", "1");
+    cache.putObject("b", "2");
+    cache.putObject("c", "3");
+    assertEquals(3, cache.getSize());
+    cache.getObject("a");
+    cache.evictEntries();
+    assertEquals(2, cache.getSize());
+    assertNotNull(cache.getObject("a"));
+    assertNull(cache.getObject("b"));
+  }
+
+  @Test
+  public void shouldEvictByEstimatedBytes() {
+    LocalCache cache = new LocalCache("local", 0, 2000);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, Collections.nCopies(10, "value " + i));
+    }
+    cache.evictEntries();
+    assertTrue(cache.getSize() < 10);
+    assertNotNull(cache.getObject(9));
+  }
+
+  @Test
+  public void shouldNotWeighPlaceholders() {
+    LocalCache cache = new LocalCache("local", 0, 1);
+    cache.putObject("key", EXECUTION_PLACEHOLDER);
+    cache.evictEntries();
+    assertSame(EXECUTION_PLACEHOLDER, cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldDropEntriesOfUncachedStatements() {
+    LocalCache cache = new LocalCache("local", 0, 0);
+    cache.putObject("a", "1");
+    cache.putObject("b", "2");
+    cache.dropLater("b");
+    assertNotNull(cache.getObject("b"));
+    cache.evictEntries();
+    assertNull(cache.getObject("b"));
+    assertNotNull(cache.getObject("a"));
+  }
+
+  @Test
+  public void shouldDropOutputParametersWithTheirResult() {
+    LocalCache cache = new LocalCache("local", 2, 0);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, "result " + i);
+      cache.getOutputParameters().putObject(i, "parameter " + i);
+    }
+    cache.evictEntries();
+    assertEquals(2, cache.getSize());
+    assertEquals(2, cache.getOutputParameters().getSize());
+    assertEquals("parameter 9", cache.getOutputParameters().getObject(9));
+    assertNull(cache.getOutputParameters().getObject(0));
+    cache.clear();
+    assertEquals(0, cache.getOutputParameters().getSize());
+  }
+
+  @Test
+  public void shouldWeighOutputParameters() {
+    LocalCache cache = new LocalCache("local", 0, 2000);
+    cache.putObject("small", "1");
+    List<String> parameter = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      parameter.add("parameter " + i);
+    }
+    cache.getOutputParameters().putObject("small", parameter);
+    cache.putObject("other", "2");
+    cache.evictEntries();
+    assertNull(cache.getObject("small"));
+    assertNull(cache.getOutputParameters().getObject("small"));
+    assertNotNull(cache.getObject("other"));
+  }
+
+}
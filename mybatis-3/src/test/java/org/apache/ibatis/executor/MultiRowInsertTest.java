@@ -0,0 +1,44 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MultiRowInsertTest {
+
+  @Test
+  public void shouldFindValuesOfSingleRowInsert() {
+    assertValuesStart("insert into users (id, name) values (?, ?)");
+    assertValuesStart("INSERT INTO users VALUES\n  (?, upper(?));");
+    assertValuesStart("insert into users values (?, 'a)b', \"c(\")");
+  }
+
+  private void assertValuesStart(String sql) {
+    assertEquals(sql.indexOf("(?"), MultiRowInsert.valuesStart(sql));
+  }
+
+  @Test
+  public void shouldNotRewriteOtherInserts() {
+    assertEquals(-1, MultiRowInsert.valuesStart("insert into users (id) values (?), (?)"));
+    assertEquals(-1, MultiRowInsert.valuesStart("insert into users (id) values (?) on duplicate key update id = ?"));
+    assertEquals(-1, MultiRowInsert.valuesStart("insert into users (id) select id from people where name = ?"));
+    assertEquals(-1, MultiRowInsert.valuesStart("insert into users (values_count) select ?"));
+    assertEquals(-1, MultiRowInsert.valuesStart("insert into users (id) values (?"));
+  }
+
+}
@@ -17,17 +17,35 @@ package org.apache.ibatis.jdbc;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PoolListener;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -91,6 +109,390 @@ public class PooledDataSourceTest extends BaseDataTest {
     c.close();
   }
 
+  @Test
+  public void shouldReusePreparedStatementsAcrossCheckouts() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolPreparedStatementCacheSize(1);
+
+      PreparedStatement first = prepareAndClose(ds, "SELECT * FROM PRODUCT");
+      assertSame(first, prepareAndClose(ds, "SELECT * FROM PRODUCT"));
+      assertFalse(first.isClosed());
+
+      // the least recently used statement is closed when the cache is full
+      PreparedStatement other = prepareAndClose(ds, "SELECT * FROM CATEGORY");
+      assertNotSame(other, first);
+      assertTrue(first.isClosed());
+    } finally {
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldNotShareCachedPreparedStatementInUse() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setPoolPreparedStatementCacheSize(10);
+      Connection c = ds.getConnection();
+      PreparedStatement outer = c.prepareStatement("SELECT * FROM PRODUCT WHERE PRODUCTID = ?");
+      PreparedStatement inner = c.prepareStatement("SELECT * FROM PRODUCT WHERE PRODUCTID = ?");
+      assertNotSame(outer.unwrap(PreparedStatement.class), inner.unwrap(PreparedStatement.class));
+      assertSame(c, outer.getConnection());
+      inner.close();
+      outer.setMaxRows(1);
+      outer.close();
+      assertTrue(outer.isClosed());
+      try {
+        outer.executeQuery();
+        fail();
+      } catch (SQLException e) {
+        // closed
+      }
+      PreparedStatement reused = c.prepareStatement("SELECT * FROM PRODUCT WHERE PRODUCTID = ?");
+      assertEquals(0, reused.getMaxRows());
+      reused.close();
+      c.close();
+    } finally {
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldNotStallBorrowersWhileAConnectionIsOpened() throws Exception {
+    final CountDownLatch opening = new CountDownLatch(1);
+    final CountDownLatch opened = new CountDownLatch(1);
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    UnpooledDataSource slowDataSource = new UnpooledDataSource(props.getProperty("driver"), props.getProperty("url"),
+        props.getProperty("username"), props.getProperty("password")) {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Connection getConnection() throws SQLException {
+        if (count.incrementAndGet() == 2) {
+          opening.countDown();
+          try {
+            opened.await();
+          } catch (InterruptedException e) {
+            throw new SQLException(e);
+          }
+        }
+        return super.getConnection();
+      }
+    };
+    final PooledDataSource ds = new PooledDataSource(slowDataSource);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Connection first = ds.getConnection();
+      Future<Connection> slow = executor.submit(new Callable<Connection>() {
+        @Override
+        public Connection call() throws Exception {
+          return ds.getConnection();
+        }
+      });
+      assertTrue(opening.await(5, TimeUnit.SECONDS));
+      Future<Connection> again = executor.submit(new Callable<Connection>() {
+        @Override
+        public Connection call() throws Exception {
+          first.close();
+          return ds.getConnection();
+        }
+      });
+      assertSame(PooledDataSource.unwrapConnection(first), PooledDataSource.unwrapConnection(again.get(5, TimeUnit.SECONDS)));
+      assertFalse(slow.isDone());
+      opened.countDown();
+      assertNotNull(slow.get(5, TimeUnit.SECONDS));
+      assertEquals(2, ds.getPoolState().getActiveConnectionCount());
+    } finally {
+      opened.countDown();
+      executor.shutdownNow();
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldNotOpenMoreThanTheMaximumActiveConnectionsUnderContention() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolMaximumActiveConnections(4);
+    ds.setPoolMaximumIdleConnections(4);
+    final Set<Connection> realConnections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    final AtomicInteger inUse = new AtomicInteger();
+    final AtomicInteger maxInUse = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+    try {
+      List<Future<Void>> borrowers = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 32; i++) {
+        borrowers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < 200; j++) {
+              Connection c = ds.getConnection();
+              realConnections.add(PooledDataSource.unwrapConnection(c));
+              int n = inUse.incrementAndGet();
+              int max;
+              while (n > (max = maxInUse.get()) && !maxInUse.compareAndSet(max, n)) {
+                // retry
+              }
+              inUse.decrementAndGet();
+              c.close();
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> borrower : borrowers) {
+        borrower.get(30, TimeUnit.SECONDS);
+      }
+      assertTrue(maxInUse.get() <= 4);
+      assertTrue(realConnections.size() <= 4);
+      assertEquals(32 * 200, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(realConnections.size(), ds.getPoolState().getIdleConnectionCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      executor.shutdownNow();
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldOpenMinimumIdleConnectionsInTheBackground() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolMinimumIdleConnections", "3");
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    final PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      awaitCondition(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return ds.getPoolState().getIdleConnectionCount() == 3;
+        }
+      });
+      Connection c = ds.getConnection();
+      awaitCondition(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return ds.getPoolState().getIdleConnectionCount() == 3;
+        }
+      });
+      assertEquals(4, ds.getPoolState().getConnectionCount());
+      c.close();
+    } finally {
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldRetireConnectionsPastTheirLifetime() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolMinimumIdleConnections(1);
+    ds.setPoolMaximumLifetime(200);
+    ds.setPoolHousekeepingInterval(50);
+    try {
+      Connection c = ds.getConnection();
+      final Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      awaitCondition(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws SQLException {
+          return realConnection.isClosed();
+        }
+      });
+      c = ds.getConnection();
+      assertNotSame(realConnection, PooledDataSource.unwrapConnection(c));
+      c.close();
+    } finally {
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldRejectANonPositiveHousekeepingInterval() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolHousekeepingInterval(0);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertEquals("poolHousekeepingInterval must be positive but was 0", e.getMessage());
+    }
+    assertEquals(30000, ds.getPoolHousekeepingInterval());
+  }
+
+  @Test
+  public void shouldReplaceBrokenIdleConnectionsInTheBackground() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolMinimumIdleConnections(1);
+    ds.setPoolIdleValidationInterval(10);
+    ds.setPoolHousekeepingInterval(50);
+    try {
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      realConnection.close();
+      awaitCondition(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return ds.getPoolState().getBadConnectionCount() == 1 && ds.getPoolState().getIdleConnectionCount() == 1;
+        }
+      });
+      c = ds.getConnection();
+      assertNotSame(realConnection, PooledDataSource.unwrapConnection(c));
+      assertFalse(c.isClosed());
+      c.close();
+    } finally {
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldRecordPoolMetrics() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolListener", CountingPoolListener.class.getName());
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      Connection first = ds.getConnection();
+      Connection second = ds.getConnection();
+      first.close();
+      assertEquals(2, ds.getPoolState().getWaitTimeHistogram().getCount());
+      assertEquals(2, ds.getPoolState().getCreationTimeHistogram().getCount());
+      assertEquals(1, ds.getPoolState().getCheckoutTimeHistogram().getCount());
+      assertEquals(0, ds.getPoolState().getPendingConnectionCount());
+
+      CountingPoolListener listener = (CountingPoolListener) ds.getPoolListener();
+      assertEquals(2, listener.opened.get());
+      assertEquals(2, listener.checkedOut.get());
+      assertEquals(1, listener.returned.get());
+
+      ds.registerMBean(server, "jpetstore");
+      ObjectName name = new ObjectName("org.mybatis:type=Pool,name=\"jpetstore\"");
+      assertEquals(1, server.getAttribute(name, "ActiveConnectionCount"));
+      assertEquals(1, server.getAttribute(name, "IdleConnectionCount"));
+      second.close();
+    } finally {
+      ds.unregisterMBean(server, "jpetstore");
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldReportLeakedConnectionWithCheckoutStack() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolLeakDetectionThreshold(50);
+    ds.setPoolHousekeepingInterval(20);
+    CountingPoolListener listener = new CountingPoolListener();
+    ds.setPoolListener(listener);
+    try {
+      Connection c = ds.getConnection();
+      final AtomicReference<Throwable> trace = listener.leakTrace;
+      awaitCondition(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return trace.get() != null;
+        }
+      });
+      assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+      assertEquals("shouldReportLeakedConnectionWithCheckoutStack", stackFrameOf(trace.get(), PooledDataSourceTest.class));
+      Thread.sleep(100);
+      // a leak is reported once
+      assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+      c.close();
+    } finally {
+      ds.close();
+    }
+  }
+
+  @Test
+  public void shouldKeepCountsRightWhenTheListenerThrows() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    PoolListener listener = new CountingPoolListener() {
+      @Override
+      public void connectionOpened(long millis) {
+        throw new IllegalStateException("opened");
+      }
+
+      @Override
+      public void connectionCheckedOut(long waitMillis) {
+        throw new IllegalStateException("checked out");
+      }
+
+      @Override
+      public void connectionReturned(long checkoutMillis) {
+        throw new IllegalStateException("returned");
+      }
+    };
+    ds.setPoolListener(listener);
+    try {
+      assertSame(listener, ds.getPoolListener());
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      c = ds.getConnection();
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.close();
+    }
+  }
+
+  private String stackFrameOf(Throwable trace, Class<?> type) {
+    for (StackTraceElement element : trace.getStackTrace()) {
+      if (element.getClassName().equals(type.getName())) {
+        return element.getMethodName();
+      }
+    }
+    return null;
+  }
+
+  public static class CountingPoolListener implements PoolListener {
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger returned = new AtomicInteger();
+    private final AtomicReference<Throwable> leakTrace = new AtomicReference<Throwable>();
+
+    @Override
+    public void connectionOpened(long millis) {
+      opened.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(long waitMillis) {
+      checkedOut.incrementAndGet();
+    }
+
+    @Override
+    public void connectionReturned(long checkoutMillis) {
+      returned.incrementAndGet();
+    }
+
+    @Override
+    public void connectionLeaked(long checkoutMillis, Throwable checkoutTrace) {
+      leakTrace.set(checkoutTrace);
+    }
+  }
+
+  private void awaitCondition(Callable<Boolean> condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.call()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private PreparedStatement prepareAndClose(PooledDataSource ds, String sql) throws SQLException {
+    try (Connection c = ds.getConnection(); PreparedStatement st = c.prepareStatement(sql)) {
+      st.executeQuery().close();
+      return st.unwrap(PreparedStatement.class);
+    }
+  }
+
   @Ignore("See the comments")
   @Test
   public void shouldReconnectWhenServerKilledLeakedConnection() throws Exception {
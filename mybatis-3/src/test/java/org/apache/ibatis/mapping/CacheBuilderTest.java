@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -18,11 +18,22 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.TableVersions;
+import org.apache.ibatis.cache.decorators.CopyingCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.MemoryWeightedCache;
+import org.apache.ibatis.cache.decorators.SingleFlightCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
 import java.lang.reflect.Field;
+import java.util.Properties;
 
 import static com.googlecode.catchexception.apis.BDDCatchException.*;
 import static org.assertj.core.api.BDDAssertions.then;
@@ -43,6 +54,79 @@ public class CacheBuilderTest {
       .hasMessage("Failed cache initialization for 'test' on 'org.apache.ibatis.mapping.CacheBuilderTest$InitializingFailureCache'");
   }
 
+  @Test
+  public void testConcurrentEvictionIsNotSynchronized() throws Exception {
+    Cache cache = new CacheBuilder("test").addDecorator(TinyLfuCache.class).size(10).build();
+    Assertions.assertThat(cache).isInstanceOf(LoggingCache.class);
+    Assertions.assertThat((Cache) unwrap(cache)).isInstanceOf(TinyLfuCache.class);
+  }
+
+  @Test
+  public void testDefaultEvictionIsSynchronized() throws Exception {
+    Cache cache = new CacheBuilder("test").build();
+    Assertions.assertThat(cache).isInstanceOf(SynchronizedCache.class);
+  }
+
+  @Test
+  public void testCoalescingReplacesBlocking() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("timeout", "500");
+    Cache cache = new CacheBuilder("test").readWrite(true).blocking(true).coalescing(true).properties(props).build();
+    Assertions.assertThat(cache).isInstanceOf(SingleFlightCache.class);
+    Assertions.assertThat(((SingleFlightCache) cache).isReadWrite()).isTrue();
+    Assertions.assertThat(((SingleFlightCache) cache).getTimeout()).isEqualTo(500L);
+    Assertions.assertThat((Cache) unwrap(cache)).isInstanceOf(SynchronizedCache.class);
+  }
+
+  @Test
+  public void testMaxBytesWeightsBaseCache() throws Exception {
+    Cache cache = new CacheBuilder("test").maxBytes(1024L).build();
+    Cache eviction = unwrap(unwrap(cache));
+    Assertions.assertThat(eviction).isInstanceOf(LruCache.class);
+    Assertions.assertThat((Cache) unwrap(eviction)).isInstanceOf(MemoryWeightedCache.class);
+  }
+
+  @Test
+  public void testMaxBytesEvictsThroughEvictionDecorator() throws Exception {
+    Cache cache = new CacheBuilder("test").maxBytes(1024L).build();
+    LruCache eviction = (LruCache) unwrap(unwrap(cache));
+    MemoryWeightedCache weighted = (MemoryWeightedCache) unwrap(eviction);
+    Field evictionDecorator = MemoryWeightedCache.class.getDeclaredField("evictionDecorator");
+    evictionDecorator.setAccessible(true);
+    Assertions.assertThat(evictionDecorator.get(weighted)).isSameAs(eviction);
+  }
+
+  @Test
+  public void testMaxBytesRejectsTinyLfu() {
+    when(new CacheBuilder("test").addDecorator(TinyLfuCache.class).maxBytes(1024L)).build();
+    then(caughtException()).isInstanceOf(CacheException.class)
+      .hasMessage("Cache test uses the TINYLFU eviction, which cannot be bounded by maxBytes.");
+  }
+
+  @Test
+  public void testGlobalBudgetWeightsBaseCache() throws Exception {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(1024L);
+    Cache cache = new CacheBuilder("test").memoryBudget(budget).build();
+    Assertions.assertThat((Cache) unwrap(unwrap(unwrap(cache)))).isInstanceOf(MemoryWeightedCache.class);
+  }
+
+  @Test
+  public void testTableInvalidationWrapsCoalescing() throws Exception {
+    TableVersions versions = new TableVersions();
+    Cache cache = new CacheBuilder("test").coalescing(true).tableInvalidation(true).tableVersions(versions).build();
+    Assertions.assertThat(cache).isInstanceOf(TableInvalidatingCache.class);
+    Assertions.assertThat(((TableInvalidatingCache) cache).getDelegate()).isInstanceOf(SingleFlightCache.class);
+    Assertions.assertThat(((TableInvalidatingCache) cache).getVersions()).isSameAs(versions);
+    Assertions.assertThat(versions.isTracked()).isTrue();
+  }
+
+  @Test
+  public void testReflectiveCopyReplacesSerialization() throws Exception {
+    Cache cache = new CacheBuilder("test").readWrite(true).reflectiveCopy(true).build();
+    Assertions.assertThat((Cache) unwrap(unwrap(cache))).isInstanceOf(CopyingCache.class);
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T unwrap(Cache cache){
     Field field;
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class MappedStatementTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldParseStaticSqlOnce() {
+    final AtomicInteger built = new AtomicInteger();
+    SqlSource sqlSource = new StaticSqlSource(configuration, "update orders set status = ?") {
+      @Override
+      public BoundSql getBoundSql(Object parameterObject) {
+        built.incrementAndGet();
+        return super.getBoundSql(parameterObject);
+      }
+    };
+    MappedStatement ms = new MappedStatement.Builder(configuration, "update", sqlSource, SqlCommandType.UPDATE).build();
+    assertThat(ms.getTablesForParameter(1)).containsExactly("orders");
+    assertThat(ms.getTablesForParameter(2)).isSameAs(ms.getTablesForParameter(1));
+    assertThat(built.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldParseEachShapeOfDynamicSqlOnce() {
+    SqlSource sqlSource = new SqlSource() {
+      @Override
+      public BoundSql getBoundSql(Object parameterObject) {
+        String table = (String) parameterObject;
+        return new BoundSql(configuration, "delete from " + table + " where id = 1", null, parameterObject);
+      }
+    };
+    MappedStatement ms = new MappedStatement.Builder(configuration, "delete", sqlSource, SqlCommandType.DELETE).build();
+    Set<String> orders = ms.getTablesForParameter("orders");
+    Set<String> items = ms.getTablesForParameter("items");
+    assertThat(orders).containsExactly("orders");
+    assertThat(items).containsExactly("items");
+    assertThat(ms.getTablesForParameter("orders")).isSameAs(orders);
+    assertThat(ms.getTablesForParameter("items")).isSameAs(items);
+  }
+
+}
@@ -0,0 +1,68 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class TableNameParserTest {
+
+  @Test
+  public void shouldFindJoinedTables() {
+    assertThat(TableNameParser.parse("select o.id, c.name from orders o inner join customers c on o.customer_id = c.id"
+        + " left join addresses as a on a.id = c.address_id where o.id = ?"))
+        .containsExactly("orders", "customers", "addresses");
+  }
+
+  @Test
+  public void shouldFindCommaSeparatedTablesAndSubqueries() {
+    assertThat(TableNameParser.parse("SELECT * FROM orders o, customers c WHERE o.id IN (SELECT order_id FROM order_items)"))
+        .containsExactly("orders", "customers", "order_items");
+  }
+
+  @Test
+  public void shouldFindWrittenTables() {
+    assertThat(TableNameParser.parse("insert into orders (id, status) values (?, 'from x')")).containsExactly("orders");
+    assertThat(TableNameParser.parse("UPDATE orders SET status = ? WHERE id = ?")).containsExactly("orders");
+    assertThat(TableNameParser.parse("delete from orders where id = ?")).containsExactly("orders");
+  }
+
+  @Test
+  public void shouldIgnoreLockingClauses() {
+    assertThat(TableNameParser.parse("select * from orders where id = ? for update")).containsExactly("orders");
+    assertThat(TableNameParser.parse("insert into orders (id) values (?) on duplicate key update id = id")).containsExactly("orders");
+  }
+
+  @Test
+  public void shouldUnquoteAndDropSchema() {
+    assertThat(TableNameParser.parse("select * from \"Sales\".\"Orders\" join `items` on 1 = 1 join [dbo].[Lines] on 1 = 1"))
+        .containsExactly("orders", "items", "lines");
+  }
+
+  @Test
+  public void shouldSkipComments() {
+    assertThat(TableNameParser.parse("select * /* from hidden */ from orders -- join other\n where 1 = 1"))
+        .containsExactly("orders");
+  }
+
+  @Test
+  public void shouldParseDeclaredTables() {
+    assertThat(TableNameParser.parseDeclared(" Orders, sales.order_items ,")).containsExactly("orders", "order_items");
+    assertThat(TableNameParser.parseDeclared(null)).isEmpty();
+  }
+
+}
@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_sizing;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.BatchStatistics;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchSizingTest {
+
+  private Configuration configuration;
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    DataSource dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:batch_sizing", "sa", "");
+    BaseDataTest.runScript(dataSource, "org/apache/ibatis/submitted/batch_sizing/CreateDB.sql");
+    configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(Mapper.class);
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  @Test
+  public void shouldExecuteBatchOnceItReachesMaxSize() {
+    configuration.setBatchMaxSize(10);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 0; i < 25; i++) {
+        mapper.insertUser(new User(i, "User" + i));
+      }
+      BatchStatistics statistics = configuration.getBatchStatistics();
+      assertEquals(2, statistics.getAutoFlushCount());
+      assertEquals(20, statistics.getRowCount());
+
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(1, results.size());
+      assertEquals(5, results.get(0).getParameterObjects().size());
+      assertEquals(3, statistics.getBatchCount());
+      assertEquals(10, statistics.getMaxRowsPerBatch());
+      sqlSession.commit();
+    }
+  }
+
+  @Test
+  public void shouldExecuteBatchesOnceTheirParametersReachMaxBytes() {
+    configuration.setBatchMaxBytes(1L);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.insertUser(new User(1, "User1"));
+      mapper.insertUser(new User(2, "User2"));
+      assertEquals(2, configuration.getBatchStatistics().getAutoFlushCount());
+      assertTrue(sqlSession.flushStatements().isEmpty());
+    }
+  }
+
+  @Test
+  public void shouldGroupInterleavedStatementsWhenReordering() {
+    configuration.setBatchReorderStatements(true);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+      insertInterleaved(sqlSession.getMapper(Mapper.class));
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(2, results.size());
+      assertEquals(5, results.get(0).getUpdateCounts().length);
+      assertEquals(5, results.get(1).getUpdateCounts().length);
+      assertEquals(5.0, configuration.getBatchStatistics().getAverageRowsPerBatch(), 0.0);
+    }
+  }
+
+  @Test
+  public void shouldKeepInterleavedStatementsInOrderByDefault() {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+      insertInterleaved(sqlSession.getMapper(Mapper.class));
+      assertEquals(10, sqlSession.flushStatements().size());
+    }
+  }
+
+  private void insertInterleaved(Mapper mapper) {
+    for (int i = 0; i < 5; i++) {
+      mapper.insertUser(new User(i, "User" + i));
+      mapper.insertDept(i, "Dept" + i);
+    }
+  }
+
+}
@@ -0,0 +1,162 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_snapshot;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.cache.CacheSnapshot;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheSnapshotTest {
+
+  private DataSource dataSource;
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:cache_snapshot", "sa", "");
+    BaseDataTest.runScript(dataSource, "org/apache/ibatis/submitted/cache_snapshot/CreateDB.sql");
+    file = File.createTempFile("mybatis-cache", ".snapshot");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void shouldWarmUpCachesOfNewConfiguration() throws Exception {
+    SqlSessionFactory sqlSessionFactory = build(new CacheSnapshot(file));
+    // hot keys are sampled, query enough times for this one to be seen
+    for (int i = 0; i < 500; i++) {
+      assertEquals(Arrays.asList("Doe", "Smith"), findLastnames(sqlSessionFactory));
+    }
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    configuration.getCacheSnapshot().stop(configuration);
+    assertTrue(file.exists());
+
+    dropPersonTable();
+
+    SqlSessionFactory restarted = build(new CacheSnapshot(file));
+    assertEquals(1, restarted.getConfiguration().getCache(PersonMapper.class.getName()).getSize());
+    assertEquals(Arrays.asList("Doe", "Smith"), findLastnames(restarted));
+    restarted.getConfiguration().getCacheSnapshot().stop(restarted.getConfiguration());
+  }
+
+  @Test
+  public void shouldNotRestoreSnapshotOfAnotherVersion() throws Exception {
+    SqlSessionFactory sqlSessionFactory = build(null);
+    for (int i = 0; i < 500; i++) {
+      findLastnames(sqlSessionFactory);
+    }
+    CacheSnapshot snapshot = new CacheSnapshot(file);
+    snapshot.setVersion("1.0");
+    assertEquals(1, snapshot.save(sqlSessionFactory.getConfiguration()));
+
+    CacheSnapshot upgraded = new CacheSnapshot(file);
+    upgraded.setVersion("1.1");
+    assertEquals(0, upgraded.restore(build(null).getConfiguration()));
+    snapshot.setMaxAge(1);
+    Thread.sleep(10);
+    assertEquals(0, snapshot.restore(build(null).getConfiguration()));
+    snapshot.setMaxAge(0);
+    assertEquals(1, snapshot.restore(build(null).getConfiguration()));
+  }
+
+  @Test
+  public void shouldNotCountSavedEntriesAsHits() throws Exception {
+    SqlSessionFactory sqlSessionFactory = build(null);
+    for (int i = 0; i < 500; i++) {
+      findLastnames(sqlSessionFactory);
+    }
+    CacheStatistics statistics = sqlSessionFactory.getConfiguration().getCacheMetrics().getStatistics(PersonMapper.class.getName());
+    long hits = statistics.getHits();
+    long misses = statistics.getMisses();
+    assertEquals(1, new CacheSnapshot(file).save(sqlSessionFactory.getConfiguration()));
+    assertEquals(hits, statistics.getHits());
+    assertEquals(misses, statistics.getMisses());
+  }
+
+  @Test
+  public void shouldSkipCachesWithoutCachedSelects() throws Exception {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(PersonMapper.class);
+    configuration.addMapper(AuditMapper.class);
+    SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      sqlSession.getMapper(AuditMapper.class).insertPerson(3, "Brown");
+      sqlSession.commit();
+    }
+    for (int i = 0; i < 500; i++) {
+      findLastnames(sqlSessionFactory);
+    }
+    CacheSnapshot snapshot = new CacheSnapshot(file);
+    assertFalse(snapshot.isSaveOnShutdown());
+    assertEquals(1, snapshot.save(configuration));
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+    assertEquals(1, snapshot.restore(build(null).getConfiguration()));
+  }
+
+  @Test
+  public void shouldIgnoreMissingOrBrokenSnapshot() throws Exception {
+    CacheSnapshot snapshot = new CacheSnapshot(file);
+    Configuration configuration = build(null).getConfiguration();
+    assertEquals(0, snapshot.restore(configuration));
+    Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+    assertEquals(0, snapshot.restore(configuration));
+  }
+
+  private SqlSessionFactory build(CacheSnapshot snapshot) {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(PersonMapper.class);
+    configuration.setCacheSnapshot(snapshot);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  private void dropPersonTable() throws Exception {
+    try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+      statement.executeUpdate("drop table person");
+    }
+  }
+
+  private List<String> findLastnames(SqlSessionFactory sqlSessionFactory) {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      return sqlSession.getMapper(PersonMapper.class).findLastnames();
+    }
+  }
+
+}
@@ -0,0 +1,230 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.parallel_batch;
+
+import static org.junit.Assert.*;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.BatchExecutorException;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelBatchTest {
+
+  private Configuration configuration;
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    DataSource dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:parallel_batch", "sa", "");
+    BaseDataTest.runScript(dataSource, "org/apache/ibatis/submitted/parallel_batch/CreateDB.sql");
+    configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(Mapper.class);
+    configuration.setBatchParallelism(4);
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  @Test
+  public void shouldFlushSlicesOverSeveralConnections() {
+    List<User> users = new ArrayList<User>();
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.PARALLEL_BATCH)) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 0; i < 100; i++) {
+        User user = new User("User" + i);
+        users.add(user);
+        mapper.insertUser(user);
+      }
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(1, results.size());
+      assertEquals(100, results.get(0).getUpdateCounts().length);
+      // the slices are committed, even if the session is not
+      sqlSession.rollback();
+    }
+    assertEquals(4, configuration.getBatchStatistics().getBatchCount());
+    assertEquals(101, countUsers());
+    Set<Integer> ids = new HashSet<Integer>();
+    for (User user : users) {
+      ids.add(user.getId());
+    }
+    assertEquals(100, ids.size());
+    assertFalse(ids.contains(null));
+  }
+
+  @Test
+  public void shouldCommitSlicesWithManagedTransactions() {
+    UnpooledDataSource dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:parallel_batch", "sa", "");
+    dataSource.setAutoCommit(false);
+    configuration.setEnvironment(new Environment("test", new ManagedTransactionFactory(), dataSource));
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.PARALLEL_BATCH)) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 0; i < 8; i++) {
+        mapper.insertUser(new User("User" + i));
+      }
+      sqlSession.flushStatements();
+    }
+    assertEquals(9, countUsers());
+  }
+
+  @Test
+  public void shouldBoundSlicesByThePoolSize() {
+    PooledDataSource dataSource = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:parallel_batch", "sa", "");
+    dataSource.setPoolMaximumActiveConnections(3);
+    configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    try {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.PARALLEL_BATCH)) {
+        Mapper mapper = sqlSession.getMapper(Mapper.class);
+        for (int i = 0; i < 8; i++) {
+          mapper.insertUser(new User("User" + i));
+        }
+        sqlSession.flushStatements();
+        sqlSession.commit();
+      }
+      assertEquals(2, configuration.getBatchStatistics().getBatchCount());
+      assertEquals(9, countUsers());
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  @Test
+  public void shouldReportFailedSlices() {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.PARALLEL_BATCH)) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 1; i <= 8; i++) {
+        // id 5 already exists
+        mapper.insertUserWithId(new User(i, "User" + i));
+      }
+      try {
+        sqlSession.flushStatements();
+        fail();
+      } catch (PersistenceException e) {
+        BatchExecutorException cause = (BatchExecutorException) e.getCause();
+        int[] updateCounts = cause.getBatchUpdateException().getUpdateCounts();
+        assertEquals(8, updateCounts.length);
+        assertEquals(Statement.EXECUTE_FAILED, updateCounts[4]);
+        assertEquals(Statement.EXECUTE_FAILED, updateCounts[5]);
+        assertEquals(1, updateCounts[6]);
+        assertTrue(cause.getMessage().contains("1 of 4 slices failed"));
+      }
+    }
+    assertEquals(7, countUsers());
+  }
+
+  @Test
+  public void shouldFlushOnTheConfiguredExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    configuration.setBatchFlushExecutor(executor);
+    try {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.PARALLEL_BATCH)) {
+        Mapper mapper = sqlSession.getMapper(Mapper.class);
+        for (int i = 0; i < 8; i++) {
+          mapper.insertUser(new User("User" + i));
+        }
+        sqlSession.flushStatements();
+      }
+      assertEquals(4, executor.getTaskCount());
+      assertFalse(executor.isShutdown());
+      assertEquals(9, countUsers());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldCancelTheSlicesWhenInterrupted() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+      @Override
+      protected void beforeExecute(Thread thread, Runnable runnable) {
+        entered.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    configuration.setBatchFlushExecutor(executor);
+    final Thread flushing = Thread.currentThread();
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          entered.await();
+          flushing.interrupt();
+        } catch (InterruptedException e) {
+          // ends the test thread
+        }
+      }
+    }.start();
+    try {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.PARALLEL_BATCH)) {
+        Mapper mapper = sqlSession.getMapper(Mapper.class);
+        for (int i = 0; i < 8; i++) {
+          mapper.insertUser(new User("User" + i));
+        }
+        try {
+          sqlSession.flushStatements();
+          fail();
+        } catch (PersistenceException e) {
+          assertTrue(e.getCause() instanceof ExecutorException);
+          assertTrue(Thread.interrupted());
+        }
+      }
+      release.countDown();
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+      // no slice had started, none ran afterwards
+      assertEquals(1, countUsers());
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private int countUsers() {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      return sqlSession.getMapper(Mapper.class).countUsers();
+    }
+  }
+
+}
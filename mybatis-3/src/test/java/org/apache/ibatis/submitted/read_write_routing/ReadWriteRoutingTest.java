@@ -0,0 +1,223 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.read_write_routing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.routing.ReadWriteDataSource;
+import org.apache.ibatis.datasource.routing.ReadWriteDataSourceFactory;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadWriteRoutingTest {
+
+  private PooledDataSource primary;
+  private PooledDataSource replica1;
+  private PooledDataSource replica2;
+
+  @Before
+  public void setUp() throws Exception {
+    primary = newDatabase("primary");
+    replica1 = newDatabase("replica1");
+    replica2 = newDatabase("replica2");
+  }
+
+  @After
+  public void tearDown() {
+    primary.close();
+    replica1.close();
+    replica2.close();
+  }
+
+  @Test
+  public void shouldReadFromReplicasInProportionToTheirWeight() {
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(replica1, 2);
+    dataSource.addReplica(replica2, 1);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    Map<String, Integer> reads = new HashMap<String, Integer>();
+    for (int i = 0; i < 30; i++) {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+        String name = sqlSession.getMapper(Mapper.class).getName(1);
+        reads.put(name, reads.containsKey(name) ? reads.get(name) + 1 : 1);
+      }
+    }
+    assertEquals(Integer.valueOf(20), reads.get("replica1"));
+    assertEquals(Integer.valueOf(10), reads.get("replica2"));
+    assertNull(reads.get("primary"));
+  }
+
+  @Test
+  public void shouldReadOwnWritesFromThePrimary() {
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(replica1);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      assertEquals("replica1", mapper.getName(1));
+      assertEquals(1, mapper.insertUser(2, "written"));
+      assertEquals("written", mapper.getName(2));
+      assertEquals("primary", mapper.getName(1));
+    }
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+      assertEquals("replica1", sqlSession.getMapper(Mapper.class).getName(1));
+    }
+  }
+
+  @Test
+  public void shouldReadFromThePrimaryInATransaction() {
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(replica1);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      assertEquals("primary", mapper.getName(1));
+      assertEquals("replica1", mapper.getNameFromReplica(1));
+      assertEquals(1, mapper.insertUser(2, "written"));
+      // written but not committed, the replica safe query must not miss it
+      assertEquals("written", mapper.getNameFromReplica(2));
+      sqlSession.commit();
+      assertEquals("replica1", mapper.getNameFromReplica(1));
+    }
+    try (SqlSession sqlSession = primaryFactory().openSession()) {
+      assertEquals("written", sqlSession.getMapper(Mapper.class).getName(2));
+    }
+  }
+
+  @Test
+  public void shouldReadFromAReplicaInAReadOnlyTransaction() throws Exception {
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(replica1);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      sqlSession.getConnection().setReadOnly(true);
+      assertEquals("replica1", sqlSession.getMapper(Mapper.class).getName(1));
+    }
+  }
+
+  @Test
+  public void shouldEjectAnUnreachableReplica() {
+    PooledDataSource missing = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:rw_missing;ifexists=true", "sa", "");
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(missing);
+    dataSource.addReplica(replica2);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    for (int i = 0; i < 4; i++) {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+        assertEquals("replica2", sqlSession.getMapper(Mapper.class).getName(1));
+      }
+    }
+    assertEquals(1, dataSource.getEjectedReplicaCount());
+  }
+
+  @Test
+  public void shouldReadFromThePrimaryWhenAllReplicasAreEjected() {
+    PooledDataSource missing = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:rw_missing;ifexists=true", "sa", "");
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(missing);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+      assertEquals("primary", sqlSession.getMapper(Mapper.class).getName(1));
+    }
+    assertEquals(1, dataSource.getEjectedReplicaCount());
+  }
+
+  @Test
+  public void shouldSpreadOpenSessionsOverTheLeastBusyReplicas() {
+    ReadWriteDataSource dataSource = new ReadWriteDataSource(primary);
+    dataSource.addReplica(replica1);
+    dataSource.addReplica(replica2);
+    dataSource.setBalancing(ReadWriteDataSource.Balancing.LEAST_OUTSTANDING);
+    SqlSessionFactory sqlSessionFactory = newSqlSessionFactory(dataSource);
+    try (SqlSession first = sqlSessionFactory.openSession(true);
+         SqlSession second = sqlSessionFactory.openSession(true)) {
+      String firstName = first.getMapper(Mapper.class).getName(1);
+      String secondName = second.getMapper(Mapper.class).getName(1);
+      assertTrue(firstName.startsWith("replica"));
+      assertTrue(secondName.startsWith("replica"));
+      assertFalse(firstName.equals(secondName));
+    }
+  }
+
+  @Test
+  public void shouldBuildPoolsFromPrefixedProperties() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("driver", "org.hsqldb.jdbcDriver");
+    properties.setProperty("username", "sa");
+    properties.setProperty("primary.url", "jdbc:hsqldb:mem:rw_primary");
+    properties.setProperty("replica.a.url", "jdbc:hsqldb:mem:rw_replica1");
+    properties.setProperty("replica.a.weight", "3");
+    properties.setProperty("replica.b.url", "jdbc:hsqldb:mem:rw_replica2");
+    properties.setProperty("balancing", "least_outstanding");
+    properties.setProperty("ejectionTime", "1000");
+    ReadWriteDataSourceFactory factory = new ReadWriteDataSourceFactory();
+    factory.setProperties(properties);
+    ReadWriteDataSource dataSource = (ReadWriteDataSource) factory.getDataSource();
+    assertEquals(ReadWriteDataSource.Balancing.LEAST_OUTSTANDING, dataSource.getBalancing());
+    assertEquals(1000, dataSource.getEjectionTime());
+    assertEquals(2, dataSource.getReplicas().size());
+    assertEquals("jdbc:hsqldb:mem:rw_replica1", ((PooledDataSource) dataSource.getReplicas().get(0)).getUrl());
+    try (SqlSession sqlSession = newSqlSessionFactory(dataSource).openSession(true)) {
+      assertTrue(sqlSession.getMapper(Mapper.class).getName(1).startsWith("replica"));
+    }
+    ((PooledDataSource) dataSource.getPrimary()).close();
+    for (DataSource replica : dataSource.getReplicas()) {
+      ((PooledDataSource) replica).close();
+    }
+  }
+
+  private SqlSessionFactory primaryFactory() {
+    return newSqlSessionFactory(primary);
+  }
+
+  private static SqlSessionFactory newSqlSessionFactory(DataSource dataSource) {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(Mapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  private static PooledDataSource newDatabase(String name) throws Exception {
+    PooledDataSource dataSource = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:rw_" + name, "sa", "");
+    BaseDataTest.runScript(dataSource, "org/apache/ibatis/submitted/read_write_routing/CreateDB.sql");
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("insert into users (id, name) values (1, ?)")) {
+      statement.setString(1, name);
+      statement.executeUpdate();
+      if (!connection.getAutoCommit()) {
+        connection.commit();
+      }
+    }
+    return dataSource;
+  }
+
+}
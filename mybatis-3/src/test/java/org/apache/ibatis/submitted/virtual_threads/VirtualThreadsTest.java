@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.virtual_threads;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+  private PooledDataSource dataSource;
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    dataSource = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:virtual_threads", "sa", "");
+    dataSource.setPoolMaximumActiveConnections(10);
+    dataSource.setPoolPreparedStatementCacheSize(10);
+    BaseDataTest.runScript(dataSource, "org/apache/ibatis/submitted/virtual_threads/CreateDB.sql");
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(Mapper.class);
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  @After
+  public void tearDown() {
+    dataSource.close();
+  }
+
+  @Test
+  public void shouldRunSelectsOnPlatformThreads() throws Exception {
+    runSelects(Executors.newFixedThreadPool(200), 2000);
+  }
+
+  @Test
+  public void shouldRunSelectsOnVirtualThreads() throws Exception {
+    ExecutorService executor;
+    try {
+      executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      executor = null;
+    }
+    Assume.assumeNotNull(executor);
+    // far more threads than carrier threads and connections, a pinned carrier thread would starve the others
+    runSelects(executor, 10000);
+  }
+
+  private void runSelects(ExecutorService executor, int count) throws InterruptedException {
+    final AtomicInteger selected = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    for (int i = 0; i < count; i++) {
+      final int id = i % 3 + 1;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+            Mapper mapper = sqlSession.getMapper(Mapper.class);
+            assertEquals("User" + id, mapper.getName(id));
+            assertEquals(3, mapper.countUsers());
+            selected.incrementAndGet();
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+    assertNull(failure.get());
+    assertEquals(count, selected.get());
+    assertEquals(0, dataSource.getPoolState().getActiveConnectionCount());
+  }
+
+}
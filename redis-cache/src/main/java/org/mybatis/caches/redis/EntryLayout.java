@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Stores each entry under its own key, with its own timeout, so that the entries of a cache spread over the
+ * slots of a cluster and expire one by one.
+ *
+ * Clearing increments a generation counter first, so that the cache is empty at once for every node: each value
+ * is prefixed with the generation it was written in and values of an older generation are ignored. The keys of the
+ * cache are then scanned and deleted in batches, so that old entries do not stay in Redis until they expire, or
+ * forever without a timeout. Entries put while the keys are scanned may be deleted too.
+ *
+ * The size is a counter of the entries put since the last clear: overwritten entries are counted again and expired
+ * ones are not subtracted, so it is an estimate.
+ */
+final class EntryLayout implements KeyLayout {
+
+  private static final int GENERATION_LENGTH = 8;
+
+  private static final int SCAN_COUNT = 1000;
+
+  private final String entryPrefix;
+  private final byte[] entryPattern;
+  private final byte[] generationKey;
+  private final byte[] sizeKey;
+
+  EntryLayout(String id) {
+    this.entryPrefix = id + ":e:";
+    this.entryPattern = (escapeGlob(entryPrefix) + "*").getBytes();
+    this.generationKey = (id + ":g").getBytes();
+    this.sizeKey = (id + ":n").getBytes();
+  }
+
+  @Override
+  public byte[] get(Jedis jedis, String key) {
+    Pipeline pipeline = jedis.pipelined();
+    Response<byte[]> generation = pipeline.get(generationKey);
+    Response<byte[]> value = pipeline.get(entryKey(key));
+    pipeline.sync();
+    byte[] bytes = value.get();
+    if (bytes == null || bytes.length < GENERATION_LENGTH
+        || ByteBuffer.wrap(bytes).getLong() != toLong(generation.get())) {
+      return null;
+    }
+    return Arrays.copyOfRange(bytes, GENERATION_LENGTH, bytes.length);
+  }
+
+  @Override
+  public void put(Jedis jedis, Map<String, byte[]> values, Integer timeout) {
+    long generation = toLong(jedis.get(generationKey));
+    Pipeline pipeline = jedis.pipelined();
+    for (Map.Entry<String, byte[]> value : values.entrySet()) {
+      byte[] bytes = ByteBuffer.allocate(GENERATION_LENGTH + value.getValue().length)
+          .putLong(generation).put(value.getValue()).array();
+      if (timeout != null) {
+        pipeline.setex(entryKey(value.getKey()), timeout, bytes);
+      } else {
+        pipeline.set(entryKey(value.getKey()), bytes);
+      }
+    }
+    pipeline.incrBy(sizeKey, values.size());
+    pipeline.sync();
+  }
+
+  @Override
+  public Long remove(Jedis jedis, String key) {
+    Long count = jedis.del(entryKey(key));
+    if (count != null && count > 0) {
+      jedis.decr(sizeKey);
+    }
+    return count;
+  }
+
+  @Override
+  public void clear(Jedis jedis) {
+    Pipeline pipeline = jedis.pipelined();
+    pipeline.incr(generationKey);
+    pipeline.del(sizeKey);
+    pipeline.sync();
+    deleteEntries(jedis);
+  }
+
+  private void deleteEntries(Jedis jedis) {
+    ScanParams params = new ScanParams().match(entryPattern).count(SCAN_COUNT);
+    byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+    do {
+      ScanResult<byte[]> keys = jedis.scan(cursor, params);
+      if (!keys.getResult().isEmpty()) {
+        jedis.del(keys.getResult().toArray(new byte[keys.getResult().size()][]));
+      }
+      cursor = keys.getCursorAsBytes();
+    } while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+  }
+
+  @Override
+  public int size(Jedis jedis) {
+    return (int) Math.max(0, toLong(jedis.get(sizeKey)));
+  }
+
+  private byte[] entryKey(String key) {
+    return (entryPrefix + key).getBytes();
+  }
+
+  private static String escapeGlob(String value) {
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (char c : value.toCharArray()) {
+      if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  private static long toLong(byte[] counter) {
+    return counter == null ? 0 : Long.parseLong(new String(counter));
+  }
+
+}
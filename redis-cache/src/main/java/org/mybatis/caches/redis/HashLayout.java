@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * Stores all the entries of a cache as the fields of one hash named after its id.
+ *
+ * The timeout applies to the whole hash, from the first put after it was cleared or expired.
+ */
+final class HashLayout implements KeyLayout {
+
+  /**
+   * Sets the expiration of the hash unless it already has one, so entries added later do not extend it.
+   */
+  private static final String EXPIRE_IF_PERSISTENT =
+      "if redis.call('ttl', KEYS[1]) == -1 then redis.call('expire', KEYS[1], ARGV[1]) end";
+
+  private final String id;
+
+  HashLayout(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public byte[] get(Jedis jedis, String key) {
+    return jedis.hget(id.getBytes(), key.getBytes());
+  }
+
+  @Override
+  public void put(Jedis jedis, Map<String, byte[]> values, Integer timeout) {
+    Map<byte[], byte[]> hash = new HashMap<byte[], byte[]>();
+    for (Map.Entry<String, byte[]> value : values.entrySet()) {
+      hash.put(value.getKey().getBytes(), value.getValue());
+    }
+    Pipeline pipeline = jedis.pipelined();
+    pipeline.hmset(id.getBytes(), hash);
+    if (timeout != null) {
+      pipeline.eval(EXPIRE_IF_PERSISTENT, 1, id, timeout.toString());
+    }
+    pipeline.sync();
+  }
+
+  @Override
+  public Long remove(Jedis jedis, String key) {
+    return jedis.hdel(id, key);
+  }
+
+  @Override
+  public void clear(Jedis jedis) {
+    jedis.del(id);
+  }
+
+  @Override
+  public int size(Jedis jedis) {
+    return jedis.hlen(id).intValue();
+  }
+
+}
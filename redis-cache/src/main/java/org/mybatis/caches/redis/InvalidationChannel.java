@@ -0,0 +1,147 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Broadcasts the removals and clears of the near caches of this JVM to the other nodes over Redis pub/sub,
+ * and applies theirs.
+ *
+ * One channel and one subscriber connection serve all the caches. Pub/sub does not keep messages, so every
+ * time the subscription is (re)established the near caches are cleared.
+ */
+final class InvalidationChannel {
+
+  private static final Log log = LogFactory.getLog(InvalidationChannel.class);
+
+  static final String CHANNEL = "mybatis:redis-cache:invalidation";
+
+  private static final String CLEAR = "C";
+  private static final String REMOVE = "R";
+  private static final long RETRY_DELAY = 1000;
+
+  private final String nodeId = UUID.randomUUID().toString();
+  private final ConcurrentMap<String, NearCache> caches = new ConcurrentHashMap<String, NearCache>();
+  private final JedisPool pool;
+  private volatile boolean subscribed;
+
+  InvalidationChannel(JedisPool pool) {
+    this.pool = pool;
+  }
+
+  void start() {
+    Thread subscriber = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        listen();
+      }
+    }, "mybatis-redis-invalidation");
+    subscriber.setDaemon(true);
+    subscriber.start();
+  }
+
+  boolean isSubscribed() {
+    return subscribed;
+  }
+
+  void register(String id, NearCache nearCache) {
+    caches.put(id, nearCache);
+  }
+
+  void publishClear(Jedis jedis, String id) {
+    jedis.publish(CHANNEL, message(id, CLEAR));
+  }
+
+  void publishRemove(Jedis jedis, String id, String key) {
+    jedis.publish(CHANNEL, message(id, REMOVE + key));
+  }
+
+  private String message(String id, String operation) {
+    return nodeId + '\n' + id + '\n' + operation;
+  }
+
+  /**
+   * Applies a message published by another node.
+   */
+  void handle(String message) {
+    String[] parts = message.split("\n", 3);
+    if (parts.length < 3 || nodeId.equals(parts[0])) {
+      return;
+    }
+    NearCache nearCache = caches.get(parts[1]);
+    if (nearCache == null) {
+      return;
+    }
+    if (parts[2].startsWith(REMOVE)) {
+      nearCache.remove(parts[2].substring(REMOVE.length()));
+    } else {
+      nearCache.clear();
+    }
+  }
+
+  private void clearAll() {
+    for (NearCache nearCache : caches.values()) {
+      nearCache.clear();
+    }
+  }
+
+  private void listen() {
+    while (true) {
+      Jedis jedis = null;
+      try {
+        jedis = pool.getResource();
+        jedis.subscribe(new JedisPubSub() {
+          @Override
+          public void onSubscribe(String channel, int subscribedChannels) {
+            // whatever was published while we were not listening is lost
+            clearAll();
+            subscribed = true;
+          }
+
+          @Override
+          public void onMessage(String channel, String message) {
+            handle(message);
+          }
+        }, CHANNEL);
+      } catch (RuntimeException e) {
+        log.warn("Lost the subscription to " + CHANNEL + ", retrying. Cause: " + e);
+      } finally {
+        subscribed = false;
+        if (jedis != null) {
+          jedis.close();
+        }
+      }
+      clearAll();
+      try {
+        Thread.sleep(RETRY_DELAY);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * How the entries of a {@link RedisCache} are laid out in Redis.
+ */
+interface KeyLayout {
+
+  byte[] get(Jedis jedis, String key);
+
+  /**
+   * @param timeout seconds the entries are kept, null to keep them until cleared
+   */
+  void put(Jedis jedis, Map<String, byte[]> values, Integer timeout);
+
+  Long remove(Jedis jedis, String key);
+
+  void clear(Jedis jedis);
+
+  /**
+   * @return number of entries, an estimate for layouts that cannot count them exactly
+   */
+  int size(Jedis jedis);
+
+}
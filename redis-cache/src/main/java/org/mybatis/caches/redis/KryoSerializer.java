@@ -16,7 +16,9 @@
 package org.mybatis.caches.redis;
 
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
@@ -31,33 +33,49 @@ public enum KryoSerializer implements Serializer {
   //Enum singleton, which is preferred approach since Java 1.5
   INSTANCE;
 
-  private Kryo kryo;
-  private Output output;
-  private Input input;
+  /**
+   * Kryo instances and buffers are not thread safe, each thread gets its own and reuses them.
+   */
+  private final ThreadLocal<Kryo> kryos = new ThreadLocal<Kryo>() {
+    @Override
+    protected Kryo initialValue() {
+      return new Kryo();
+    }
+  };
+  private final ThreadLocal<Output> outputs = new ThreadLocal<Output>() {
+    @Override
+    protected Output initialValue() {
+      return new Output(200, -1);
+    }
+  };
+  private final ThreadLocal<Input> inputs = new ThreadLocal<Input>() {
+    @Override
+    protected Input initialValue() {
+      return new Input();
+    }
+  };
   /**
    * Classes which can not resolved by default kryo serializer, 
    * which occurs very rare(https://github.com/EsotericSoftware/kryo#using-standard-java-serialization)
    * For these classes, we will use fallbackSerializer(use JDKSerializer now) to resolve.
    */
-  private HashSet<Class<?>> unnormalClassSet;
+  private Set<Class<?>> unnormalClassSet;
 
   /**
    * Hash codes of unnormal bytes which can not resolved by default kryo serializer,
    * which will be resolved by  fallbackSerializer
    */
-  private HashSet<Integer> unnormalBytesHashCodeSet;
+  private Set<Integer> unnormalBytesHashCodeSet;
   private Serializer fallbackSerializer;
 
   private KryoSerializer() {
-    kryo = new Kryo();
-    output = new Output(200, -1);
-    input = new Input();
-    unnormalClassSet = new HashSet<Class<?>>();
-    unnormalBytesHashCodeSet = new HashSet<Integer>();
+    unnormalClassSet = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+    unnormalBytesHashCodeSet = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
     fallbackSerializer = JDKSerializer.INSTANCE;//use JDKSerializer as fallback 
   }
 
   public byte[] serialize(Object object) {
+    Output output = outputs.get();
     output.clear();
     if (!unnormalClassSet.contains(object.getClass())) {
       /**
@@ -66,7 +84,7 @@ public enum KryoSerializer implements Serializer {
        * 2. This class have occurred and can be resolved by default kryo serializer 
        */
       try {
-        kryo.writeClassAndObject(output, object);
+        kryos.get().writeClassAndObject(output, object);
         return output.toBytes();
       } catch (Exception e) {
         // For unnormal class occurred for the first time, exception will be thrown
@@ -91,8 +109,9 @@ public enum KryoSerializer implements Serializer {
        * 2. This bytes have occurred and can be resolved by default kryo serializer 
        */
       try {
+        Input input = inputs.get();
         input.setBuffer(bytes);
-        return kryo.readClassAndObject(input);
+        return kryos.get().readClassAndObject(input);
       } catch (Exception e) {
         // For unnormal bytes occurred for the first time, exception will be thrown
         unnormalBytesHashCodeSet.add(hashCode);
@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded local copy of the entries of a {@link RedisCache}, least recently used entries are evicted first.
+ *
+ * Values are kept serialized, so each hit still returns a fresh copy as a plain Redis hit does, but without
+ * the round trip. A generation number guards against caching a value read from Redis while an invalidation
+ * was being processed.
+ */
+final class NearCache {
+
+  private final Map<String, Entry> entries;
+  private final long timeToLive;
+  private long generation;
+
+  /**
+   * @param size maximum number of entries
+   * @param timeToLive milliseconds an entry is kept, zero means until evicted or invalidated
+   */
+  NearCache(final int size, long timeToLive) {
+    this.timeToLive = timeToLive;
+    this.entries = new LinkedHashMap<String, Entry>(16, .75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > size;
+      }
+    };
+  }
+
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  synchronized byte[] get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAt != 0 && entry.expiresAt < System.currentTimeMillis()) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Keeps the value unless an invalidation happened since the given generation was read.
+   */
+  synchronized void put(String key, byte[] value, long readGeneration, long maxTimeToLive) {
+    if (readGeneration != generation) {
+      return;
+    }
+    long ttl = timeToLive;
+    if (maxTimeToLive > 0 && (ttl == 0 || maxTimeToLive < ttl)) {
+      ttl = maxTimeToLive;
+    }
+    entries.put(key, new Entry(value, ttl == 0 ? 0 : System.currentTimeMillis() + ttl));
+  }
+
+  synchronized void remove(String key) {
+    generation++;
+    entries.remove(key);
+  }
+
+  synchronized void clear() {
+    generation++;
+    entries.clear();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private static final class Entry {
+    private final byte[] value;
+    private final long expiresAt;
+
+    Entry(byte[] value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+}
@@ -19,12 +19,21 @@ import org.apache.ibatis.cache.Cache;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * Cache adapter for Redis.
  *
+ * When <code>nearCacheSize</code> is set, a bounded local tier keeps the entries read by this JVM so that hits
+ * do not go to Redis. Removals and clears are broadcast to the other nodes over Redis pub/sub so they drop their
+ * local copies.
+ *
+ * By default all the entries of a cache are the fields of one Redis hash, <code>keyPerEntry</code> stores each of
+ * them under its own key with its own timeout instead, see {@link EntryLayout}.
+ *
  * @author Eduardo Macarron
  */
 public final class RedisCache implements Cache {
@@ -35,10 +44,16 @@ public final class RedisCache implements Cache {
 
   private static JedisPool pool;
 
+  private static InvalidationChannel invalidationChannel;
+
   private final RedisConfig redisConfig;
 
   private Integer timeout;
 
+  private final NearCache nearCache;
+
+  private final KeyLayout layout;
+
   public RedisCache(final String id) {
     if (id == null) {
       throw new IllegalArgumentException("Cache instances require an ID");
@@ -51,7 +66,22 @@ public final class RedisCache implements Cache {
         redisConfig.getSoTimeout(), redisConfig.getPassword(), redisConfig.getDatabase(), redisConfig.getClientName(),
         redisConfig.isSsl(), redisConfig.getSslSocketFactory(), redisConfig.getSslParameters(),
         redisConfig.getHostnameVerifier());
-}
+    layout = redisConfig.isKeyPerEntry() ? new EntryLayout(id) : new HashLayout(id);
+    if (redisConfig.getNearCacheSize() > 0) {
+      nearCache = new NearCache(redisConfig.getNearCacheSize(), redisConfig.getNearCacheTimeToLive());
+      getInvalidationChannel().register(id, nearCache);
+    } else {
+      nearCache = null;
+    }
+  }
+
+  private static synchronized InvalidationChannel getInvalidationChannel() {
+    if (invalidationChannel == null) {
+      invalidationChannel = new InvalidationChannel(pool);
+      invalidationChannel.start();
+    }
+    return invalidationChannel;
+  }
 
   // TODO Review this is UNUSED
   private Object execute(RedisCallback callback) {
@@ -68,50 +98,96 @@ public final class RedisCache implements Cache {
     return this.id;
   }
 
+  /**
+   * With <code>keyPerEntry</code> the size is an estimate: overwritten entries are counted twice and expired ones
+   * are still counted, see {@link EntryLayout}.
+   */
   @Override
   public int getSize() {
     return (Integer) execute(new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        Map<byte[], byte[]> result = jedis.hgetAll(id.getBytes());
-        return result.size();
+        return layout.size(jedis);
       }
     });
   }
 
   @Override
   public void putObject(final Object key, final Object value) {
+    putObjects(Collections.singletonMap(key, value));
+  }
+
+  /**
+   * Stores all the entries and sets the expiration in a single round trip.
+   * Overrides <code>Cache.putObjects</code> of MyBatis 3.5, which calls it when a session commits.
+   */
+  public void putObjects(final Map<Object, Object> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    final Map<String, byte[]> values = new HashMap<String, byte[]>();
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      values.put(entry.getKey().toString(), redisConfig.getSerializer().serialize(entry.getValue()));
+    }
+    final long generation = nearCache == null ? 0 : nearCache.getGeneration();
     execute(new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        final byte[] idBytes = id.getBytes();
-        jedis.hset(idBytes, key.toString().getBytes(), redisConfig.getSerializer().serialize(value));
-        if (timeout != null && jedis.ttl(idBytes) == -1) {
-          jedis.expire(idBytes, timeout);
-        }
+        layout.put(jedis, values, timeout);
         return null;
       }
     });
+    if (nearCache != null) {
+      for (Map.Entry<String, byte[]> value : values.entrySet()) {
+        nearCache.put(value.getKey(), value.getValue(), generation, nearCacheMaxTimeToLive());
+      }
+    }
   }
 
   @Override
   public Object getObject(final Object key) {
-    return execute(new RedisCallback() {
-      @Override
-      public Object doWithRedis(Jedis jedis) {
-        return redisConfig.getSerializer().unserialize(jedis.hget(id.getBytes(), key.toString().getBytes()));
+    if (nearCache == null) {
+      return execute(new RedisCallback() {
+        @Override
+        public Object doWithRedis(Jedis jedis) {
+          return redisConfig.getSerializer().unserialize(layout.get(jedis, key.toString()));
+        }
+      });
+    }
+    final String field = key.toString();
+    byte[] valueBytes = nearCache.get(field);
+    if (valueBytes == null) {
+      long generation = nearCache.getGeneration();
+      valueBytes = (byte[]) execute(new RedisCallback() {
+        @Override
+        public Object doWithRedis(Jedis jedis) {
+          return layout.get(jedis, field);
+        }
+      });
+      if (valueBytes != null) {
+        nearCache.put(field, valueBytes, generation, nearCacheMaxTimeToLive());
       }
-    });
+    }
+    return redisConfig.getSerializer().unserialize(valueBytes);
   }
 
   @Override
   public Object removeObject(final Object key) {
-    return execute(new RedisCallback() {
+    Object removed = execute(new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        return jedis.hdel(id, key.toString());
+        Long count = layout.remove(jedis, key.toString());
+        if (nearCache != null) {
+          invalidationChannel.publishRemove(jedis, id, key.toString());
+        }
+        return count;
       }
     });
+    // after the redis update, so that a concurrent read of the old value is not kept
+    if (nearCache != null) {
+      nearCache.remove(key.toString());
+    }
+    return removed;
   }
 
   @Override
@@ -119,11 +195,27 @@ public final class RedisCache implements Cache {
     execute(new RedisCallback() {
       @Override
       public Object doWithRedis(Jedis jedis) {
-        jedis.del(id);
+        layout.clear(jedis);
+        if (nearCache != null) {
+          invalidationChannel.publishClear(jedis, id);
+        }
         return null;
       }
     });
+    if (nearCache != null) {
+      nearCache.clear();
+    }
+  }
+
+  boolean isNearCacheReady() {
+    return nearCache != null && invalidationChannel.isSubscribed();
+  }
 
+  /**
+   * A local entry must not outlive the Redis entry it was read from.
+   */
+  private long nearCacheMaxTimeToLive() {
+    return timeout == null ? 0 : timeout * 1000L;
   }
 
   @Override
@@ -36,6 +36,9 @@ public class RedisConfig extends JedisPoolConfig {
   private SSLParameters sslParameters;
   private HostnameVerifier hostnameVerifier;
   private Serializer serializer = JDKSerializer.INSTANCE;
+  private int nearCacheSize;
+  private long nearCacheTimeToLive;
+  private boolean keyPerEntry;
 
   public boolean isSsl() {
     return ssl;
@@ -142,4 +145,39 @@ public class RedisConfig extends JedisPoolConfig {
     this.serializer = serializer;
   }
 
+  public int getNearCacheSize() {
+    return nearCacheSize;
+  }
+
+  /**
+   * @param nearCacheSize number of entries kept in the local tier of each cache, zero disables it
+   */
+  public void setNearCacheSize(int nearCacheSize) {
+    this.nearCacheSize = nearCacheSize;
+  }
+
+  public long getNearCacheTimeToLive() {
+    return nearCacheTimeToLive;
+  }
+
+  /**
+   * @param nearCacheTimeToLive milliseconds a local entry is kept, bounds staleness if an invalidation is lost,
+   *          zero means until evicted or invalidated
+   */
+  public void setNearCacheTimeToLive(long nearCacheTimeToLive) {
+    this.nearCacheTimeToLive = nearCacheTimeToLive;
+  }
+
+  public boolean isKeyPerEntry() {
+    return keyPerEntry;
+  }
+
+  /**
+   * @param keyPerEntry whether each entry is stored under its own key with its own timeout, instead of all the
+   *          entries of a cache in one hash
+   */
+  public void setKeyPerEntry(boolean keyPerEntry) {
+    this.keyPerEntry = keyPerEntry;
+  }
+
 }
@@ -0,0 +1,98 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Needs a local redis server, like {@link RedisTestCase}.
+ */
+public final class KeyPerEntryRedisTestCase {
+
+  private static final String DEFAULT_ID = "ENTRY";
+
+  private static RedisCache cache;
+
+  @BeforeClass
+  public static void newCache() {
+    System.setProperty(RedisConfigurationBuilder.SYSTEM_PROPERTY_REDIS_PROPERTIES_FILENAME, "key-per-entry.properties");
+    cache = new RedisCache(DEFAULT_ID);
+    cache.setTimeout(60);
+  }
+
+  @AfterClass
+  public static void resetConfiguration() {
+    System.setProperty(RedisConfigurationBuilder.SYSTEM_PROPERTY_REDIS_PROPERTIES_FILENAME,
+        RedisConfigurationBuilder.REDIS_RESOURCE);
+  }
+
+  @Test
+  public void shouldPutAndGetEntries() {
+    cache.clear();
+    Map<Object, Object> entries = new HashMap<Object, Object>();
+    entries.put(1, "one");
+    entries.put(2, "two");
+    cache.putObjects(entries);
+    assertEquals("one", cache.getObject(1));
+    assertEquals("two", cache.getObject(2));
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveAnEntry() {
+    cache.clear();
+    cache.putObject(3, "three");
+    cache.removeObject(3);
+    assertNull(cache.getObject(3));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldIgnoreEntriesOfAClearedGeneration() {
+    cache.putObject(4, "four");
+    cache.clear();
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+    cache.putObject(4, "four again");
+    assertEquals("four again", cache.getObject(4));
+  }
+
+  @Test
+  public void shouldDeleteTheEntriesOfAClearedGeneration() {
+    cache.putObject(5, "five");
+    Jedis jedis = new Jedis("localhost");
+    try {
+      assertTrue(jedis.exists(DEFAULT_ID + ":e:5"));
+      cache.clear();
+      assertFalse(jedis.exists(DEFAULT_ID + ":e:5"));
+    } finally {
+      jedis.close();
+    }
+  }
+
+}
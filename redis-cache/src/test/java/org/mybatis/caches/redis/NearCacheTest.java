@@ -0,0 +1,73 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public final class NearCacheTest {
+
+  private static final byte[] VALUE = new byte[] { 1, 2, 3 };
+
+  @Test
+  public void shouldEvictLeastRecentlyUsed() {
+    NearCache nearCache = new NearCache(2, 0);
+    nearCache.put("a", VALUE, nearCache.getGeneration(), 0);
+    nearCache.put("b", VALUE, nearCache.getGeneration(), 0);
+    nearCache.get("a");
+    nearCache.put("c", VALUE, nearCache.getGeneration(), 0);
+    assertArrayEquals(VALUE, nearCache.get("a"));
+    assertNull(nearCache.get("b"));
+    assertEquals(2, nearCache.size());
+  }
+
+  @Test
+  public void shouldNotKeepValueReadBeforeInvalidation() {
+    NearCache nearCache = new NearCache(10, 0);
+    long generation = nearCache.getGeneration();
+    nearCache.remove("a");
+    nearCache.put("a", VALUE, generation, 0);
+    assertNull(nearCache.get("a"));
+  }
+
+  @Test
+  public void shouldExpireEntries() throws Exception {
+    NearCache nearCache = new NearCache(10, 60000);
+    nearCache.put("a", VALUE, nearCache.getGeneration(), 10);
+    Thread.sleep(50);
+    assertNull(nearCache.get("a"));
+  }
+
+  @Test
+  public void shouldApplyInvalidationsOfOtherNodes() {
+    InvalidationChannel channel = new InvalidationChannel(null);
+    NearCache nearCache = new NearCache(10, 0);
+    channel.register("REDIS", nearCache);
+    nearCache.put("a", VALUE, nearCache.getGeneration(), 0);
+    nearCache.put("b", VALUE, nearCache.getGeneration(), 0);
+
+    channel.handle("other-node\nREDIS\nRa");
+    assertNull(nearCache.get("a"));
+    assertArrayEquals(VALUE, nearCache.get("b"));
+
+    channel.handle("other-node\nREDIS\nC");
+    assertEquals(0, nearCache.size());
+  }
+
+}
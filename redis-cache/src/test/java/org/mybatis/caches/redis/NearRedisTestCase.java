@@ -0,0 +1,80 @@
+/**
+ *    Copyright 2015-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Needs a local redis server, like {@link RedisTestCase}.
+ */
+public final class NearRedisTestCase {
+
+  private static final String DEFAULT_ID = "NEAR";
+
+  private static RedisCache cache;
+
+  @BeforeClass
+  public static void newCache() throws Exception {
+    System.setProperty(RedisConfigurationBuilder.SYSTEM_PROPERTY_REDIS_PROPERTIES_FILENAME, "near-cache.properties");
+    cache = new RedisCache(DEFAULT_ID);
+    for (int i = 0; i < 100 && !cache.isNearCacheReady(); i++) {
+      Thread.sleep(20);
+    }
+  }
+
+  @AfterClass
+  public static void resetConfiguration() {
+    System.setProperty(RedisConfigurationBuilder.SYSTEM_PROPERTY_REDIS_PROPERTIES_FILENAME,
+        RedisConfigurationBuilder.REDIS_RESOURCE);
+  }
+
+  @Test
+  public void shouldServeHitsLocally() {
+    cache.putObject(0, 0);
+    Jedis jedis = new Jedis("localhost", 6379);
+    try {
+      // behind the cache's back, only an invalidation message drops the local copy
+      jedis.del(DEFAULT_ID);
+    } finally {
+      jedis.close();
+    }
+    assertEquals(0, cache.getObject(0));
+  }
+
+  @Test
+  public void shouldDropLocalCopiesWhenAnotherNodeClears() throws Exception {
+    cache.putObject(1, 1);
+    Jedis jedis = new Jedis("localhost", 6379);
+    try {
+      jedis.del(DEFAULT_ID);
+      jedis.publish(InvalidationChannel.CHANNEL, "other-node\n" + DEFAULT_ID + "\nC");
+    } finally {
+      jedis.close();
+    }
+    for (int i = 0; i < 50 && cache.getObject(1) != null; i++) {
+      Thread.sleep(20);
+    }
+    assertNull(cache.getObject(1));
+  }
+
+}